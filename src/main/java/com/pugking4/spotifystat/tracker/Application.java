@@ -1,6 +1,7 @@
 package com.pugking4.spotifystat.tracker;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pugking4.spotifystat.common.logging.Logger;
 import io.github.cdimascio.dotenv.Dotenv;
 import org.postgresql.ds.PGSimpleDataSource;
 
@@ -8,14 +9,30 @@ import javax.sql.DataSource;
 import java.lang.reflect.Array;
 import java.net.http.HttpClient;
 import java.time.Clock;
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
 
 public class Application {
     public static void main(String[] args) {
         Dotenv dotenv = Dotenv.configure().directory(".").load();
 
-        SpotifyWrapper spotifyWrapper = new SpotifyWrapper(HttpClient.newBuilder().build(), new ObjectMapper(), TokenManager.getInstance());
+        HttpClient httpClient = HttpClient.newBuilder().build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        TokenManager tokenManager = TokenManager.getInstance();
+        // Requests are always budgeted unless the budget is switched off by name.
+        String requestsPerSecond = dotenv.get("SPOTIFY_REQUESTS_PER_SECOND", String.valueOf(RequestGovernorConfig.DEFAULT.requestsPerSecond()));
+        RequestGovernorConfig governorConfig = requestsPerSecond.equalsIgnoreCase("unlimited")
+                ? null
+                : new RequestGovernorConfig(Double.parseDouble(requestsPerSecond),
+                        Integer.parseInt(dotenv.get("SPOTIFY_REQUEST_BURST", String.valueOf(RequestGovernorConfig.DEFAULT.burst()))));
+        Duration maxBackoff = Duration.ofSeconds(Integer.parseInt(dotenv.get("SPOTIFY_MAX_BACKOFF_SECONDS", "120")));
+        RequestBackoff backoff = new RequestBackoff(new RequestBackoffConfig(RequestBackoffConfig.DEFAULT.baseDelay(), maxBackoff));
+        RequestGovernor governor = new RequestGovernor(governorConfig, backoff);
+        SpotifyWrapper spotifyWrapper = new SpotifyWrapper(httpClient, objectMapper, tokenManager, SpotifyWrapper.DEFAULT_API_BASE, governor);
 
         PGSimpleDataSource ds = new PGSimpleDataSource();
         ds.setServerNames(new String[] {dotenv.get("DATABASE_HOST")});
@@ -23,11 +40,100 @@ public class Application {
         ds.setDatabaseName("track-database");
         ds.setUser(dotenv.get("DATABASE_USERNAME"));
         ds.setPassword(dotenv.get("DATABASE_PASSWORD"));
-        DatabaseWrapper databaseWrapper = new DatabaseWrapper(ds);
+        WriteStrategy writeStrategy = WriteStrategy.valueOf(dotenv.get("DATABASE_WRITE_STRATEGY", WriteStrategy.BATCHED.name()));
+        ConnectionPool pool = new ConnectionPool(ds, new ConnectionPoolConfig(Integer.parseInt(dotenv.get("DATABASE_POOL_SIZE", "4"))), Clock.systemUTC());
+        int knownIdCapacity = Integer.parseInt(dotenv.get("DATABASE_KNOWN_ID_CACHE_SIZE", String.valueOf(DatabaseWrapper.DEFAULT_KNOWN_ID_CAPACITY)));
+        DatabaseWrapper databaseWrapper = new DatabaseWrapper(pool, writeStrategy, new KnownIdCache(knownIdCapacity));
+        databaseWrapper.ensureSchema();
+
+        int sparsePollSeconds = Integer.parseInt(dotenv.get("TRACKING_SPARSE_POLL_SECONDS", "0"));
+        PollPredictionConfig prediction = sparsePollSeconds > 0 ? new PollPredictionConfig(Duration.ofSeconds(sparsePollSeconds)) : null;
+        int maxIdleSeconds = Integer.parseInt(dotenv.get("TRACKING_MAX_IDLE_POLL_SECONDS", "0"));
+        IdleBackoffPolicy idleBackoff = maxIdleSeconds > 0 ? new IdleBackoffPolicy(databaseWrapper, Clock.systemDefaultZone(), Duration.ofSeconds(15), Duration.ofSeconds(maxIdleSeconds)) : null;
+        boolean multiUser = Boolean.parseBoolean(dotenv.get("TRACKING_MULTI_USER", "false"));
+        int leaseSeconds = Integer.parseInt(dotenv.get("TRACKING_CLUSTER_LEASE_SECONDS", "0"));
+        String standbyGroup = dotenv.get("TRACKING_STANDBY_GROUP", "");
+
+        // A standby that takes over mid-track can see a play the old leader already recorded.
+        PlaySpool spool = new PlaySpool(FileCache.getAbsolutePath("play_spool.bin"));
+        WriteBehindQueue writeBehindQueue = new WriteBehindQueue(databaseWrapper, spool, 1000, 50, Duration.ofMillis(100), Thread::sleep,
+                !multiUser && !standbyGroup.isBlank());
+        writeBehindQueue.start();
 
         PriorityClassifier priorityClassifier = new PriorityClassifier(Clock.systemDefaultZone());
-        Set<ScheduledTaskSpecification> specs = Set.of(new TrackingPoller(spotifyWrapper, databaseWrapper).spec(), new ArtistUpdater(spotifyWrapper, databaseWrapper, priorityClassifier).spec());
-        Scheduler scheduler = new Scheduler(specs);
+        // Without a request budget nothing paces the refresh, so it fetches one chunk at a time.
+        int artistParallelism = governorConfig == null ? 1 : Integer.parseInt(dotenv.get("ARTIST_REFRESH_PARALLELISM", String.valueOf(ArtistUpdater.DEFAULT_PARALLELISM)));
+        ArtistUpdater artistUpdater = new ArtistUpdater(spotifyWrapper, databaseWrapper, priorityClassifier, artistParallelism,
+                Integer.parseInt(dotenv.get("ARTIST_REFRESH_MAX_PER_RUN", String.valueOf(ArtistUpdater.DEFAULT_MAX_ARTISTS_PER_RUN))));
+        Set<ScheduledTaskSpecification> specs = new HashSet<>(Set.of(artistUpdater.spec(), pool.spec(), new SpoolReplayer(spool, databaseWrapper).spec()));
+        specs.add(tokenManager.spec());
+
+        // Single user mode polls the account authorised through TokenManager.getInstance(). Multi-user mode polls every
+        // active user in tracked_users on virtual threads; that account is then only used to refresh artists. With a
+        // cluster lease several multi-user nodes share one database and each polls only the users it holds a lease on.
+        TrackingPoller trackingPoller = null;
+        LeaderElection leaderElection = null;
+        LeaseManager leaseManager = null;
+        MultiUserTracker multiUserTracker = null;
+        Scheduler scheduler;
+        if (multiUser) {
+            scheduler = new Scheduler(specs, new HashedWheelTimer(Duration.ofMillis(100), 512, Runnable::run), Executors.newVirtualThreadPerTaskExecutor(), Duration.ofSeconds(5));
+            int maxConcurrentRequests = Integer.parseInt(dotenv.get("TRACKING_MAX_CONCURRENT_REQUESTS", "32"));
+            if (leaseSeconds > 0) {
+                leaseManager = new LeaseManager(databaseWrapper, dotenv.get("TRACKING_NODE_ID", UUID.randomUUID().toString()), Duration.ofSeconds(leaseSeconds));
+            }
+            SpotifyOAuthServer callbackServer = TokenManager.createSharedServer();
+            multiUserTracker = new MultiUserTracker(databaseWrapper, scheduler,
+                    userId -> TokenManager.createForUser(userId, httpClient, objectMapper, callbackServer),
+                    userTokenManager -> new SpotifyWrapper(httpClient, objectMapper, userTokenManager, SpotifyWrapper.DEFAULT_API_BASE, governor),
+                    prediction, maxConcurrentRequests, leaseManager != null ? leaseManager::canPoll : userId -> true,
+                    Executors.newVirtualThreadPerTaskExecutor(), writeBehindQueue::forUser);
+            scheduler.add(leaseManager != null ? leaseManager.spec(multiUserTracker) : multiUserTracker.spec());
+        } else {
+            trackingPoller = new TrackingPoller(spotifyWrapper, writeBehindQueue, prediction, idleBackoff);
+            if (standbyGroup.isBlank()) {
+                specs.add(trackingPoller.spec());
+            } else {
+                // The election holds its lock on a connection straight from the data source, never one from the pool.
+                leaderElection = new LeaderElection(ds, databaseWrapper, standbyGroup, trackingPoller, spotifyWrapper::getCurrentlyPlaying);
+                specs.add(leaderElection.guard(trackingPoller.spec()));
+                specs.add(leaderElection.spec());
+            }
+            if (idleBackoff != null) specs.add(idleBackoff.spec());
+            scheduler = new Scheduler(specs);
+        }
+
+        // A snapshot from the last run replaces the known-id warm-up queries and picks up the track left playing. With a
+        // standby group the checkpoint lives in the database instead, restored by whichever node takes over, so a
+        // standby never starts following a track from its own file.
+        WarmSnapshot warmSnapshot = new WarmSnapshot(FileCache.getAbsolutePath("warm_snapshot.bin"), leaderElection == null ? trackingPoller : null,
+                databaseWrapper.knownIds(), tokenManager);
+        if (!warmSnapshot.restore()) databaseWrapper.warmKnownIds(knownIdCapacity);
+        scheduler.add(warmSnapshot.spec());
+
+        TrackingPoller singleUserPoller = trackingPoller;
+        LeaderElection election = leaderElection;
+        LeaseManager clusterLeases = leaseManager;
+        MultiUserTracker clusterTracker = multiUserTracker;
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scheduler.stop();
+            if (election != null) election.close();
+            warmSnapshot.save();
+            if (clusterLeases != null) clusterLeases.leave(clusterTracker);
+            if (singleUserPoller != null) {
+                PollMetrics pollMetrics = singleUserPoller.metrics();
+                Logger.println("TrackingPoller: Made " + pollMetrics.polls() + " polls, " + pollMetrics.saved() + " fewer than the fixed cadence.", 2);
+            }
+            governor.metrics().forEach((endpoint, metrics) -> Logger.println("RequestGovernor: " + endpoint + " made " + metrics.granted()
+                    + " requests, waiting " + metrics.averageWait().toMillis() + " ms on average and at most " + metrics.maxWait().toMillis() + " ms.", 2));
+            ArtistUpdateMetrics artistMetrics = artistUpdater.metrics();
+            Logger.println("ArtistUpdater: " + artistMetrics.runs() + " runs refreshed " + (artistMetrics.changed() + artistMetrics.unchanged())
+                    + " artists in " + artistMetrics.chunks() + " chunks, " + artistMetrics.failedChunks() + " chunks failed.", 2);
+            writeBehindQueue.stop(Duration.ofSeconds(10));
+            spool.close();
+            pool.close();
+        }));
 
         scheduler.start();
     }
@@ -0,0 +1,6 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+
+// pending counts the artists of the run in progress that are not written yet, zero between runs.
+public record ArtistUpdateMetrics(long runs, long changed, long unchanged, long chunks, long failedChunks, int pending, Duration lastRun) {}
@@ -4,24 +4,56 @@ import com.pugking4.spotifystat.common.dto.Artist;
 import com.pugking4.spotifystat.common.logging.Logger;
 
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+// Each run takes up to maxArtistsPerRun stale artists and fetches them in chunks of MAX_ARTIST_BATCH_SIZE, with up to
+// parallelism chunks in flight. The pace is set by the governor, where artist requests are background traffic. The
+// run thread writes each chunk as soon as it arrives while the remaining fetches carry on.
 public final class ArtistUpdater {
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int DEFAULT_MAX_ARTISTS_PER_RUN = 10_000;
     private final int delaySeconds = 30;
 
     private final SpotifyWrapper spotifyWrapper;
     private final DatabaseWrapper databaseWrapper;
     private final PriorityClassifier priorityClassifier;
+    private final int parallelism;
+    private final int maxArtistsPerRun;
 
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong failedChunks = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicReference<Duration> lastRun = new AtomicReference<>(Duration.ZERO);
 
+    private record FetchedChunk(List<String> ids, List<Artist> artists) {}
 
     public ArtistUpdater(SpotifyWrapper spotifyWrapper, DatabaseWrapper databaseWrapper, PriorityClassifier priorityClassifier) {
+        this(spotifyWrapper, databaseWrapper, priorityClassifier, DEFAULT_PARALLELISM, DEFAULT_MAX_ARTISTS_PER_RUN);
+    }
+
+    public ArtistUpdater(SpotifyWrapper spotifyWrapper, DatabaseWrapper databaseWrapper, PriorityClassifier priorityClassifier, int parallelism, int maxArtistsPerRun) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        if (maxArtistsPerRun < 1) throw new IllegalArgumentException("Artists per run must be at least 1: " + maxArtistsPerRun);
         this.spotifyWrapper = spotifyWrapper;
         this.databaseWrapper = databaseWrapper;
         this.priorityClassifier = priorityClassifier;
+        this.parallelism = parallelism;
+        this.maxArtistsPerRun = maxArtistsPerRun;
     }
 
     public ScheduledTaskSpecification spec() {
@@ -34,21 +66,93 @@ public final class ArtistUpdater {
         );
     }
 
+    // A failed chunk stops new fetches; the chunks already in flight are still written, then the failure is rethrown
+    // so the scheduler can honour any Retry-After it carries.
     private void run() {
-        List<Artist> skeletonArtists = databaseWrapper.getAllSkeletonArtists();
-        var artistIDs = computeUpdateCandidates(skeletonArtists);
+        List<String> artistIDs = databaseWrapper.getStaleArtistIds(priorityClassifier.staleBefore(), maxArtistsPerRun);
         if (artistIDs.isEmpty()) return;
-        List<Map<String, Object>> updatedArtistsRaw = spotifyWrapper.getBatchArtists(artistIDs);
-        List<Artist> updatedArtists = updatedArtistsRaw.stream().map(Artist::fromMap).toList();
-        databaseWrapper.updateBatchArtists(updatedArtists);
-    }
-
-    List<String> computeUpdateCandidates(List<Artist> artists) {
-        return artists.stream()
-                .map(a -> new Pair<String, Priority>(a.id(), priorityClassifier.classify(a.updatedAt())))
-                .filter(p -> p.right() != Priority.DO_NOT_UPDATE)
-                .sorted(Comparator.comparing(Pair::right))
-                .map(Pair::left)
-                .toList();
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < artistIDs.size(); i += SpotifyWrapper.MAX_ARTIST_BATCH_SIZE) {
+            batches.add(artistIDs.subList(i, Math.min(i + SpotifyWrapper.MAX_ARTIST_BATCH_SIZE, artistIDs.size())));
+        }
+
+        long start = System.nanoTime();
+        pending.set(artistIDs.size());
+        int refreshed = 0;
+        int runChanged = 0;
+        RuntimeException failure = null;
+        try (ExecutorService fetchers = Executors.newFixedThreadPool(parallelism, Thread.ofVirtual().name("artist-fetch-", 0).factory())) {
+            CompletionService<FetchedChunk> fetched = new ExecutorCompletionService<>(fetchers);
+            int next = 0;
+            int inFlight = 0;
+            for (; next < batches.size() && inFlight < parallelism; next++, inFlight++) submit(fetched, batches.get(next));
+            while (inFlight > 0) {
+                FetchedChunk chunk;
+                try {
+                    chunk = fetched.take().get();
+                } catch (ExecutionException e) {
+                    failedChunks.incrementAndGet();
+                    if (failure == null) failure = e.getCause() instanceof RuntimeException r ? r : new RuntimeException(e.getCause());
+                    inFlight--;
+                    continue;
+                }
+                inFlight--;
+                if (failure == null && next < batches.size()) {
+                    submit(fetched, batches.get(next++));
+                    inFlight++;
+                }
+                refreshed += chunk.artists().size();
+                runChanged += write(chunk);
+                chunks.incrementAndGet();
+                pending.addAndGet(-chunk.ids().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.set(0);
+        }
+
+        Duration took = Duration.ofNanos(System.nanoTime() - start);
+        lastRun.set(took);
+        runs.incrementAndGet();
+        Logger.println("ArtistUpdater: Refreshed " + refreshed + " of " + artistIDs.size() + " stale artists in " + batches.size() + " chunks, "
+                + runChanged + " changed, " + (refreshed - runChanged) + " unchanged, in " + took.toMillis() + " ms.", 3);
+        if (failure != null) throw failure;
+    }
+
+    private void submit(CompletionService<FetchedChunk> fetched, List<String> ids) {
+        fetched.submit(() -> new FetchedChunk(ids, spotifyWrapper.getBatchArtists(ids)));
+    }
+
+    // Returns how many of the chunk's artists changed.
+    private int write(FetchedChunk chunk) {
+        Map<String, Artist> stored = new HashMap<>();
+        for (Artist artist : databaseWrapper.getArtists(chunk.ids())) stored.put(artist.id(), artist);
+
+        List<Artist> changedArtists = new ArrayList<>();
+        List<Artist> unchangedArtists = new ArrayList<>();
+        for (Artist artist : chunk.artists()) {
+            if (hasChanged(stored.get(artist.id()), artist)) changedArtists.add(artist);
+            else unchangedArtists.add(artist);
+        }
+        databaseWrapper.updateBatchArtists(changedArtists);
+        databaseWrapper.touchArtists(unchangedArtists);
+
+        changed.addAndGet(changedArtists.size());
+        unchanged.addAndGet(unchangedArtists.size());
+        return changedArtists.size();
+    }
+
+    static boolean hasChanged(Artist stored, Artist fresh) {
+        if (stored == null) return true;
+        return !Objects.equals(stored.name(), fresh.name())
+                || !Objects.equals(stored.followers(), fresh.followers())
+                || !Objects.equals(stored.genres(), fresh.genres())
+                || !Objects.equals(stored.image(), fresh.image())
+                || !Objects.equals(stored.popularity(), fresh.popularity());
+    }
+
+    public ArtistUpdateMetrics metrics() {
+        return new ArtistUpdateMetrics(runs.get(), changed.get(), unchanged.get(), chunks.get(), failedChunks.get(), pending.get(), lastRun.get());
     }
 }
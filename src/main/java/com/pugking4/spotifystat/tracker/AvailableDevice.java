@@ -0,0 +1,5 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.Device;
+
+public record AvailableDevice(Device device, boolean isActive) {}
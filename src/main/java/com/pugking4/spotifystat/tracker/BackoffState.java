@@ -0,0 +1,8 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+
+// retryIn is zero once an open breaker may send its probe.
+public record BackoffState(Breaker breaker, int consecutiveFailures, int lastStatus, Duration retryIn) {
+    public enum Breaker { CLOSED, OPEN, HALF_OPEN }
+}
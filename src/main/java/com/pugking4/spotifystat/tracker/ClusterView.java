@@ -0,0 +1,9 @@
+package com.pugking4.spotifystat.tracker;
+
+// Live tracker nodes and active users as seen by the database at one heartbeat.
+public record ClusterView(int liveNodes, int activeUsers) {
+    // Rounded up so every user has a node even when the split is uneven.
+    public int fairShare() {
+        return Math.ceilDiv(activeUsers, Math.max(1, liveNodes));
+    }
+}
@@ -0,0 +1,295 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class ConnectionPool implements DataSource, AutoCloseable {
+    private static final int HOUSEKEEPING_SECONDS = 30;
+
+    private final DataSource delegate;
+    private final ConnectionPoolConfig cfg;
+    private final Clock clock;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> active = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder leaksDetected = new LongAdder();
+
+    public ConnectionPool(DataSource delegate, ConnectionPoolConfig cfg, Clock clock) {
+        this.delegate = delegate;
+        this.cfg = cfg;
+        this.clock = clock;
+        this.permits = new Semaphore(cfg.maxSize(), true);
+    }
+
+    public ScheduledTaskSpecification spec() {
+        return new ScheduledTaskSpecification(
+                "Connection Pool Housekeeping",
+                this::housekeeping,
+                DelayType.FIXED_DELAY,
+                Duration.ofSeconds(HOUSEKEEPING_SECONDS),
+                () -> Duration.ofSeconds(HOUSEKEEPING_SECONDS)
+        );
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(cfg.borrowTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new SQLTransientConnectionException("Timed out after " + cfg.borrowTimeout().toMillis() + "ms waiting for a pooled connection, " + active.size() + " in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a pooled connection", e);
+        }
+        recordBorrowWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) pooled = create();
+            pooled.borrowedAtMillis = clock.millis();
+            pooled.borrowSite = new Exception("Connection borrowed here");
+            pooled.leakReported = false;
+            active.add(pooled);
+            return pooled.handle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void recordBorrowWait(long nanos) {
+        borrows.increment();
+        borrowWaitNanos.add(nanos);
+        maxBorrowWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isValid(pooled)) return pooled;
+            Logger.println("ConnectionPool: Discarding connection that failed validation.", 3);
+            validationFailures.increment();
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid((int) cfg.validationTimeout().toSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Logger.println("ConnectionPool: Opening new database connection.", 4);
+        PooledConnection pooled = new PooledConnection(delegate.getConnection());
+        created.increment();
+        return pooled;
+    }
+
+    private void destroy(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            Logger.log("ConnectionPool: Failed to close connection", e);
+        }
+        destroyed.increment();
+    }
+
+    private void release(PooledConnection pooled) {
+        active.remove(pooled);
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.physical.clearWarnings();
+            pooled.lastUsedMillis = clock.millis();
+            pooled.borrowSite = null;
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            Logger.log("ConnectionPool: Failed to reset returned connection", e);
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    void housekeeping() {
+        evictIdle();
+        detectLeaks();
+        PoolMetrics metrics = metrics();
+        Logger.println("ConnectionPool: " + metrics, 4);
+    }
+
+    private void evictIdle() {
+        long cutoff = clock.millis() - cfg.idleTimeout().toMillis();
+        Iterator<PooledConnection> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledConnection pooled = it.next();
+            if (pooled.lastUsedMillis <= cutoff && idle.remove(pooled)) {
+                Logger.println("ConnectionPool: Evicting idle connection.", 4);
+                destroy(pooled);
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        long cutoff = clock.millis() - cfg.leakThreshold().toMillis();
+        for (PooledConnection pooled : active) {
+            Exception site = pooled.borrowSite;
+            if (!pooled.leakReported && site != null && pooled.borrowedAtMillis <= cutoff) {
+                pooled.leakReported = true;
+                leaksDetected.increment();
+                Logger.log("ConnectionPool: Connection held for longer than " + cfg.leakThreshold().toSeconds() + "s, possible leak", site);
+            }
+        }
+    }
+
+    public PoolMetrics metrics() {
+        long count = borrows.sum();
+        return new PoolMetrics(
+                active.size(),
+                idle.size(),
+                cfg.maxSize(),
+                count,
+                Duration.ofNanos(count == 0 ? 0 : borrowWaitNanos.sum() / count),
+                Duration.ofNanos(maxBorrowWaitNanos.get()),
+                created.sum(),
+                destroyed.sum(),
+                validationFailures.sum(),
+                leaksDetected.sum()
+        );
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the credentials of the underlying DataSource");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || delegate.isWrapperFor(iface);
+    }
+
+    private final class PooledConnection {
+        private final Connection physical;
+        private volatile long lastUsedMillis;
+        private volatile long borrowedAtMillis;
+        private volatile Exception borrowSite;
+        private volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.lastUsedMillis = clock.millis();
+        }
+
+        // Each borrow gets its own handle so a stale reference closed twice cannot return the connection twice.
+        Connection handle() {
+            AtomicBoolean returned = new AtomicBoolean(false);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (returned.compareAndSet(false, true)) release(this);
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return returned.get() || physical.isClosed();
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "toString" -> {
+                        return "Pooled" + physical;
+                    }
+                }
+                if (returned.get()) throw new SQLException("Connection has already been returned to the pool");
+                try {
+                    return method.invoke(physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        }
+    }
+}
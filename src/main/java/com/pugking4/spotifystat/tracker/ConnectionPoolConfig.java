@@ -0,0 +1,23 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+import java.util.Objects;
+
+public record ConnectionPoolConfig(int maxSize, Duration borrowTimeout, Duration idleTimeout, Duration leakThreshold, Duration validationTimeout) {
+    public ConnectionPoolConfig {
+        if (maxSize < 1) throw new IllegalArgumentException("Pool size must be at least 1: " + maxSize);
+
+        Objects.requireNonNull(borrowTimeout, "Borrow timeout is required");
+        Objects.requireNonNull(idleTimeout, "Idle timeout is required");
+        Objects.requireNonNull(leakThreshold, "Leak threshold is required");
+        Objects.requireNonNull(validationTimeout, "Validation timeout is required");
+        if (borrowTimeout.isNegative()) throw new IllegalArgumentException("Borrow timeout is negative");
+        if (idleTimeout.isNegative() || idleTimeout.isZero()) throw new IllegalArgumentException("Idle timeout must be positive");
+        if (leakThreshold.isNegative() || leakThreshold.isZero()) throw new IllegalArgumentException("Leak threshold must be positive");
+        if (validationTimeout.toSeconds() < 1) throw new IllegalArgumentException("Validation timeout must be at least one second");
+    }
+
+    public ConnectionPoolConfig(int maxSize) {
+        this(maxSize, Duration.ofSeconds(10), Duration.ofMinutes(5), Duration.ofMinutes(2), Duration.ofSeconds(2));
+    }
+}
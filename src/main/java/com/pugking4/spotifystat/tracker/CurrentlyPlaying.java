@@ -0,0 +1,6 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.Track;
+
+// track is null while an ad or an unavailable item is playing.
+public record CurrentlyPlaying(boolean isPlaying, int progressMs, String contextType, Track track, int popularity) {}
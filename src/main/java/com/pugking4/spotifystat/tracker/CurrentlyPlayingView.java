@@ -0,0 +1,56 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// The handful of fields a poll needs to follow playback, scanned from the response without building the track.
+// The full decode only runs if full() is called, normally once when the track is confirmed played.
+public final class CurrentlyPlayingView {
+    @FunctionalInterface
+    public interface FullDecoder {
+        CurrentlyPlaying decode() throws IOException;
+    }
+
+    private final boolean isPlaying;
+    private final int progressMs;
+    private final String trackId;
+    private final Integer durationMs;
+    private final FullDecoder fullDecoder;
+    private CurrentlyPlaying full;
+
+    public CurrentlyPlayingView(boolean isPlaying, int progressMs, String trackId, Integer durationMs, FullDecoder fullDecoder) {
+        this.isPlaying = isPlaying;
+        this.progressMs = progressMs;
+        this.trackId = trackId;
+        this.durationMs = durationMs;
+        this.fullDecoder = fullDecoder;
+    }
+
+    public boolean isPlaying() {
+        return isPlaying;
+    }
+
+    public int progressMs() {
+        return progressMs;
+    }
+
+    // null while an ad or an unavailable item is playing.
+    public String trackId() {
+        return trackId;
+    }
+
+    public Integer durationMs() {
+        return durationMs;
+    }
+
+    public CurrentlyPlaying full() {
+        if (full == null) {
+            try {
+                full = fullDecoder.decode();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return full;
+    }
+}
@@ -5,19 +5,44 @@ import com.pugking4.spotifystat.common.logging.Logger;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class DatabaseWrapper {
     private final DataSource ds;
+    private final WriteStrategy writeStrategy;
+    private final KnownIdCache knownIds;
+    // Owner of the plays this wrapper records, null for the single account of a single-user tracker.
+    private final String userId;
+
+    public static final int DEFAULT_KNOWN_ID_CAPACITY = 10_000;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
 
     public static final String INSERT_TRACK_HISTORY_SQL = """
-        INSERT INTO track_history (context_type, album_id, track_id, device_name, current_popularity, time_finished)
-        VALUES (?, ?, ?, ?, ?, ?)
+        INSERT INTO track_history (context_type, album_id, track_id, device_name, current_popularity, time_finished, user_id)
+        VALUES (?, ?, ?, ?, ?, ?, ?)
+        RETURNING id
+    """;
+    public static final String INSERT_TRACK_HISTORY_IF_ABSENT_SQL = """
+        INSERT INTO track_history (context_type, album_id, track_id, device_name, current_popularity, time_finished, user_id)
+        SELECT ?, ?, ?, ?, ?, ?, ?
+        WHERE NOT EXISTS (SELECT 1 FROM track_history WHERE track_id = ? AND user_id IS NOT DISTINCT FROM ? AND time_finished BETWEEN ? AND ?)
         RETURNING id
     """;
     public static final String INSERT_ARTIST_SQL = """
@@ -50,17 +75,247 @@ public final class DatabaseWrapper {
         VALUES (?, ?)
         ON CONFLICT (track_id, artist_id) DO NOTHING
     """;
+    public static final String INSERT_PLAYED_TRACK_SQL = """
+        WITH new_artists AS (
+            INSERT INTO artists (id, name, followers, genres, image, popularity, updated_at)
+            SELECT a.id, a.name, null, null, null, null, null
+            FROM unnest(?::text[], ?::text[]) AS a (id, name)
+            ON CONFLICT (id) DO NOTHING
+        ), new_album AS (
+            INSERT INTO albums (id, name, cover, release_date, release_date_precision, album_type)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (id) DO NOTHING
+        ), new_album_artists AS (
+            INSERT INTO album_artist (album_id, artist_id)
+            SELECT ?, aa.artist_id
+            FROM unnest(?::text[]) AS aa (artist_id)
+            ON CONFLICT (album_id, artist_id) DO NOTHING
+        ), new_track AS (
+            INSERT INTO tracks (id, name, album_id, duration_ms, is_explicit, is_local)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (id) DO NOTHING
+        ), new_track_artists AS (
+            INSERT INTO track_artist (track_id, artist_id)
+            SELECT ?, ta.artist_id
+            FROM unnest(?::text[]) AS ta (artist_id)
+            ON CONFLICT (track_id, artist_id) DO NOTHING
+        ), new_device AS (
+            INSERT INTO devices (name, type)
+            VALUES (?, ?)
+            ON CONFLICT (name) DO NOTHING
+        )
+        INSERT INTO track_history (context_type, album_id, track_id, device_name, current_popularity, time_finished, user_id)
+        VALUES (?, ?, ?, ?, ?, ?, ?)
+        RETURNING id
+    """;
+    public static final String GET_RECENT_TRACK_IDS_SQL = """
+        SELECT track_id FROM track_history
+        GROUP BY track_id
+        ORDER BY max(time_finished) DESC
+        LIMIT ?
+    """;
+    public static final String GET_RECENT_ALBUM_IDS_SQL = """
+        SELECT album_id FROM track_history
+        GROUP BY album_id
+        ORDER BY max(time_finished) DESC
+        LIMIT ?
+    """;
+    public static final String GET_ARTIST_IDS_SQL = """
+        SELECT id FROM artists LIMIT ?
+    """;
+    public static final String GET_DEVICE_NAMES_SQL = """
+        SELECT name FROM devices LIMIT ?
+    """;
+    public static final String GET_STALE_ARTIST_IDS_SQL = """
+        SELECT id FROM artists
+        WHERE updated_at IS NULL OR updated_at < ?
+        ORDER BY updated_at ASC NULLS FIRST
+        LIMIT ?
+    """;
+    public static final String GET_LISTENING_HEATMAP_SQL = """
+        SELECT extract(isodow FROM time_finished AT TIME ZONE ?)::int AS day,
+               extract(hour FROM time_finished AT TIME ZONE ?)::int AS hour,
+               count(*) AS plays
+        FROM track_history
+        WHERE time_finished >= ?
+        GROUP BY 1, 2
+    """;
+    public static final String ADD_TRACK_HISTORY_USER_SQL = """
+        ALTER TABLE track_history ADD COLUMN IF NOT EXISTS user_id TEXT
+    """;
+    public static final String CREATE_TRACKED_USERS_SQL = """
+        CREATE TABLE IF NOT EXISTS tracked_users (
+            user_id TEXT PRIMARY KEY,
+            active BOOLEAN NOT NULL DEFAULT true,
+            added_at TIMESTAMPTZ NOT NULL DEFAULT now()
+        )
+    """;
+    public static final String GET_TRACKED_USERS_SQL = """
+        SELECT user_id FROM tracked_users WHERE active ORDER BY user_id
+    """;
+    public static final String CREATE_TRACKER_NODES_SQL = """
+        CREATE TABLE IF NOT EXISTS tracker_nodes (
+            node_id TEXT PRIMARY KEY,
+            heartbeat_at TIMESTAMPTZ NOT NULL
+        )
+    """;
+    public static final String CREATE_USER_LEASES_SQL = """
+        CREATE TABLE IF NOT EXISTS user_leases (
+            user_id TEXT PRIMARY KEY,
+            node_id TEXT NOT NULL,
+            expires_at TIMESTAMPTZ NOT NULL
+        )
+    """;
+    // Lease times come from the database clock so nodes never compare their own clocks with each other.
+    public static final String HEARTBEAT_NODE_SQL = """
+        INSERT INTO tracker_nodes (node_id, heartbeat_at) VALUES (?, now())
+        ON CONFLICT (node_id) DO UPDATE SET heartbeat_at = now()
+    """;
+    public static final String PRUNE_NODES_SQL = """
+        DELETE FROM tracker_nodes WHERE heartbeat_at < now() - make_interval(secs => ?)
+    """;
+    public static final String GET_CLUSTER_VIEW_SQL = """
+        SELECT (SELECT count(*) FROM tracker_nodes WHERE heartbeat_at >= now() - make_interval(secs => ?)) AS nodes,
+               (SELECT count(*) FROM tracked_users WHERE active) AS users
+    """;
+    public static final String RENEW_LEASES_SQL = """
+        UPDATE user_leases SET expires_at = now() + make_interval(secs => ?)
+        WHERE node_id = ? AND user_id IN (SELECT user_id FROM tracked_users WHERE active)
+        RETURNING user_id
+    """;
+    // The conflict clause is re-checked against the locked row, so of two nodes claiming the same expired lease only
+    // one gets it back. Each node walks the free users in its own order to avoid racing for the same rows.
+    public static final String CLAIM_LEASES_SQL = """
+        INSERT INTO user_leases (user_id, node_id, expires_at)
+        SELECT u.user_id, ?, now() + make_interval(secs => ?)
+        FROM tracked_users u
+        LEFT JOIN user_leases l ON l.user_id = u.user_id
+        WHERE u.active AND (l.user_id IS NULL OR l.expires_at < now())
+        ORDER BY md5(u.user_id || ?)
+        LIMIT ?
+        ON CONFLICT (user_id) DO UPDATE SET node_id = excluded.node_id, expires_at = excluded.expires_at
+        WHERE user_leases.expires_at < now()
+        RETURNING user_id
+    """;
+    public static final String RELEASE_LEASES_SQL = """
+        DELETE FROM user_leases WHERE node_id = ? AND user_id = ANY(?::text[])
+    """;
+    public static final String RELEASE_ALL_LEASES_SQL = """
+        DELETE FROM user_leases WHERE node_id = ?
+    """;
+    public static final String REMOVE_NODE_SQL = """
+        DELETE FROM tracker_nodes WHERE node_id = ?
+    """;
+    public static final String CREATE_PLAYBACK_CHECKPOINTS_SQL = """
+        CREATE TABLE IF NOT EXISTS playback_checkpoints (
+            name TEXT PRIMARY KEY,
+            state BYTEA,
+            updated_at TIMESTAMPTZ NOT NULL
+        )
+    """;
+    public static final String SAVE_PLAYBACK_CHECKPOINT_SQL = """
+        INSERT INTO playback_checkpoints (name, state, updated_at) VALUES (?, ?, now())
+        ON CONFLICT (name) DO UPDATE SET state = excluded.state, updated_at = excluded.updated_at
+    """;
+    public static final String GET_PLAYBACK_CHECKPOINT_SQL = """
+        SELECT state FROM playback_checkpoints WHERE name = ?
+    """;
+    public static final String CREATE_ARTISTS_UPDATED_AT_INDEX_SQL = """
+        CREATE INDEX IF NOT EXISTS artists_updated_at_idx ON artists (updated_at ASC NULLS FIRST)
+    """;
     public static final String GET_ALL_ARTISTS_SQL = """
         SELECT id, name, followers, genres, image, popularity, updated_at
-        FROM artists;
+        FROM artists
     """;
     public static final String UPDATE_BATCH_ARTISTS_SQL = """
-        UPDATE artists SET name = ?, followers = ?, genres = ?, image = ?, popularity = ?, updated_at = ?
-        WHERE id = ?
+        UPDATE artists AS a
+        SET name = u.name, followers = u.followers, genres = u.genres::text[], image = u.image, popularity = u.popularity, updated_at = u.updated_at
+        FROM unnest(?::text[], ?::text[], ?::integer[], ?::text[], ?::text[], ?::integer[], ?::timestamptz[])
+            AS u (id, name, followers, genres, image, popularity, updated_at)
+        WHERE a.id = u.id
+    """;
+    public static final String TOUCH_ARTISTS_SQL = """
+        UPDATE artists AS a
+        SET updated_at = u.updated_at
+        FROM unnest(?::text[], ?::timestamptz[]) AS u (id, updated_at)
+        WHERE a.id = u.id
+    """;
+    public static final String GET_ARTISTS_BY_ID_SQL = """
+        SELECT id, name, followers, genres, image, popularity, updated_at
+        FROM artists
+        WHERE id = ANY(?::text[])
+    """;
+    // Earlier versions stored genres comma separated in a text column.
+    public static final String MIGRATE_GENRES_TO_ARRAY_SQL = """
+        DO $$
+        BEGIN
+            IF (SELECT data_type FROM information_schema.columns
+                WHERE table_schema = current_schema() AND table_name = 'artists' AND column_name = 'genres') = 'text' THEN
+                ALTER TABLE artists ALTER COLUMN genres TYPE text[] USING string_to_array(NULLIF(genres, ''), ',');
+            END IF;
+        END $$
     """;
 
     public DatabaseWrapper(DataSource ds) {
+        this(ds, WriteStrategy.BATCHED);
+    }
+
+    public DatabaseWrapper(DataSource ds, WriteStrategy writeStrategy) {
+        this(ds, writeStrategy, new KnownIdCache(DEFAULT_KNOWN_ID_CAPACITY));
+    }
+
+    public DatabaseWrapper(DataSource ds, WriteStrategy writeStrategy, KnownIdCache knownIds) {
+        this(ds, writeStrategy, knownIds, null);
+    }
+
+    private DatabaseWrapper(DataSource ds, WriteStrategy writeStrategy, KnownIdCache knownIds, String userId) {
         this.ds = ds;
+        this.writeStrategy = writeStrategy;
+        this.knownIds = knownIds;
+        this.userId = userId;
+    }
+
+    // Records plays against userId. The pool and the known-id cache are shared, since tracks, albums, artists and
+    // devices are global rows whoever played them.
+    public DatabaseWrapper forUser(String userId) {
+        return new DatabaseWrapper(ds, writeStrategy, knownIds, userId);
+    }
+
+    public String userId() {
+        return userId;
+    }
+
+    public KnownIdCache knownIds() {
+        return knownIds;
+    }
+
+    public KnownIdMetrics knownIdMetrics() {
+        return knownIds.metrics();
+    }
+
+    // Seeds the known-id cache so that plays of recently heard tracks skip their dimension writes straight after a restart.
+    public void warmKnownIds(int limit) {
+        withConnection(conn -> {
+            knownIds.addAll(KnownIdCache.Dimension.TRACK, queryIds(conn, GET_RECENT_TRACK_IDS_SQL, limit));
+            knownIds.addAll(KnownIdCache.Dimension.ALBUM, queryIds(conn, GET_RECENT_ALBUM_IDS_SQL, limit));
+            knownIds.addAll(KnownIdCache.Dimension.ARTIST, queryIds(conn, GET_ARTIST_IDS_SQL, limit));
+            knownIds.addAll(KnownIdCache.Dimension.DEVICE, queryIds(conn, GET_DEVICE_NAMES_SQL, limit));
+            return null;
+        });
+        Logger.println("DatabaseWrapper: Warmed known-id cache with " + knownIds.metrics().size() + " ids.", 3);
+    }
+
+    private List<String> queryIds(Connection conn, String sql, int limit) throws SQLException {
+        List<String> ids = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
+            }
+        }
+        return ids;
     }
 
     private Connection getConnection() throws SQLException {
@@ -70,169 +325,718 @@ public final class DatabaseWrapper {
 
     public void insertPlayedTrack(PlayedTrack playedTrack) {
         Logger.println("DatabaseWrapper: Recording track play: " + playedTrack.track().name(), 3);
-        List<Artist> dupedArtists = new ArrayList<>(playedTrack.track().album().artists());
-        dupedArtists.addAll(playedTrack.track().artists());
-        Set<Artist> artists = new HashSet<>(dupedArtists.stream()
-                .collect(Collectors.toMap(Artist::id, a -> a, (existing, replacement) -> existing))
-                .values());
+        List<PlayedTrack> playedTracks = List.of(playedTrack);
+        // A play whose track and device are already stored is a lone track_history insert, which needs no transaction.
+        List<Integer> ids = remembering(playedTracks, () -> switch (writeStrategy) {
+            case BATCHED -> knownIds.isFullyKnown(playedTrack)
+                    ? withConnection(conn -> insertSingleStatements(playedTracks, conn))
+                    : inTransaction(conn -> insertBatched(playedTracks, conn));
+            case SINGLE_STATEMENT -> withConnection(conn -> insertSingleStatements(playedTracks, conn));
+        });
+        Logger.println("Finished recording track play, id: " + ids.getFirst() + ".", 3);
+    }
 
+    // Group commit: every play in the list is written in one transaction with each statement prepared once.
+    public void insertPlayedTracks(List<PlayedTrack> playedTracks) {
+        if (playedTracks.isEmpty()) return;
+        Logger.println("DatabaseWrapper: Recording " + playedTracks.size() + " track plays.", 3);
+        List<Integer> ids = remembering(playedTracks, () -> switch (writeStrategy) {
+            case BATCHED -> inTransaction(conn -> insertBatched(playedTracks, conn));
+            case SINGLE_STATEMENT -> inTransaction(conn -> insertSingleStatements(playedTracks, conn));
+        });
+        Logger.println("Finished recording track plays, ids: " + ids + ".", 3);
+    }
+
+    // Replays plays that may already have been committed, skipping any whose track is already recorded as finishing
+    // within half its length of this play. Two real plays of a track finish at least 70% of its length apart, but the
+    // same play seen by a standby that took over mid-track finishes a poll or two later than the leader recorded it.
+    public void replayPlayedTracks(List<PlayedTrack> playedTracks) {
+        if (playedTracks.isEmpty()) return;
+        List<Integer> ids = remembering(playedTracks, () -> inTransaction(conn -> insertBatched(playedTracks, conn, true)));
+        long skipped = ids.stream().filter(Objects::isNull).count();
+        Logger.println("Finished replaying " + playedTracks.size() + " track plays, " + skipped + " already recorded.", 3);
+    }
+
+    // Ids only become known once the write has committed. A failed write may mean rows were deleted behind our back,
+    // so the cache is dropped rather than trusted.
+    private List<Integer> remembering(List<PlayedTrack> playedTracks, Supplier<List<Integer>> write) {
+        List<Integer> ids;
+        try {
+            ids = write.get();
+        } catch (RuntimeException e) {
+            knownIds.clear();
+            throw e;
+        }
+        for (PlayedTrack playedTrack : playedTracks) {
+            knownIds.remember(playedTrack);
+        }
+        return ids;
+    }
+
+    @FunctionalInterface
+    private interface SqlWork<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    private <T> T withConnection(SqlWork<T> work) {
         try (Connection conn = getConnection()) {
+            return work.run(conn);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T inTransaction(SqlWork<T> work) {
+        return withConnection(conn -> {
             boolean old = conn.getAutoCommit();
             conn.setAutoCommit(false);
             try {
-                for (Artist artist : artists) {
-                    Logger.println("DatabaseWrapper: Inserting artist: " + artist.name(), 4);
-                    insertArtist(artist, conn);
-                }
-
-                Album album = playedTrack.track().album();
-                insertAlbum(album, conn);
-                for (Artist artist : album.artists()) {
-                    insertAlbumArtist(artist, album, conn);
-                }
-
-                Track track = playedTrack.track();
-                insertTrack(track, conn);
-                for (Artist artist : track.artists()) {
-                    insertTrackArtist(artist, track, conn);
-                }
-
-                insertDevice(playedTrack.device(), conn);
-                int id = insertTrackHistory(playedTrack, conn);
-                Logger.println("Finished recording track play, id: " + id + ".", 3);
+                T result = work.run(conn);
                 conn.commit();
+                return result;
             } catch (SQLException e) {
                 conn.rollback();
                 throw e;
             } finally {
                 conn.setAutoCommit(old);
             }
+        });
+    }
 
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    private List<Integer> insertBatched(List<PlayedTrack> playedTracks, Connection conn) throws SQLException {
+        return insertBatched(playedTracks, conn, false);
     }
 
-    private int insertTrackHistory(PlayedTrack playedTrack, Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(INSERT_TRACK_HISTORY_SQL)) {
-            stmt.setString(1, playedTrack.contextType());
-            stmt.setString(2, playedTrack.track().album().id());
-            stmt.setString(3, playedTrack.track().id());
-            stmt.setString(4, playedTrack.device().name());
-            stmt.setInt(5, playedTrack.currentPopularity());
-            stmt.setTimestamp(6, Timestamp.from(playedTrack.timeFinished()));
+    private List<Integer> insertBatched(List<PlayedTrack> playedTracks, Connection conn, boolean idempotent) throws SQLException {
+        try (PlayedTrackBatch batch = new PlayedTrackBatch(conn, idempotent, knownIds, userId)) {
+            for (PlayedTrack playedTrack : playedTracks) {
+                batch.add(playedTrack);
+            }
+            batch.executeDimensions();
+            List<Integer> ids = new ArrayList<>(playedTracks.size());
+            for (PlayedTrack playedTrack : playedTracks) {
+                ids.add(batch.insertTrackHistory(playedTrack));
+            }
+            return ids;
+        }
+    }
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("id");
+    // Each play is one data-modifying CTE, so a single play is atomic without an explicit transaction and costs one round trip.
+    // Plays whose track and device are already known skip the CTE for a plain track_history insert.
+    private List<Integer> insertSingleStatements(List<PlayedTrack> playedTracks, Connection conn) throws SQLException {
+        PreparedStatement stmt = null;
+        PreparedStatement historyStmt = null;
+        try {
+            List<Integer> ids = new ArrayList<>(playedTracks.size());
+            for (PlayedTrack playedTrack : playedTracks) {
+                if (knownIds.isFullyKnown(playedTrack)) {
+                    knownIds.recordHit();
+                    if (historyStmt == null) historyStmt = conn.prepareStatement(INSERT_TRACK_HISTORY_SQL);
+                    ids.add(insertTrackHistoryOnly(playedTrack, historyStmt));
+                } else {
+                    knownIds.recordMiss();
+                    if (stmt == null) stmt = conn.prepareStatement(INSERT_PLAYED_TRACK_SQL);
+                    ids.add(insertSingleStatement(playedTrack, stmt, conn));
                 }
             }
+            return ids;
+        } finally {
+            if (stmt != null) stmt.close();
+            if (historyStmt != null) historyStmt.close();
+        }
+    }
+
+    private int insertTrackHistoryOnly(PlayedTrack playedTrack, PreparedStatement stmt) throws SQLException {
+        stmt.setString(1, playedTrack.contextType());
+        stmt.setString(2, playedTrack.track().album().id());
+        stmt.setString(3, playedTrack.track().id());
+        stmt.setString(4, playedTrack.device().name());
+        stmt.setInt(5, playedTrack.currentPopularity());
+        stmt.setTimestamp(6, Timestamp.from(playedTrack.timeFinished()));
+        stmt.setString(7, userId);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                return rs.getInt("id");
+            }
         }
         throw new SQLException("Insert failed: no ID returned");
     }
 
-    private void insertArtist(Artist artist, Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(INSERT_ARTIST_SQL)) {
-            Logger.println("Inside connection.", 4);
-            stmt.setString(1, artist.id());
-            stmt.setString(2, artist.name());
+    private int insertSingleStatement(PlayedTrack playedTrack, PreparedStatement stmt, Connection conn) throws SQLException {
+        Track track = playedTrack.track();
+        Album album = track.album();
+        Map<String, Artist> artists = new LinkedHashMap<>();
+        for (Artist artist : album.artists()) artists.putIfAbsent(artist.id(), artist);
+        for (Artist artist : track.artists()) artists.putIfAbsent(artist.id(), artist);
+
+        stmt.setArray(1, conn.createArrayOf("text", artists.keySet().toArray(String[]::new)));
+        stmt.setArray(2, conn.createArrayOf("text", artists.values().stream().map(Artist::name).toArray(String[]::new)));
+
+        stmt.setString(3, album.id());
+        stmt.setString(4, album.name());
+        stmt.setString(5, album.cover());
+        stmt.setDate(6, Date.valueOf(album.releaseDate()));
+        stmt.setString(7, album.releaseDatePrecision());
+        stmt.setString(8, album.type());
+
+        stmt.setString(9, album.id());
+        stmt.setArray(10, conn.createArrayOf("text", album.artists().stream().map(Artist::id).distinct().toArray(String[]::new)));
+
+        stmt.setString(11, track.id());
+        stmt.setString(12, track.name());
+        stmt.setString(13, album.id());
+        stmt.setInt(14, track.durationMs());
+        stmt.setBoolean(15, track.isExplicit());
+        stmt.setBoolean(16, track.isLocal());
+
+        stmt.setString(17, track.id());
+        stmt.setArray(18, conn.createArrayOf("text", track.artists().stream().map(Artist::id).distinct().toArray(String[]::new)));
+
+        stmt.setString(19, playedTrack.device().name());
+        stmt.setString(20, playedTrack.device().type());
 
-            stmt.executeUpdate();
-            Logger.println("Executed update.", 4);
+        stmt.setString(21, playedTrack.contextType());
+        stmt.setString(22, album.id());
+        stmt.setString(23, track.id());
+        stmt.setString(24, playedTrack.device().name());
+        stmt.setInt(25, playedTrack.currentPopularity());
+        stmt.setTimestamp(26, Timestamp.from(playedTrack.timeFinished()));
+        stmt.setString(27, userId);
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                return rs.getInt("id");
+            }
         }
+        throw new SQLException("Insert failed: no ID returned");
     }
 
-    private void insertTrack(Track track, Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(INSERT_TRACK_SQL)) {
-            stmt.setString(1, track.id());
-            stmt.setString(2, track.name());
-            stmt.setString(3, track.album().id());
-            stmt.setInt(4, track.durationMs());
-            stmt.setBoolean(5, track.isExplicit());
-            stmt.setBoolean(6, track.isLocal());
+    // Prepares every insert once for the connection and queues the dimension rows of one or more plays as JDBC
+    // batches, so the number of round trips no longer grows with the number of artists on a track.
+    private static final class PlayedTrackBatch implements AutoCloseable {
+        private final List<PreparedStatement> statements = new ArrayList<>();
+        private final PreparedStatement artistStmt;
+        private final PreparedStatement albumStmt;
+        private final PreparedStatement albumArtistStmt;
+        private final PreparedStatement trackStmt;
+        private final PreparedStatement trackArtistStmt;
+        private final PreparedStatement deviceStmt;
+        private final PreparedStatement trackHistoryStmt;
+        private final boolean idempotent;
+        private final KnownIdCache knownIds;
+        private final String userId;
+
+        private final Map<String, Artist> artists = new LinkedHashMap<>();
+        private final Map<String, Album> albums = new LinkedHashMap<>();
+        private final Set<Pair<String, String>> albumArtists = new LinkedHashSet<>();
+        private final Map<String, Track> tracks = new LinkedHashMap<>();
+        private final Set<Pair<String, String>> trackArtists = new LinkedHashSet<>();
+        private final Map<String, Device> devices = new LinkedHashMap<>();
 
-            stmt.executeUpdate();
+        PlayedTrackBatch(Connection conn, boolean idempotent, KnownIdCache knownIds, String userId) throws SQLException {
+            this.idempotent = idempotent;
+            this.knownIds = knownIds;
+            this.userId = userId;
+            try {
+                artistStmt = prepare(conn, INSERT_ARTIST_SQL);
+                albumStmt = prepare(conn, INSERT_ALBUM_SQL);
+                albumArtistStmt = prepare(conn, INSERT_ALBUM_ARTIST_SQL);
+                trackStmt = prepare(conn, INSERT_TRACK_SQL);
+                trackArtistStmt = prepare(conn, INSERT_TRACK_ARTIST_SQL);
+                deviceStmt = prepare(conn, INSERT_DEVICE_SQL);
+                trackHistoryStmt = prepare(conn, idempotent ? INSERT_TRACK_HISTORY_IF_ABSENT_SQL : INSERT_TRACK_HISTORY_SQL);
+            } catch (SQLException e) {
+                close();
+                throw e;
+            }
         }
-    }
 
-    private void insertAlbum(Album album, Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(INSERT_ALBUM_SQL)) {
-            stmt.setString(1, album.id());
-            stmt.setString(2, album.name());
-            stmt.setString(3, album.cover());
-            stmt.setDate(4, Date.valueOf(album.releaseDate()));
-            stmt.setString(5, album.releaseDatePrecision());
-            stmt.setString(6, album.type());
+        private PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+            PreparedStatement stmt = conn.prepareStatement(sql);
+            statements.add(stmt);
+            return stmt;
+        }
+
+        // Skips every row the cache says is already stored. A known track was written together with its album,
+        // artists and links, and a known album together with its album artists.
+        void add(PlayedTrack playedTrack) {
+            Track track = playedTrack.track();
+            Album album = track.album();
+            Device device = playedTrack.device();
+            int skipped = 0;
+
+            boolean trackKnown = knownIds.contains(KnownIdCache.Dimension.TRACK, track.id());
+            boolean deviceKnown = knownIds.contains(KnownIdCache.Dimension.DEVICE, device.name());
+            if (trackKnown && deviceKnown) knownIds.recordHit();
+            else knownIds.recordMiss();
+
+            if (trackKnown) {
+                skipped += 2 + album.artists().size() * 2 + track.artists().size() * 2;
+            } else {
+                if (knownIds.contains(KnownIdCache.Dimension.ALBUM, album.id())) {
+                    skipped += 1 + album.artists().size() * 2;
+                } else {
+                    for (Artist artist : album.artists()) {
+                        addArtist(artist);
+                        albumArtists.add(new Pair<>(album.id(), artist.id()));
+                    }
+                    albums.putIfAbsent(album.id(), album);
+                }
+                for (Artist artist : track.artists()) {
+                    if (!addArtist(artist)) skipped++;
+                    trackArtists.add(new Pair<>(track.id(), artist.id()));
+                }
+                tracks.putIfAbsent(track.id(), track);
+            }
 
-            stmt.executeUpdate();
+            if (deviceKnown) skipped++;
+            else devices.putIfAbsent(device.name(), device);
+            knownIds.recordSkippedRows(skipped);
         }
-    }
 
-    private void insertDevice(Device device, Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(INSERT_DEVICE_SQL)) {
-            stmt.setString(1, device.name());
-            stmt.setString(2, device.type());
+        private boolean addArtist(Artist artist) {
+            if (knownIds.contains(KnownIdCache.Dimension.ARTIST, artist.id())) return false;
+            artists.putIfAbsent(artist.id(), artist);
+            return true;
+        }
+
+        void executeDimensions() throws SQLException {
+            for (Artist artist : artists.values()) {
+                Logger.println("DatabaseWrapper: Inserting artist: " + artist.name(), 4);
+                artistStmt.setString(1, artist.id());
+                artistStmt.setString(2, artist.name());
+                artistStmt.addBatch();
+            }
+            executeBatch(artistStmt, artists.size());
+
+            for (Album album : albums.values()) {
+                albumStmt.setString(1, album.id());
+                albumStmt.setString(2, album.name());
+                albumStmt.setString(3, album.cover());
+                albumStmt.setDate(4, Date.valueOf(album.releaseDate()));
+                albumStmt.setString(5, album.releaseDatePrecision());
+                albumStmt.setString(6, album.type());
+                albumStmt.addBatch();
+            }
+            executeBatch(albumStmt, albums.size());
+
+            for (Pair<String, String> link : albumArtists) {
+                albumArtistStmt.setString(1, link.left());
+                albumArtistStmt.setString(2, link.right());
+                albumArtistStmt.addBatch();
+            }
+            executeBatch(albumArtistStmt, albumArtists.size());
+
+            for (Track track : tracks.values()) {
+                trackStmt.setString(1, track.id());
+                trackStmt.setString(2, track.name());
+                trackStmt.setString(3, track.album().id());
+                trackStmt.setInt(4, track.durationMs());
+                trackStmt.setBoolean(5, track.isExplicit());
+                trackStmt.setBoolean(6, track.isLocal());
+                trackStmt.addBatch();
+            }
+            executeBatch(trackStmt, tracks.size());
+
+            for (Pair<String, String> link : trackArtists) {
+                trackArtistStmt.setString(1, link.left());
+                trackArtistStmt.setString(2, link.right());
+                trackArtistStmt.addBatch();
+            }
+            executeBatch(trackArtistStmt, trackArtists.size());
 
-            stmt.executeUpdate();
+            for (Device device : devices.values()) {
+                deviceStmt.setString(1, device.name());
+                deviceStmt.setString(2, device.type());
+                deviceStmt.addBatch();
+            }
+            executeBatch(deviceStmt, devices.size());
         }
-    }
 
-    private void insertAlbumArtist(Artist artist, Album album, Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(INSERT_ALBUM_ARTIST_SQL)) {
-            stmt.setString(1, album.id());
-            stmt.setString(2, artist.id());
+        private void executeBatch(PreparedStatement stmt, int rows) throws SQLException {
+            if (rows == 0) return;
+            stmt.executeBatch();
+        }
+
+        // Returns null when an idempotent insert found the play already recorded.
+        Integer insertTrackHistory(PlayedTrack playedTrack) throws SQLException {
+            trackHistoryStmt.setString(1, playedTrack.contextType());
+            trackHistoryStmt.setString(2, playedTrack.track().album().id());
+            trackHistoryStmt.setString(3, playedTrack.track().id());
+            trackHistoryStmt.setString(4, playedTrack.device().name());
+            trackHistoryStmt.setInt(5, playedTrack.currentPopularity());
+            trackHistoryStmt.setTimestamp(6, Timestamp.from(playedTrack.timeFinished()));
+            trackHistoryStmt.setString(7, userId);
+            if (idempotent) {
+                long window = playedTrack.track().durationMs() / 2;
+                trackHistoryStmt.setString(8, playedTrack.track().id());
+                trackHistoryStmt.setString(9, userId);
+                trackHistoryStmt.setTimestamp(10, Timestamp.from(playedTrack.timeFinished().minusMillis(window)));
+                trackHistoryStmt.setTimestamp(11, Timestamp.from(playedTrack.timeFinished().plusMillis(window)));
+            }
 
-            stmt.executeUpdate();
+            try (ResultSet rs = trackHistoryStmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("id");
+                }
+            }
+            if (idempotent) return null;
+            throw new SQLException("Insert failed: no ID returned");
         }
+
+        @Override
+        public void close() throws SQLException {
+            SQLException failure = null;
+            for (PreparedStatement stmt : statements) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    if (failure == null) failure = e;
+                    else failure.addSuppressed(e);
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    public void ensureSchema() {
+        withConnection(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(MIGRATE_GENRES_TO_ARRAY_SQL);
+                stmt.execute(CREATE_ARTISTS_UPDATED_AT_INDEX_SQL);
+                stmt.execute(ADD_TRACK_HISTORY_USER_SQL);
+                stmt.execute(CREATE_TRACKED_USERS_SQL);
+                stmt.execute(CREATE_TRACKER_NODES_SQL);
+                stmt.execute(CREATE_USER_LEASES_SQL);
+                stmt.execute(CREATE_PLAYBACK_CHECKPOINTS_SQL);
+            }
+            return null;
+        });
+    }
+
+    // Never updated artists come first, then oldest first, which is the same order as the priority tiers.
+    // The updated_at index lets this stop after the first rows instead of scanning the whole table.
+    public List<String> getStaleArtistIds(Instant staleBefore, int limit) {
+        return withConnection(conn -> {
+            List<String> ids = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement(GET_STALE_ARTIST_IDS_SQL)) {
+                ps.setTimestamp(1, Timestamp.from(staleBefore));
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getString("id"));
+                    }
+                }
+            }
+            return ids;
+        });
+    }
+
+    public List<String> getTrackedUsers() {
+        return withConnection(conn -> {
+            List<String> users = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement(GET_TRACKED_USERS_SQL);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    users.add(rs.getString("user_id"));
+                }
+            }
+            return users;
+        });
+    }
+
+    // Marks nodeId alive, forgets nodes that missed a whole lease and counts the live nodes and active users.
+    public ClusterView heartbeat(String nodeId, Duration leaseDuration) {
+        return withConnection(conn -> {
+            try (PreparedStatement heartbeat = conn.prepareStatement(HEARTBEAT_NODE_SQL);
+                 PreparedStatement prune = conn.prepareStatement(PRUNE_NODES_SQL);
+                 PreparedStatement view = conn.prepareStatement(GET_CLUSTER_VIEW_SQL)) {
+                heartbeat.setString(1, nodeId);
+                heartbeat.executeUpdate();
+                prune.setDouble(1, seconds(leaseDuration));
+                prune.executeUpdate();
+                view.setDouble(1, seconds(leaseDuration));
+                try (ResultSet rs = view.executeQuery()) {
+                    rs.next();
+                    return new ClusterView(rs.getInt("nodes"), rs.getInt("users"));
+                }
+            }
+        });
+    }
+
+    // Extends every lease nodeId still holds on an active user and returns those users.
+    public List<String> renewLeases(String nodeId, Duration leaseDuration) {
+        return withConnection(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(RENEW_LEASES_SQL)) {
+                ps.setDouble(1, seconds(leaseDuration));
+                ps.setString(2, nodeId);
+                return queryUserIds(ps);
+            }
+        });
+    }
+
+    // Takes up to limit active users that nobody holds or whose lease has expired.
+    public List<String> claimLeases(String nodeId, Duration leaseDuration, int limit) {
+        return withConnection(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(CLAIM_LEASES_SQL)) {
+                ps.setString(1, nodeId);
+                ps.setDouble(2, seconds(leaseDuration));
+                ps.setString(3, nodeId);
+                ps.setInt(4, limit);
+                return queryUserIds(ps);
+            }
+        });
+    }
+
+    public void releaseLeases(String nodeId, Collection<String> userIds) {
+        withConnection(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(RELEASE_LEASES_SQL)) {
+                ps.setString(1, nodeId);
+                ps.setArray(2, conn.createArrayOf("text", userIds.toArray()));
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // Hands every lease back at once so the remaining nodes can pick the users up on their next heartbeat.
+    public void leaveCluster(String nodeId) {
+        withConnection(conn -> {
+            try (PreparedStatement leases = conn.prepareStatement(RELEASE_ALL_LEASES_SQL);
+                 PreparedStatement node = conn.prepareStatement(REMOVE_NODE_SQL)) {
+                leases.setString(1, nodeId);
+                leases.executeUpdate();
+                node.setString(1, nodeId);
+                node.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // A null state records that nothing is playing.
+    public void savePlaybackCheckpoint(String name, byte[] state) {
+        withConnection(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(SAVE_PLAYBACK_CHECKPOINT_SQL)) {
+                ps.setString(1, name);
+                ps.setBytes(2, state);
+                ps.executeUpdate();
+            }
+            return null;
+        });
     }
 
-    private void insertTrackArtist(Artist artist, Track track, Connection conn) throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(INSERT_TRACK_ARTIST_SQL)) {
-            stmt.setString(1, track.id());
-            stmt.setString(2, artist.id());
+    public Optional<byte[]> getPlaybackCheckpoint(String name) {
+        return withConnection(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(GET_PLAYBACK_CHECKPOINT_SQL)) {
+                ps.setString(1, name);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? Optional.ofNullable(rs.getBytes("state")) : Optional.empty();
+                }
+            }
+        });
+    }
 
-            stmt.executeUpdate();
+    private static List<String> queryUserIds(PreparedStatement ps) throws SQLException {
+        List<String> users = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                users.add(rs.getString("user_id"));
+            }
         }
+        return users;
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toMillis() / 1000.0;
+    }
+
+    public ListeningHeatmap getListeningHeatmap(ZoneId zone, Instant since) {
+        return withConnection(conn -> {
+            long[] plays = new long[ListeningHeatmap.SLOTS];
+            try (PreparedStatement ps = conn.prepareStatement(GET_LISTENING_HEATMAP_SQL)) {
+                ps.setString(1, zone.getId());
+                ps.setString(2, zone.getId());
+                ps.setTimestamp(3, Timestamp.from(since));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        plays[ListeningHeatmap.slot(rs.getInt("day"), rs.getInt("hour"))] = rs.getLong("plays");
+                    }
+                }
+            }
+            return new ListeningHeatmap(plays);
+        });
     }
 
     public List<Artist> getAllSkeletonArtists() {
         List<Artist> artists = new ArrayList<>();
-
         Logger.println("Trying to get all artists...", 4);
-        try(Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(GET_ALL_ARTISTS_SQL); ResultSet rs = ps.executeQuery()) {
-            Logger.println("Executed query...", 4);
-            while (rs.next()) {
-                String id = rs.getString("id");
-                Logger.println("Got id...", 5);
-                Timestamp updateTimestamp = rs.getTimestamp("updated_at");
-                Instant updatedAt = null;
-                if (updateTimestamp != null) updatedAt = updateTimestamp.toInstant();
-                Logger.println("Got updated_at...", 5);
-                Artist artist = new Artist(id, null, null, null, null, null, updatedAt);
-                artists.add(artist);
+        scanSkeletonArtists(DEFAULT_FETCH_SIZE, artists::add);
+        Logger.println("Finished.", 4);
+        return artists;
+    }
+
+    // The driver only fetches through a server-side cursor when autocommit is off and a fetch size is set,
+    // otherwise it buffers the whole result in heap before returning the first row.
+    public void scanSkeletonArtists(int fetchSize, Consumer<Artist> consumer) {
+        inTransaction(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(GET_ALL_ARTISTS_SQL)) {
+                ps.setFetchSize(fetchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    Logger.println("Executed query...", 4);
+                    while (rs.next()) {
+                        consumer.accept(skeletonArtist(rs));
+                    }
+                }
             }
+            return null;
+        });
+    }
+
+    // Holds a connection until the stream is closed, so callers must use try-with-resources.
+    public Stream<Artist> streamSkeletonArtists(int fetchSize) {
+        Cursor cursor = new Cursor();
+        try {
+            cursor.open(getConnection(), GET_ALL_ARTISTS_SQL, fetchSize);
         } catch (SQLException e) {
+            cursor.close();
             throw new RuntimeException(e);
         }
-        Logger.println("Finished.", 4);
-        return artists;
+        Spliterator<Artist> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Artist> action) {
+                try {
+                    if (!cursor.rs.next()) return false;
+                    action.accept(skeletonArtist(cursor.rs));
+                    return true;
+                } catch (SQLException e) {
+                    cursor.failed = true;
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(cursor::close);
     }
 
+    private static Artist skeletonArtist(ResultSet rs) throws SQLException {
+        String id = rs.getString("id");
+        Logger.println("Got id...", 5);
+        Timestamp updateTimestamp = rs.getTimestamp("updated_at");
+        Instant updatedAt = null;
+        if (updateTimestamp != null) updatedAt = updateTimestamp.toInstant();
+        Logger.println("Got updated_at...", 5);
+        return new Artist(id, null, null, null, null, null, updatedAt);
+    }
+
+    private static final class Cursor implements AutoCloseable {
+        private Connection conn;
+        private boolean oldAutoCommit = true;
+        private PreparedStatement ps;
+        private ResultSet rs;
+        private boolean failed;
+
+        void open(Connection conn, String sql, int fetchSize) throws SQLException {
+            this.conn = conn;
+            oldAutoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            ps = conn.prepareStatement(sql);
+            ps.setFetchSize(fetchSize);
+            rs = ps.executeQuery();
+        }
+
+        @Override
+        public void close() {
+            if (conn == null) return;
+            try (Connection c = conn) {
+                try (PreparedStatement p = ps; ResultSet r = rs) {
+                    // closes the cursor before its transaction ends
+                }
+                if (failed || rs == null) c.rollback();
+                else c.commit();
+                c.setAutoCommit(oldAutoCommit);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            } finally {
+                conn = null;
+            }
+        }
+    }
+
+    public List<Artist> getArtists(List<String> ids) {
+        if (ids.isEmpty()) return List.of();
+        return withConnection(conn -> {
+            List<Artist> artists = new ArrayList<>(ids.size());
+            try (PreparedStatement ps = conn.prepareStatement(GET_ARTISTS_BY_ID_SQL)) {
+                ps.setArray(1, conn.createArrayOf("text", ids.toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Array genres = rs.getArray("genres");
+                        Timestamp updatedAt = rs.getTimestamp("updated_at");
+                        artists.add(new Artist(
+                                rs.getString("id"),
+                                rs.getString("name"),
+                                rs.getObject("followers", Integer.class),
+                                genres == null ? null : List.of((String[]) genres.getArray()),
+                                rs.getString("image"),
+                                rs.getObject("popularity", Integer.class),
+                                updatedAt == null ? null : updatedAt.toInstant()
+                        ));
+                    }
+                }
+            }
+            return artists;
+        });
+    }
+
+    // Only moves updated_at forward, for artists whose refreshed data matched what was already stored.
+    public void touchArtists(List<Artist> artists) {
+        if (artists.isEmpty()) return;
+        withConnection(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(TOUCH_ARTISTS_SQL)) {
+                ps.setArray(1, conn.createArrayOf("text", artists.stream().map(Artist::id).toArray()));
+                ps.setArray(2, conn.createArrayOf("timestamptz", artists.stream().map(a -> a.updatedAt() == null ? null : Timestamp.from(a.updatedAt())).toArray()));
+                ps.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // The whole refresh travels as parallel arrays and is applied by one UPDATE, whatever the batch size.
+    // Genres go over as one array literal per artist because unnest cannot unpack a jagged two-dimensional array.
     public void updateBatchArtists(List<Artist> artists) {
-        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(UPDATE_BATCH_ARTISTS_SQL)) {
-            for (Artist artist : artists) {
-                ps.setString(1, artist.name());
-                ps.setInt(2, artist.followers());
-                ps.setString(3, String.join(",", artist.genres()));
-                ps.setString(4, artist.image());
-                ps.setInt(5, artist.popularity());
-                ps.setTimestamp(6, Timestamp.from(artist.updatedAt()));
-                ps.setString(7, artist.id());
-                ps.addBatch();
-            }
-            ps.executeBatch();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
+        if (artists.isEmpty()) return;
+        withConnection(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(UPDATE_BATCH_ARTISTS_SQL)) {
+                ps.setArray(1, conn.createArrayOf("text", artists.stream().map(Artist::id).toArray()));
+                ps.setArray(2, conn.createArrayOf("text", artists.stream().map(Artist::name).toArray()));
+                ps.setArray(3, conn.createArrayOf("integer", artists.stream().map(Artist::followers).toArray()));
+                ps.setArray(4, conn.createArrayOf("text", artists.stream().map(a -> toArrayLiteral(a.genres())).toArray()));
+                ps.setArray(5, conn.createArrayOf("text", artists.stream().map(Artist::image).toArray()));
+                ps.setArray(6, conn.createArrayOf("integer", artists.stream().map(Artist::popularity).toArray()));
+                ps.setArray(7, conn.createArrayOf("timestamptz", artists.stream().map(a -> a.updatedAt() == null ? null : Timestamp.from(a.updatedAt())).toArray()));
+                int updated = ps.executeUpdate();
+                Logger.println("DatabaseWrapper: Updated " + updated + " of " + artists.size() + " artists.", 4);
+            }
+            return null;
+        });
+    }
+
+    static String toArrayLiteral(List<String> values) {
+        if (values == null) return null;
+        StringBuilder literal = new StringBuilder("{");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) literal.append(',');
+            String value = values.get(i);
+            if (value == null) {
+                literal.append("NULL");
+                continue;
+            }
+            literal.append('"');
+            for (char c : value.toCharArray()) {
+                if (c == '"' || c == '\\') literal.append('\\');
+                literal.append(c);
+            }
+            literal.append('"');
         }
+        return literal.append('}').toString();
     }
 }
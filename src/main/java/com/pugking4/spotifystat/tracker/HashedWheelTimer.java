@@ -0,0 +1,177 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// A hashed timing wheel: one thread advances a ring of buckets every tick and hands the timeouts that fall due to
+// the dispatcher. Scheduling and cancelling only append to a queue, so both are O(1) however many timeouts are
+// pending, unlike the O(log n) heap of a ScheduledThreadPoolExecutor. Timeouts fire up to one tick late, which is
+// fine for poll intervals measured in seconds.
+public final class HashedWheelTimer implements TaskTimer {
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor dispatcher;
+    private final Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean shutdown = false;
+    private long tick = 0;
+
+    public HashedWheelTimer(Duration tickDuration, int wheelSize, Executor dispatcher) {
+        if (tickDuration.isNegative() || tickDuration.isZero()) throw new IllegalArgumentException("Tick duration must be positive");
+        if (wheelSize < 1 || Integer.bitCount(wheelSize) != 1) throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        this.tickNanos = tickDuration.toNanos();
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) wheel[i] = new Bucket();
+        this.mask = wheelSize - 1;
+        this.dispatcher = dispatcher;
+        this.startNanos = System.nanoTime();
+        this.worker = Thread.ofPlatform().name("hashed-wheel-timer").daemon().unstarted(this::run);
+        this.worker.start();
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (shutdown) throw new RejectedExecutionException("Timer is shut down");
+        WheelTimeout timeout = new WheelTimeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(worker);
+    }
+
+    public int pendingTimeouts() {
+        int count = pending.size();
+        for (Bucket bucket : wheel) count += bucket.size;
+        return count;
+    }
+
+    private void run() {
+        while (!shutdown) {
+            long tickDeadline = startNanos + (tick + 1) * tickNanos;
+            long sleep;
+            while (!shutdown && (sleep = tickDeadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            if (shutdown) break;
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire(tickDeadline);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+        }
+    }
+
+    // A timeout due in the past lands in the current bucket and fires this tick.
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            WheelTimeout timeout = pending.poll();
+            if (timeout == null) return;
+            if (timeout.state.get() != WheelTimeout.PENDING) continue;
+            long dueTick = Math.max(tick, (timeout.deadline - startNanos) / tickNanos);
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            wheel[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    private void dispatch(WheelTimeout timeout) {
+        if (!timeout.state.compareAndSet(WheelTimeout.PENDING, WheelTimeout.EXPIRED)) return;
+        try {
+            dispatcher.execute(timeout.task);
+        } catch (RejectedExecutionException ignored) {
+            // The dispatcher is shutting down along with the scheduler.
+        }
+    }
+
+    private final class WheelTimeout implements Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        long remainingRounds;
+        Bucket bucket;
+        WheelTimeout prev;
+        WheelTimeout next;
+
+        WheelTimeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // The timeout is unlinked from its bucket by the wheel thread on its next tick.
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            cancelled.add(this);
+            return true;
+        }
+    }
+
+    // Only touched by the wheel thread.
+    private final class Bucket {
+        private WheelTimeout head;
+        private WheelTimeout tail;
+        private int size;
+
+        void add(WheelTimeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+            size++;
+        }
+
+        void remove(WheelTimeout timeout) {
+            if (timeout.prev != null) timeout.prev.next = timeout.next;
+            else head = timeout.next;
+            if (timeout.next != null) timeout.next.prev = timeout.prev;
+            else tail = timeout.prev;
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+            size--;
+        }
+
+        void expire(long tickDeadline) {
+            WheelTimeout timeout = head;
+            while (timeout != null) {
+                WheelTimeout next = timeout.next;
+                if (timeout.state.get() == WheelTimeout.CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0 && timeout.deadline <= tickDeadline) {
+                    remove(timeout);
+                    dispatch(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+// Decides how long the poller waits while nothing is playing. During hours the heatmap marks as quiet each
+// consecutive idle poll doubles the wait up to maxDelay, but never past the start of the next busy hour.
+// Outside quiet hours, and after any poll that finds something playing, the wait is back to baseDelay.
+public final class IdleBackoffPolicy {
+    private static final Duration HISTORY = Duration.ofDays(8 * 7);
+    private static final Duration REFRESH_DELAY = Duration.ofHours(6);
+
+    private final DatabaseWrapper databaseWrapper;
+    private final Clock clock;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+
+    private volatile ListeningHeatmap heatmap = ListeningHeatmap.empty();
+    private int consecutiveIdle = 0;
+
+    public IdleBackoffPolicy(DatabaseWrapper databaseWrapper, Clock clock, Duration baseDelay, Duration maxDelay) {
+        if (baseDelay.isNegative() || baseDelay.isZero()) throw new IllegalArgumentException("Base delay must be positive");
+        if (maxDelay.compareTo(baseDelay) < 0) throw new IllegalArgumentException("Max delay is shorter than the base delay");
+        this.databaseWrapper = databaseWrapper;
+        this.clock = clock;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public ScheduledTaskSpecification spec() {
+        return new ScheduledTaskSpecification(
+                "Idle Backoff Heatmap Refresh",
+                this::refresh,
+                DelayType.FIXED_DELAY,
+                Duration.ZERO,
+                () -> REFRESH_DELAY
+        );
+    }
+
+    public void refresh() {
+        heatmap = databaseWrapper.getListeningHeatmap(clock.getZone(), clock.instant().minus(HISTORY));
+        Logger.println("IdleBackoffPolicy: Refreshed listening heatmap.", 4);
+    }
+
+    public synchronized Duration nextDelay() {
+        ZonedDateTime now = ZonedDateTime.now(clock);
+        if (!heatmap.isQuiet(now)) {
+            consecutiveIdle = 0;
+            return baseDelay;
+        }
+        Duration delay = baseDelay.multipliedBy(1L << Math.min(consecutiveIdle, 20));
+        consecutiveIdle++;
+        if (delay.compareTo(maxDelay) > 0) delay = maxDelay;
+        Duration untilBusy = heatmap.untilBusy(now);
+        if (delay.compareTo(untilBusy) > 0) delay = untilBusy.compareTo(baseDelay) > 0 ? untilBusy : baseDelay;
+        return delay;
+    }
+
+    public synchronized void reset() {
+        consecutiveIdle = 0;
+    }
+}
@@ -0,0 +1,94 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.Artist;
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.common.dto.Track;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Ids the database is known to already contain, bounded per dimension with least recently used eviction.
+// A known track implies its album, its artists and both link tables were written in the same transaction.
+public final class KnownIdCache {
+    public enum Dimension {
+        ARTIST,
+        ALBUM,
+        TRACK,
+        DEVICE
+    }
+
+    private final int capacity;
+    private final Map<Dimension, LinkedHashMap<String, Boolean>> ids = new EnumMap<>(Dimension.class);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder skippedRows = new LongAdder();
+
+    public KnownIdCache(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        this.capacity = capacity;
+        for (Dimension dimension : Dimension.values()) {
+            ids.put(dimension, new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > KnownIdCache.this.capacity;
+                }
+            });
+        }
+    }
+
+    public synchronized boolean contains(Dimension dimension, String id) {
+        return ids.get(dimension).get(id) != null;
+    }
+
+    public synchronized void add(Dimension dimension, String id) {
+        if (capacity == 0 || id == null) return;
+        ids.get(dimension).put(id, Boolean.TRUE);
+    }
+
+    public synchronized void addAll(Dimension dimension, Collection<String> values) {
+        for (String id : values) add(dimension, id);
+    }
+
+    public boolean isFullyKnown(PlayedTrack playedTrack) {
+        return contains(Dimension.TRACK, playedTrack.track().id()) && contains(Dimension.DEVICE, playedTrack.device().name());
+    }
+
+    // Only called once the transaction that wrote the play has committed.
+    public synchronized void remember(PlayedTrack playedTrack) {
+        Track track = playedTrack.track();
+        for (Artist artist : track.album().artists()) add(Dimension.ARTIST, artist.id());
+        for (Artist artist : track.artists()) add(Dimension.ARTIST, artist.id());
+        add(Dimension.ALBUM, track.album().id());
+        add(Dimension.TRACK, track.id());
+        add(Dimension.DEVICE, playedTrack.device().name());
+    }
+
+    // Forgets everything, e.g. after a failed write that may mean rows were removed behind our back.
+    public synchronized void clear() {
+        ids.values().forEach(Map::clear);
+    }
+
+    public synchronized Map<Dimension, List<String>> snapshot() {
+        Map<Dimension, List<String>> copy = new EnumMap<>(Dimension.class);
+        ids.forEach((dimension, values) -> copy.put(dimension, List.copyOf(values.keySet())));
+        return copy;
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordSkippedRows(int rows) {
+        skippedRows.add(rows);
+    }
+
+    public synchronized KnownIdMetrics metrics() {
+        int size = ids.values().stream().mapToInt(Map::size).sum();
+        return new KnownIdMetrics(hits.sum(), misses.sum(), skippedRows.sum(), size);
+    }
+}
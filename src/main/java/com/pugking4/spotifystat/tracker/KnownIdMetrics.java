@@ -0,0 +1,3 @@
+package com.pugking4.spotifystat.tracker;
+
+public record KnownIdMetrics(long hits, long misses, long skippedRows, int size) {}
@@ -0,0 +1,204 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Active/standby for single-user trackers sharing one account. Instances contend for a session advisory lock named
+// after the group, held on a connection of its own outside the pool, so it goes away the moment the leader's session
+// does. Only the leader records plays, saving a checkpoint off the poll thread whenever the track it follows changes;
+// a standby keeps its token and HTTP connection warm with an occasional request, and on takeover restores the last
+// checkpoint and polls straight away. A play the old leader recorded after its last checkpoint is seen again, so plays
+// are written idempotently in this mode.
+public final class LeaderElection implements AutoCloseable {
+    public static final String TRY_LOCK_SQL = "SELECT pg_try_advisory_lock(hashtextextended(?, 0))";
+    private static final Duration CHECK_DELAY = Duration.ofSeconds(1);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final DataSource ds;
+    private final DatabaseWrapper databaseWrapper;
+    private final String group;
+    private final TrackingPoller poller;
+    private final Runnable keepWarm;
+    private final Executor checkpointWriter;
+    private final ReentrantLock pollLock = new ReentrantLock();
+    private final AtomicLong takeovers = new AtomicLong();
+
+    private volatile boolean leader = false;
+    private Connection lockConnection;
+    private Runnable poll;
+    // What the database holds for the group, or null when that is not known and the next poll should save.
+    private final AtomicReference<Optional<PlaybackCheckpoint>> saved = new AtomicReference<>();
+
+    // ds must hand out new physical connections; a pooled connection would keep the lock after it was returned.
+    public LeaderElection(DataSource ds, DatabaseWrapper databaseWrapper, String group, TrackingPoller poller, Runnable keepWarm) {
+        this(ds, databaseWrapper, group, poller, keepWarm, Executors.newSingleThreadExecutor(Thread.ofVirtual().name("checkpoint-writer").factory()));
+    }
+
+    // checkpointWriter must run saves in the order they are handed to it.
+    public LeaderElection(DataSource ds, DatabaseWrapper databaseWrapper, String group, TrackingPoller poller, Runnable keepWarm,
+                          Executor checkpointWriter) {
+        this.ds = ds;
+        this.databaseWrapper = databaseWrapper;
+        this.group = group;
+        this.poller = poller;
+        this.keepWarm = keepWarm;
+        this.checkpointWriter = checkpointWriter;
+    }
+
+    public ScheduledTaskSpecification spec() {
+        return new ScheduledTaskSpecification(
+                "Leader Election",
+                this::elect,
+                DelayType.FIXED_DELAY,
+                Duration.ZERO,
+                () -> CHECK_DELAY
+        );
+    }
+
+    // Wraps the poller spec so it only polls on the leader. A standby keeps the poller's idle delay as its cadence.
+    public ScheduledTaskSpecification guard(ScheduledTaskSpecification pollerSpec) {
+        poll = pollerSpec.task();
+        return new ScheduledTaskSpecification(
+                pollerSpec.description(),
+                () -> {
+                    pollLock.lock();
+                    try {
+                        if (leader) {
+                            poll.run();
+                            saveCheckpoint();
+                        } else {
+                            keepWarm.run();
+                        }
+                    } finally {
+                        pollLock.unlock();
+                    }
+                },
+                pollerSpec.delayType(),
+                pollerSpec.initialDelay(),
+                pollerSpec.delay()
+        );
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public long takeovers() {
+        return takeovers.get();
+    }
+
+    public void elect() {
+        if (leader) {
+            if (!isValid(lockConnection)) stepDown("Lost the leadership connection, standing by.");
+            return;
+        }
+        Connection conn = tryLock();
+        if (conn != null) takeOver(conn);
+    }
+
+    private Connection tryLock() {
+        Connection conn = null;
+        try {
+            conn = ds.getConnection();
+            try (PreparedStatement ps = conn.prepareStatement(TRY_LOCK_SQL)) {
+                ps.setString(1, group);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getBoolean(1)) return conn;
+                }
+            }
+        } catch (SQLException e) {
+            Logger.log("LeaderElection: Could not contend for leadership", e);
+        }
+        closeQuietly(conn);
+        return null;
+    }
+
+    private void takeOver(Connection conn) {
+        pollLock.lock();
+        try {
+            lockConnection = conn;
+            leader = true;
+            takeovers.incrementAndGet();
+            Logger.println("LeaderElection: Took over leadership of " + group + ".", 2);
+            saved.set(null);
+            try {
+                Optional<PlaybackCheckpoint> checkpoint = databaseWrapper.getPlaybackCheckpoint(group).map(PlaybackCheckpoint::decode);
+                checkpoint.ifPresent(poller::restore);
+                saved.set(checkpoint);
+            } catch (RuntimeException e) {
+                Logger.log("LeaderElection: Could not restore the last checkpoint, starting without it", e);
+            }
+            if (poll != null) {
+                poll.run();
+                saveCheckpoint();
+            }
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    // One small upsert when a track starts, restarts or is recorded, written off the poll thread. A failed save is
+    // forgotten so the next poll tries again.
+    private void saveCheckpoint() {
+        Optional<PlaybackCheckpoint> checkpoint = poller.checkpoint();
+        Optional<PlaybackCheckpoint> last = saved.get();
+        if (last != null && last.isPresent() == checkpoint.isPresent()
+                && (checkpoint.isEmpty() || checkpoint.get().sameTrackAs(last.get()))) return;
+        saved.set(checkpoint);
+        checkpointWriter.execute(() -> {
+            try {
+                databaseWrapper.savePlaybackCheckpoint(group, checkpoint.map(PlaybackCheckpoint::encode).orElse(null));
+            } catch (RuntimeException e) {
+                saved.compareAndSet(checkpoint, null);
+                Logger.log("LeaderElection: Could not save the playback checkpoint", e);
+            }
+        });
+    }
+
+    private void stepDown(String reason) {
+        pollLock.lock();
+        try {
+            leader = false;
+            closeQuietly(lockConnection);
+            lockConnection = null;
+            Logger.println("LeaderElection: " + reason, 2);
+        } finally {
+            pollLock.unlock();
+        }
+    }
+
+    private static boolean isValid(Connection conn) {
+        try {
+            return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        if (conn == null) return;
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            Logger.log("LeaderElection: Failed to close lock connection", e);
+        }
+    }
+
+    // Closing the session releases the lock, so a standby takes over on its next check.
+    @Override
+    public void close() {
+        if (leader) stepDown("Released leadership of " + group + ".");
+    }
+}
@@ -0,0 +1,116 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// Splits tracked users between tracker nodes through leases in user_leases. Every heartbeat a node renews the leases
+// it holds, gives back users above its fair share and claims free or expired users below it, so users move when
+// nodes join or leave. A user is only polled while this node's lease on them is known to be valid: the local
+// deadline is measured from before the statement that set the lease, so it always ends before the lease does in the
+// database and another node can only claim a user once this node has stopped polling them. A poll only starts while
+// more than the poll timeout is left on the lease, so one already running cannot outlast it.
+public final class LeaseManager {
+    private final DatabaseWrapper databaseWrapper;
+    private final String nodeId;
+    private final Duration leaseDuration;
+    private final Duration pollTimeout;
+    private final LongSupplier nanoTime;
+    private final Map<String, Long> leaseDeadlines = new ConcurrentHashMap<>();
+
+    public LeaseManager(DatabaseWrapper databaseWrapper, String nodeId, Duration leaseDuration) {
+        this(databaseWrapper, nodeId, leaseDuration, TrackingPoller.POLL_TIMEOUT, System::nanoTime);
+    }
+
+    // Renewals leave between a full and two thirds of a lease, so twice the poll timeout always leaves room to poll.
+    public LeaseManager(DatabaseWrapper databaseWrapper, String nodeId, Duration leaseDuration, Duration pollTimeout, LongSupplier nanoTime) {
+        if (leaseDuration.compareTo(Duration.ofSeconds(3)) < 0) throw new IllegalArgumentException("Lease duration must be at least 3 seconds: " + leaseDuration);
+        if (leaseDuration.compareTo(pollTimeout.multipliedBy(2)) < 0) {
+            throw new IllegalArgumentException("Lease duration must be at least twice the poll timeout of " + pollTimeout + ": " + leaseDuration);
+        }
+        this.databaseWrapper = databaseWrapper;
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+        this.pollTimeout = pollTimeout;
+        this.nanoTime = nanoTime;
+    }
+
+    // Three heartbeats per lease, so one slow or failed heartbeat does not lose the node its users. The tracker is
+    // passed in rather than held because it is built with holds as its poll check.
+    public ScheduledTaskSpecification spec(MultiUserTracker tracker) {
+        return new ScheduledTaskSpecification(
+                "Lease Heartbeat",
+                () -> heartbeat(tracker),
+                DelayType.FIXED_RATE,
+                Duration.ZERO,
+                () -> leaseDuration.dividedBy(3)
+        );
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public boolean holds(String userId) {
+        Long deadline = leaseDeadlines.get(userId);
+        return deadline != null && nanoTime.getAsLong() - deadline < 0;
+    }
+
+    public boolean canPoll(String userId) {
+        Long deadline = leaseDeadlines.get(userId);
+        return deadline != null && deadline - nanoTime.getAsLong() > pollTimeout.toNanos();
+    }
+
+    public Set<String> heldUsers() {
+        Set<String> held = new HashSet<>();
+        for (String userId : leaseDeadlines.keySet()) {
+            if (holds(userId)) held.add(userId);
+        }
+        return held;
+    }
+
+    public void heartbeat(MultiUserTracker tracker) {
+        ClusterView view = databaseWrapper.heartbeat(nodeId, leaseDuration);
+        int share = view.fairShare();
+
+        long renewedAt = nanoTime.getAsLong();
+        List<String> held = new ArrayList<>(databaseWrapper.renewLeases(nodeId, leaseDuration));
+        long deadline = renewedAt + leaseDuration.toNanos();
+        leaseDeadlines.keySet().retainAll(held);
+        for (String userId : held) leaseDeadlines.put(userId, deadline);
+
+        if (held.size() > share) {
+            // Users are stopped before their lease goes back, so nobody can claim a user this node is still polling.
+            held.sort(null);
+            List<String> surplus = List.copyOf(held.subList(share, held.size()));
+            held.removeAll(surplus);
+            surplus.forEach(leaseDeadlines::remove);
+            surplus.forEach(tracker::removeUser);
+            databaseWrapper.releaseLeases(nodeId, surplus);
+            Logger.println("LeaseManager: Released " + surplus.size() + " users to rebalance across " + view.liveNodes() + " nodes.", 3);
+        } else if (held.size() < share) {
+            long claimedAt = nanoTime.getAsLong();
+            List<String> claimed = databaseWrapper.claimLeases(nodeId, leaseDuration, share - held.size());
+            for (String userId : claimed) leaseDeadlines.put(userId, claimedAt + leaseDuration.toNanos());
+            held.addAll(claimed);
+            if (!claimed.isEmpty()) Logger.println("LeaseManager: Claimed " + claimed.size() + " users.", 3);
+        }
+
+        tracker.sync(held);
+    }
+
+    // Stops every user this node tracks before handing the leases back.
+    public void leave(MultiUserTracker tracker) {
+        leaseDeadlines.clear();
+        tracker.users().forEach(tracker::removeUser);
+        databaseWrapper.leaveCluster(nodeId);
+        Logger.println("LeaseManager: Node " + nodeId + " left the cluster.", 2);
+    }
+}
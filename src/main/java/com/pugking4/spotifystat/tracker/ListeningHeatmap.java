@@ -0,0 +1,53 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+// Plays per hour of the week, Monday 00:00 first. An hour is quiet when it saw less than a quarter of the
+// average hour's plays. With no history at all nothing is quiet, so the poller keeps its normal idle cadence.
+public final class ListeningHeatmap {
+    public static final int SLOTS = 7 * 24;
+    private static final double QUIET_SHARE = 0.25;
+
+    private final long[] plays;
+    private final double quietBelow;
+
+    public ListeningHeatmap(long[] plays) {
+        if (plays.length != SLOTS) throw new IllegalArgumentException("Heatmap needs " + SLOTS + " slots: " + plays.length);
+        this.plays = plays.clone();
+        long total = Arrays.stream(plays).sum();
+        this.quietBelow = total == 0 ? 0 : QUIET_SHARE * total / SLOTS;
+    }
+
+    public static ListeningHeatmap empty() {
+        return new ListeningHeatmap(new long[SLOTS]);
+    }
+
+    // isoDay is 1 for Monday through 7 for Sunday, as returned by extract(isodow ...).
+    public static int slot(int isoDay, int hour) {
+        if (isoDay < 1 || isoDay > 7) throw new IllegalArgumentException("Day out of range: " + isoDay);
+        if (hour < 0 || hour > 23) throw new IllegalArgumentException("Hour out of range: " + hour);
+        return (isoDay - 1) * 24 + hour;
+    }
+
+    public long plays(ZonedDateTime time) {
+        return plays[slot(time.getDayOfWeek().getValue(), time.getHour())];
+    }
+
+    public boolean isQuiet(ZonedDateTime time) {
+        return plays(time) < quietBelow;
+    }
+
+    // Time until the next hour that is not quiet starts, zero if this one is not quiet.
+    public Duration untilBusy(ZonedDateTime time) {
+        if (!isQuiet(time)) return Duration.ZERO;
+        ZonedDateTime hour = time.truncatedTo(ChronoUnit.HOURS);
+        for (int i = 1; i <= SLOTS; i++) {
+            ZonedDateTime next = hour.plusHours(i);
+            if (!isQuiet(next)) return Duration.between(time, next);
+        }
+        return Duration.ofDays(7);
+    }
+}
@@ -0,0 +1,244 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Keeps one TrackingPoller and token refresher per active user in tracked_users scheduled on a shared Scheduler.
+// Per-user state is only the poller, its token and a few task records; the HTTP client, JSON factory, connection
+// pool and known-id cache are shared, and polls only hold a thread while they run. A semaphore caps how many
+// users talk to Spotify at once.
+//
+// In a cluster LeaseManager decides which users this node tracks instead of tracked_users, and mayPoll checks the
+// node still holds a user's lease, with time left to finish the poll, before every poll.
+//
+// Creating a user's TokenManager waits for them to approve access when there is no stored refresh token, so it runs
+// on an authoriser thread and the user's session starts once it returns. Neither sync nor the lease heartbeat that
+// drives it ever waits on a user. An authorisation still waiting after AUTHORISATION_TIMEOUT is abandoned and
+// started again on the next sync, which logs a fresh authorisation URL. A user whose refresh token Spotify rejects is
+// dropped the same way, so the next sync sends them back through an authoriser thread instead of any poll waiting.
+public final class MultiUserTracker {
+    private static final Duration SYNC_DELAY = Duration.ofMinutes(1);
+    private static final Duration AUTHORISATION_TIMEOUT = Duration.ofMinutes(10);
+
+    private final DatabaseWrapper databaseWrapper;
+    private final Scheduler scheduler;
+    private final Function<String, TokenManager> tokenManagers;
+    private final Function<TokenManager, SpotifyWrapper> spotifyWrappers;
+    private final PollPredictionConfig prediction;
+    private final Semaphore spotifyPermits;
+    private final Predicate<String> mayPoll;
+    private final Executor authorisers;
+    private final Function<String, PlayRecorder> recorders;
+
+    // A poll holds pollLock while it runs, so once removeUser returns the user is not being polled.
+    private static final class UserSession {
+        private final ReentrantLock pollLock = new ReentrantLock();
+        private boolean stopped = false;
+        private TokenManager tokenManager;
+        private ScheduledTaskSpecification poller;
+        private ScheduledTaskSpecification tokenRefresher;
+    }
+
+    private static final class Authorisation {
+        private final long startedNanos = System.nanoTime();
+        private volatile Thread thread;
+
+        void abandon() {
+            Thread t = thread;
+            if (t != null) t.interrupt();
+        }
+    }
+
+    private final Map<String, UserSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Authorisation> authorising = new ConcurrentHashMap<>();
+
+    public MultiUserTracker(DatabaseWrapper databaseWrapper, Scheduler scheduler, Function<String, TokenManager> tokenManagers,
+                            Function<TokenManager, SpotifyWrapper> spotifyWrappers, PollPredictionConfig prediction, int maxConcurrentRequests) {
+        this(databaseWrapper, scheduler, tokenManagers, spotifyWrappers, prediction, maxConcurrentRequests, userId -> true);
+    }
+
+    public MultiUserTracker(DatabaseWrapper databaseWrapper, Scheduler scheduler, Function<String, TokenManager> tokenManagers,
+                            Function<TokenManager, SpotifyWrapper> spotifyWrappers, PollPredictionConfig prediction, int maxConcurrentRequests,
+                            Predicate<String> mayPoll) {
+        this(databaseWrapper, scheduler, tokenManagers, spotifyWrappers, prediction, maxConcurrentRequests, mayPoll,
+                Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    public MultiUserTracker(DatabaseWrapper databaseWrapper, Scheduler scheduler, Function<String, TokenManager> tokenManagers,
+                            Function<TokenManager, SpotifyWrapper> spotifyWrappers, PollPredictionConfig prediction, int maxConcurrentRequests,
+                            Predicate<String> mayPoll, Executor authorisers) {
+        this(databaseWrapper, scheduler, tokenManagers, spotifyWrappers, prediction, maxConcurrentRequests, mayPoll, authorisers,
+                userId -> databaseWrapper.forUser(userId)::insertPlayedTrack);
+    }
+
+    // recorders gives each user's poller somewhere to record plays, normally WriteBehindQueue.forUser so polls never
+    // wait on the database and plays it cannot take are spooled.
+    public MultiUserTracker(DatabaseWrapper databaseWrapper, Scheduler scheduler, Function<String, TokenManager> tokenManagers,
+                            Function<TokenManager, SpotifyWrapper> spotifyWrappers, PollPredictionConfig prediction, int maxConcurrentRequests,
+                            Predicate<String> mayPoll, Executor authorisers, Function<String, PlayRecorder> recorders) {
+        if (maxConcurrentRequests < 1) throw new IllegalArgumentException("Concurrent request limit must be at least 1: " + maxConcurrentRequests);
+        this.databaseWrapper = databaseWrapper;
+        this.scheduler = scheduler;
+        this.tokenManagers = tokenManagers;
+        this.spotifyWrappers = spotifyWrappers;
+        this.prediction = prediction;
+        this.spotifyPermits = new Semaphore(maxConcurrentRequests);
+        this.mayPoll = mayPoll;
+        this.authorisers = authorisers;
+        this.recorders = recorders;
+    }
+
+    public ScheduledTaskSpecification spec() {
+        return new ScheduledTaskSpecification(
+                "User Registry Sync",
+                this::sync,
+                DelayType.FIXED_DELAY,
+                Duration.ZERO,
+                () -> SYNC_DELAY
+        );
+    }
+
+    public void sync() {
+        sync(databaseWrapper.getTrackedUsers());
+    }
+
+    public void sync(Collection<String> tracked) {
+        Set<String> wanted = new HashSet<>(tracked);
+        for (String userId : tracked) addUser(userId);
+        Set<String> known = new HashSet<>(sessions.keySet());
+        known.addAll(authorising.keySet());
+        for (String userId : known) {
+            if (!wanted.contains(userId)) removeUser(userId);
+        }
+        long now = System.nanoTime();
+        authorising.forEach((userId, authorisation) -> {
+            if (now - authorisation.startedNanos > AUTHORISATION_TIMEOUT.toNanos() && authorising.remove(userId, authorisation)) {
+                authorisation.abandon();
+                Logger.println("MultiUserTracker: User " + userId + " has not approved access yet, retrying on the next sync.", 2);
+            }
+        });
+    }
+
+    // Returns at once; the session starts when the user's token manager is ready.
+    public void addUser(String userId) {
+        if (sessions.containsKey(userId)) return;
+        Authorisation authorisation = new Authorisation();
+        if (authorising.putIfAbsent(userId, authorisation) != null) return;
+        authorisers.execute(() -> {
+            authorisation.thread = Thread.currentThread();
+            try {
+                TokenManager tokenManager = tokenManagers.apply(userId);
+                if (authorising.remove(userId, authorisation)) startSession(userId, tokenManager);
+            } catch (RuntimeException e) {
+                authorising.remove(userId, authorisation);
+                Logger.log("Could not authorise user " + userId + ", retrying on the next sync", e);
+            } finally {
+                authorisation.thread = null;
+            }
+        });
+    }
+
+    private void startSession(String userId, TokenManager tokenManager) {
+        TrackingPoller poller = new TrackingPoller(spotifyWrappers.apply(tokenManager), recorders.apply(userId), prediction);
+        UserSession session = new UserSession();
+        session.tokenManager = tokenManager;
+        session.poller = limited(userId, session, poller.spec());
+        session.tokenRefresher = refresher(userId, session, tokenManager.spec());
+        if (sessions.putIfAbsent(userId, session) != null) return;
+        scheduler.add(session.tokenRefresher);
+        scheduler.add(session.poller);
+        Logger.println("MultiUserTracker: Tracking user " + userId + ".", 2);
+    }
+
+    public void removeUser(String userId) {
+        Authorisation authorisation = authorising.remove(userId);
+        if (authorisation != null) authorisation.abandon();
+        UserSession session = sessions.remove(userId);
+        if (session == null) return;
+        scheduler.remove(session.poller);
+        scheduler.remove(session.tokenRefresher);
+        session.pollLock.lock();
+        try {
+            session.stopped = true;
+        } finally {
+            session.pollLock.unlock();
+        }
+        Logger.println("MultiUserTracker: Stopped tracking user " + userId + ".", 2);
+    }
+
+    // Anything but a rejected refresh token is left to the scheduler to log and retry.
+    private void dropIfUnauthorised(String userId, UserSession session, SpotifyAuthenticationException e) {
+        if (!session.tokenManager.needsAuthorisation()) throw e;
+        if (sessions.get(userId) != session) return;
+        Logger.println("MultiUserTracker: User " + userId + " needs to authorise again, retrying on the next sync.", 2);
+        removeUser(userId);
+    }
+
+    public int userCount() {
+        return sessions.size();
+    }
+
+    public Set<String> users() {
+        return Set.copyOf(sessions.keySet());
+    }
+
+    private ScheduledTaskSpecification refresher(String userId, UserSession session, ScheduledTaskSpecification spec) {
+        return new ScheduledTaskSpecification(
+                spec.description() + " " + userId,
+                () -> {
+                    try {
+                        spec.task().run();
+                    } catch (SpotifyAuthenticationException e) {
+                        dropIfUnauthorised(userId, session, e);
+                    }
+                },
+                spec.delayType(),
+                spec.initialDelay(),
+                spec.delay()
+        );
+    }
+
+    // The token is settled before a permit or the poll lock is taken, so a refresh never holds either.
+    private ScheduledTaskSpecification limited(String userId, UserSession session, ScheduledTaskSpecification spec) {
+        return new ScheduledTaskSpecification(
+                spec.description() + " " + userId,
+                () -> {
+                    try {
+                        session.tokenManager.getAccessToken();
+                    } catch (SpotifyAuthenticationException e) {
+                        dropIfUnauthorised(userId, session, e);
+                        return;
+                    }
+                    try {
+                        spotifyPermits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    session.pollLock.lock();
+                    try {
+                        if (!session.stopped && mayPoll.test(userId)) spec.task().run();
+                    } finally {
+                        session.pollLock.unlock();
+                        spotifyPermits.release();
+                    }
+                },
+                spec.delayType(),
+                spec.initialDelay(),
+                spec.delay()
+        );
+    }
+}
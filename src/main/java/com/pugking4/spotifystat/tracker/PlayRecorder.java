@@ -0,0 +1,8 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+
+@FunctionalInterface
+public interface PlayRecorder {
+    void record(PlayedTrack playedTrack);
+}
@@ -0,0 +1,179 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only file of plays that could not be written to the database yet.
+// Each record is [int length][int crc32][PlayedTrackCodec payload] and the file is fsync'd after every append,
+// so after a crash only a torn final record can be lost, and it is detected by its length or checksum.
+public final class PlaySpool implements AutoCloseable {
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private final Path path;
+    private FileChannel channel;
+
+    public PlaySpool(Path path) {
+        this.path = path;
+        try {
+            this.channel = open(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public synchronized void append(List<PlayedTrack> playedTracks) {
+        append(null, playedTracks);
+    }
+
+    // Spools plays recorded against userId, null for the single-user account. A failed append is cut back off the
+    // file, so the caller can spool the batch again and later appends never land behind a torn record.
+    public synchronized void append(String userId, List<PlayedTrack> playedTracks) {
+        if (playedTracks.isEmpty()) return;
+        long start;
+        try {
+            start = channel.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            long position = start;
+            for (PlayedTrack playedTrack : playedTracks) {
+                byte[] payload = PlayedTrackCodec.encode(userId, playedTrack);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+
+                ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+                record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                while (record.hasRemaining()) {
+                    position += channel.write(record, position);
+                }
+            }
+            channel.force(false);
+            Logger.println("PlaySpool: Spooled " + playedTracks.size() + " track plays.", 2);
+        } catch (IOException | RuntimeException e) {
+            try {
+                channel.truncate(start);
+                channel.force(false);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e instanceof RuntimeException re ? re : new RuntimeException(e);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        try {
+            return channel.size() == 0;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Reads up to maxRecords from the head of the spool. A torn or corrupt record ends the readable
+    // part of the file, so it is truncated away rather than blocking every later replay.
+    public synchronized SpooledPlays readPending(int maxRecords) {
+        try {
+            List<PlayedTrack> plays = new ArrayList<>();
+            List<String> userIds = new ArrayList<>();
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (plays.size() < maxRecords && offset < size) {
+                header.clear();
+                if (!readFully(header, offset)) {
+                    truncateCorruptTail(offset, "short header");
+                    break;
+                }
+                int length = header.getInt(0);
+                int checksum = header.getInt(4);
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    truncateCorruptTail(offset, "invalid length " + length);
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!readFully(payload, offset + HEADER_BYTES)) {
+                    truncateCorruptTail(offset, "short record");
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    truncateCorruptTail(offset, "checksum mismatch");
+                    break;
+                }
+                Pair<String, PlayedTrack> play = PlayedTrackCodec.decodeWithUser(payload.array());
+                userIds.add(play.left());
+                plays.add(play.right());
+                offset += HEADER_BYTES + length;
+            }
+            return new SpooledPlays(plays, userIds, offset);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) return false;
+        }
+        return true;
+    }
+
+    private void truncateCorruptTail(long offset, String reason) throws IOException {
+        Logger.println("PlaySpool: Truncating spool at byte " + offset + ", " + reason + ".", 1);
+        channel.truncate(offset);
+        channel.force(true);
+    }
+
+    // Drops everything before endOffset once those plays are safely in the database.
+    public synchronized void discardUpTo(long endOffset) {
+        try {
+            long size = channel.size();
+            if (endOffset >= size) {
+                channel.truncate(0);
+                channel.force(true);
+                return;
+            }
+
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long position = endOffset;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, out);
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = open(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Logger.log("PlaySpool: Failed to close spool", e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.io.*;
+import java.time.Instant;
+
+// The state of the track a poller is following, enough for another poller to carry on counting it.
+public record PlaybackCheckpoint(String trackId, int durationMs, int progressMs, int startedMs, Instant checkpointedAt) {
+    private static final byte VERSION = 1;
+
+    // True once the track would have ended even if it kept playing since the checkpoint.
+    public boolean isStale(Instant now) {
+        return checkpointedAt.plusMillis(Math.max(0, durationMs - progressMs)).isBefore(now);
+    }
+
+    // Progress moves on every poll, but a checkpoint only needs saving again once the track or where it was started
+    // from changes: the old one still says where playback would be now.
+    public boolean sameTrackAs(PlaybackCheckpoint other) {
+        return trackId.equals(other.trackId) && durationMs == other.durationMs && startedMs == other.startedMs;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static PlaybackCheckpoint decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            byte version = in.readByte();
+            if (version != VERSION) throw new IOException("Unsupported playback checkpoint version: " + version);
+            return read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeUTF(trackId);
+        out.writeInt(durationMs);
+        out.writeInt(progressMs);
+        out.writeInt(startedMs);
+        out.writeLong(checkpointedAt.getEpochSecond());
+        out.writeInt(checkpointedAt.getNano());
+    }
+
+    public static PlaybackCheckpoint read(DataInputStream in) throws IOException {
+        return new PlaybackCheckpoint(in.readUTF(), in.readInt(), in.readInt(), in.readInt(), Instant.ofEpochSecond(in.readLong(), in.readInt()));
+    }
+}
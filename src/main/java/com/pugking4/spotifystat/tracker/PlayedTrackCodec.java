@@ -0,0 +1,186 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.*;
+
+import java.io.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compact binary form of a PlayedTrack for local storage. Every nullable field is preceded by a presence flag.
+// Version 2 records also carry the user the play belongs to; version 1 records belong to the single-user account.
+public final class PlayedTrackCodec {
+    private static final byte VERSION = 1;
+    private static final byte USER_VERSION = 2;
+
+    private PlayedTrackCodec() {}
+
+    public static byte[] encode(PlayedTrack playedTrack) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            write(out, playedTrack);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encode(String userId, PlayedTrack playedTrack) {
+        if (userId == null) return encode(playedTrack);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(USER_VERSION);
+            out.writeUTF(userId);
+            write(out, playedTrack);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static PlayedTrack decode(byte[] data) {
+        return decodeWithUser(data).right();
+    }
+
+    // The user is null for version 1 records.
+    public static Pair<String, PlayedTrack> decodeWithUser(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            byte version = in.readByte();
+            String userId = switch (version) {
+                case VERSION -> null;
+                case USER_VERSION -> in.readUTF();
+                default -> throw new IOException("Unsupported played track encoding version: " + version);
+            };
+            return new Pair<>(userId, readPlayedTrack(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void write(DataOutputStream out, PlayedTrack playedTrack) throws IOException {
+        writeTrack(out, playedTrack.track());
+        writeString(out, playedTrack.contextType());
+        writeString(out, playedTrack.device().name());
+        writeString(out, playedTrack.device().type());
+        writeInteger(out, playedTrack.currentPopularity());
+        writeInstant(out, playedTrack.timeFinished());
+    }
+
+    public static PlayedTrack readPlayedTrack(DataInputStream in) throws IOException {
+        Track track = readTrack(in);
+        String contextType = readString(in);
+        Device device = new Device(readString(in), readString(in));
+        Integer currentPopularity = readInteger(in);
+        Instant timeFinished = readInstant(in);
+        return new PlayedTrack(track, contextType, device, currentPopularity, timeFinished);
+    }
+
+    private static void writeTrack(DataOutputStream out, Track track) throws IOException {
+        writeString(out, track.id());
+        writeString(out, track.name());
+        writeAlbum(out, track.album());
+        writeInteger(out, track.durationMs());
+        writeBoolean(out, track.isExplicit());
+        writeBoolean(out, track.isLocal());
+        writeArtists(out, track.artists());
+    }
+
+    private static Track readTrack(DataInputStream in) throws IOException {
+        return new Track(readString(in), readString(in), readAlbum(in), readInteger(in), readBoolean(in), readBoolean(in), readArtists(in));
+    }
+
+    private static void writeAlbum(DataOutputStream out, Album album) throws IOException {
+        writeString(out, album.id());
+        writeString(out, album.name());
+        writeString(out, album.cover());
+        out.writeBoolean(album.releaseDate() != null);
+        if (album.releaseDate() != null) out.writeLong(album.releaseDate().toEpochDay());
+        writeString(out, album.releaseDatePrecision());
+        writeString(out, album.type());
+        writeArtists(out, album.artists());
+    }
+
+    private static Album readAlbum(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String name = readString(in);
+        String cover = readString(in);
+        LocalDate releaseDate = in.readBoolean() ? LocalDate.ofEpochDay(in.readLong()) : null;
+        return new Album(id, name, cover, releaseDate, readString(in), readString(in), readArtists(in));
+    }
+
+    private static void writeArtists(DataOutputStream out, List<Artist> artists) throws IOException {
+        out.writeInt(artists.size());
+        for (Artist artist : artists) {
+            writeString(out, artist.id());
+            writeString(out, artist.name());
+            writeInteger(out, artist.followers());
+            writeStrings(out, artist.genres());
+            writeString(out, artist.image());
+            writeInteger(out, artist.popularity());
+            writeInstant(out, artist.updatedAt());
+        }
+    }
+
+    private static List<Artist> readArtists(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<Artist> artists = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            artists.add(new Artist(readString(in), readString(in), readInteger(in), readStrings(in), readString(in), readInteger(in), readInstant(in)));
+        }
+        return artists;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values == null) return;
+        for (String value : values) writeString(out, value);
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) return null;
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) values.add(readString(in));
+        return values;
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeInt(value);
+    }
+
+    private static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        byte value = in.readByte();
+        return value < 0 ? null : value == 1;
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value == null) return;
+        out.writeLong(value.getEpochSecond());
+        out.writeInt(value.getNano());
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+}
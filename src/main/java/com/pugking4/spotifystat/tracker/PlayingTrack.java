@@ -1,7 +1,7 @@
 package com.pugking4.spotifystat.tracker;
 
 import java.time.Instant;
-import java.util.Map;
+import java.util.OptionalLong;
 
 public class PlayingTrack {
     public String id;
@@ -19,11 +19,13 @@ public class PlayingTrack {
         this.played = false;
     }
 
+    private static final double PLAYED_THRESHOLD = 0.7;
+
     public void updateProgress(int progressMs) {
         if (progressMs < startedMs) {
             startedMs = progressMs;
         }
-        if ((double) (progressMs - startedMs) / durationMs >= 0.7) {
+        if ((double) (progressMs - startedMs) / durationMs >= PLAYED_THRESHOLD) {
             played = true;
             timeFinished = Instant.now();
         }
@@ -31,6 +33,27 @@ public class PlayingTrack {
         this.progressMs = progressMs;
     }
 
+    // Playback time left until updateProgress would mark the track played, or empty if it ends before that.
+    public OptionalLong millisUntilPlayed() {
+        long threshold = startedMs + (long) Math.ceil(durationMs * PLAYED_THRESHOLD);
+        if (threshold > durationMs) return OptionalLong.empty();
+        return OptionalLong.of(Math.max(0, threshold - progressMs));
+    }
+
+    public long millisUntilEnd() {
+        return Math.max(0, durationMs - progressMs);
+    }
+
+    public PlaybackCheckpoint checkpoint(Instant at) {
+        return new PlaybackCheckpoint(id, durationMs, progressMs, startedMs, at);
+    }
+
+    public static PlayingTrack restore(PlaybackCheckpoint checkpoint) {
+        PlayingTrack track = new PlayingTrack(checkpoint.trackId(), checkpoint.durationMs(), checkpoint.progressMs());
+        track.startedMs = checkpoint.startedMs();
+        return track;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof PlayingTrack pt) {
@@ -40,13 +63,7 @@ public class PlayingTrack {
         }
     }
 
-    public static PlayingTrack fromMap(Map<String, Object> map) {
-        Integer progressMs = (Integer) map.get("progress_ms");
-
-        Map<String, Object> itemMap = (Map<String, Object>) map.get("item");
-        String trackId = (String) itemMap.get("id");
-        Integer durationMs = (Integer) itemMap.get("duration_ms");
-
-        return new PlayingTrack(trackId, durationMs, progressMs);
+    public static PlayingTrack from(CurrentlyPlayingView currentlyPlaying) {
+        return new PlayingTrack(currentlyPlaying.trackId(), currentlyPlaying.durationMs(), currentlyPlaying.progressMs());
     }
 }
@@ -0,0 +1,8 @@
+package com.pugking4.spotifystat.tracker;
+
+// The fixed cadence counts are how many polls the fixed active and idle cadences would have made over the same time.
+public record PollMetrics(long polls, long activePolls, long fixedCadencePolls, long idlePolls, long idleFixedCadencePolls) {
+    public long saved() {
+        return Math.max(0, fixedCadencePolls - activePolls) + Math.max(0, idleFixedCadencePolls - idlePolls);
+    }
+}
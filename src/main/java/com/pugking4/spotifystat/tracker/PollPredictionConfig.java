@@ -0,0 +1,22 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+import java.util.Objects;
+
+// sparseInterval caps how long the poller sleeps while a track plays so skips and seeks are still noticed.
+// margin is added to each predicted poll so it lands just after the threshold or the track end rather than before.
+public record PollPredictionConfig(Duration sparseInterval, Duration margin, Duration minimumInterval) {
+    public PollPredictionConfig {
+        Objects.requireNonNull(sparseInterval, "Sparse interval is required");
+        Objects.requireNonNull(margin, "Margin is required");
+        Objects.requireNonNull(minimumInterval, "Minimum interval is required");
+        if (sparseInterval.isNegative() || sparseInterval.isZero()) throw new IllegalArgumentException("Sparse interval must be positive");
+        if (margin.isNegative()) throw new IllegalArgumentException("Margin is negative");
+        if (minimumInterval.isNegative() || minimumInterval.isZero()) throw new IllegalArgumentException("Minimum interval must be positive");
+        if (minimumInterval.compareTo(sparseInterval) > 0) throw new IllegalArgumentException("Minimum interval is longer than the sparse interval");
+    }
+
+    public PollPredictionConfig(Duration sparseInterval) {
+        this(sparseInterval, Duration.ofMillis(500), Duration.ofSeconds(1));
+    }
+}
@@ -0,0 +1,5 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+
+public record PoolMetrics(int active, int idle, int maxSize, long borrows, Duration averageBorrowWait, Duration maxBorrowWait, long created, long destroyed, long validationFailures, long leaksDetected) {}
@@ -0,0 +1,24 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.io.IOException;
+
+// Gives each tracked user their own refresh token and OAuth code files inside one shared cache.
+public final class PrefixedCache implements Cache {
+    private final Cache delegate;
+    private final String prefix;
+
+    public PrefixedCache(Cache delegate, String prefix) {
+        this.delegate = delegate;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public byte[] read(String filename) throws IOException {
+        return delegate.read(prefix + filename);
+    }
+
+    @Override
+    public void write(String filename, byte[] data) throws IOException {
+        delegate.write(prefix + filename, data);
+    }
+}
@@ -23,4 +23,9 @@ public class PriorityClassifier {
         else return Priority.DO_NOT_UPDATE;
     }
 
+    // Anything last updated before this instant classifies as LOW or higher.
+    public Instant staleBefore() {
+        return clock.instant().minusSeconds(LOW_DELAY);
+    }
+
 }
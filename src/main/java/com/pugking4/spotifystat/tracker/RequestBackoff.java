@@ -0,0 +1,123 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+// A circuit breaker per endpoint. A transient failure opens it for the Retry-After Spotify sent, or failing that a
+// jittered exponential backoff, and requests made while it is open fail straight away without reaching Spotify or
+// spending governor tokens. Once that has passed a single probe goes out: success closes the breaker and the endpoint
+// is back to full speed, failure opens it again for longer. A 429 on a foreground endpoint opens every breaker, the
+// rate limit covers the app. One on a background endpoint only opens the background breakers: the governor keeps a
+// reserve for polls, so a background 429 should not stop them too.
+public final class RequestBackoff {
+    private final RequestBackoffConfig cfg;
+    private final LongSupplier nanoTime;
+    private final DoubleSupplier jitter;
+    private final Map<SpotifyEndpoint, EndpointState> endpoints = new EnumMap<>(SpotifyEndpoint.class);
+
+    private static final class EndpointState {
+        BackoffState.Breaker breaker = BackoffState.Breaker.CLOSED;
+        int failures = 0;
+        int lastStatus = 0;
+        long lastDelay = 0;
+        long retryAt = 0;
+    }
+
+    public RequestBackoff(RequestBackoffConfig cfg) {
+        this(cfg, System::nanoTime, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    // jitter returns a fraction in [0, 1).
+    public RequestBackoff(RequestBackoffConfig cfg, LongSupplier nanoTime, DoubleSupplier jitter) {
+        this.cfg = cfg;
+        this.nanoTime = nanoTime;
+        this.jitter = jitter;
+        for (SpotifyEndpoint endpoint : SpotifyEndpoint.values()) endpoints.put(endpoint, new EndpointState());
+    }
+
+    // Throws the exception a real request would have, carrying how long is left, while the endpoint is backing off.
+    public synchronized void permit(SpotifyEndpoint endpoint) {
+        EndpointState s = endpoints.get(endpoint);
+        if (s.breaker == BackoffState.Breaker.CLOSED) return;
+        long now = nanoTime.getAsLong();
+        long remaining = s.retryAt - now;
+        if (remaining > 0) {
+            throw new SpotifyApiException(s.lastStatus, "Backing off " + endpoint + " for another "
+                    + Duration.ofNanos(remaining).toMillis() + " ms", Duration.ofNanos(remaining));
+        }
+        // A probe that never reports back, say because its thread was interrupted, holds the endpoint for as long as
+        // the last backoff and no longer.
+        s.breaker = BackoffState.Breaker.HALF_OPEN;
+        s.retryAt = now + s.lastDelay;
+    }
+
+    // Hands back a request that never reached Spotify. A probe that did not go out proves nothing either way, so the
+    // next request may probe straight away.
+    public synchronized void release(SpotifyEndpoint endpoint) {
+        EndpointState s = endpoints.get(endpoint);
+        if (s.breaker == BackoffState.Breaker.HALF_OPEN) s.retryAt = nanoTime.getAsLong();
+    }
+
+    public synchronized void succeeded(SpotifyEndpoint endpoint) {
+        EndpointState s = endpoints.get(endpoint);
+        if (s.breaker != BackoffState.Breaker.CLOSED) {
+            Logger.println("RequestBackoff: " + endpoint + " recovered after " + s.failures + " failed requests.", 2);
+        }
+        s.breaker = BackoffState.Breaker.CLOSED;
+        s.failures = 0;
+    }
+
+    // Returns how long the endpoint is backing off for. Anything but a transient failure shows Spotify is answering,
+    // so it counts as a success here and returns null.
+    public synchronized Duration failed(SpotifyEndpoint endpoint, SpotifyApiException e) {
+        if (!e.isTransient()) {
+            succeeded(endpoint);
+            return null;
+        }
+        EndpointState s = endpoints.get(endpoint);
+        s.failures++;
+        long delay = e.getRetryAfter().map(Duration::toNanos).orElseGet(() -> backoffNanos(s.failures));
+        long now = nanoTime.getAsLong();
+        open(s, e.getStatusCode(), now, delay);
+        Logger.println("RequestBackoff: " + endpoint + " got " + e.getStatusCode() + ", backing off for "
+                + Duration.ofNanos(delay).toMillis() + " ms.", 2);
+        if (e.getStatusCode() == 429) {
+            endpoints.forEach((otherEndpoint, other) -> {
+                if (other == s || (endpoint.isBackground() && !otherEndpoint.isBackground())) return;
+                if (other.breaker == BackoffState.Breaker.CLOSED || other.retryAt < now + delay) open(other, 429, now, delay);
+            });
+        }
+        return Duration.ofNanos(delay);
+    }
+
+    private static void open(EndpointState s, int status, long now, long delay) {
+        s.breaker = BackoffState.Breaker.OPEN;
+        s.lastStatus = status;
+        s.lastDelay = delay;
+        s.retryAt = now + delay;
+    }
+
+    // Equal jitter: half the exponential delay is fixed and the other half random, so clients that failed together
+    // spread out without any of them retrying almost at once.
+    private long backoffNanos(int failures) {
+        double exponential = cfg.baseDelay().toNanos() * Math.pow(2, Math.min(failures - 1, 62));
+        double cap = Math.min(cfg.maxDelay().toNanos(), exponential);
+        return (long) (cap / 2 + jitter.getAsDouble() * cap / 2);
+    }
+
+    public synchronized Map<SpotifyEndpoint, BackoffState> state() {
+        long now = nanoTime.getAsLong();
+        Map<SpotifyEndpoint, BackoffState> state = new EnumMap<>(SpotifyEndpoint.class);
+        endpoints.forEach((endpoint, s) -> {
+            Duration retryIn = s.breaker == BackoffState.Breaker.CLOSED ? Duration.ZERO : Duration.ofNanos(Math.max(0, s.retryAt - now));
+            state.put(endpoint, new BackoffState(s.breaker, s.failures, s.lastStatus, retryIn));
+        });
+        return state;
+    }
+}
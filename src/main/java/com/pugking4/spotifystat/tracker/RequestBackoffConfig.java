@@ -0,0 +1,13 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+
+// baseDelay is the backoff after the first transient failure, doubling with each one after it up to maxDelay.
+public record RequestBackoffConfig(Duration baseDelay, Duration maxDelay) {
+    public static final RequestBackoffConfig DEFAULT = new RequestBackoffConfig(Duration.ofSeconds(1), Duration.ofMinutes(2));
+
+    public RequestBackoffConfig {
+        if (baseDelay.isNegative() || baseDelay.isZero()) throw new IllegalArgumentException("Base delay must be positive: " + baseDelay);
+        if (maxDelay.compareTo(baseDelay) < 0) throw new IllegalArgumentException("Max delay must be at least the base delay: " + maxDelay);
+    }
+}
@@ -0,0 +1,5 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+
+public record RequestClassMetrics(long granted, int waiting, Duration averageWait, Duration maxWait) {}
@@ -0,0 +1,141 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// One token bucket for every request the app makes to Spotify, since the rate limit applies to the client id rather
+// than to a user. Requests that find the bucket empty queue in endpoint priority order, then arrival order, so a
+// playback poll that arrives during an artist refresh goes out next. Background endpoints also stop at the reserve,
+// leaving those tokens for polls that have not arrived yet. No request waits longer than MAX_WAIT, so a poll has a
+// bounded run time even when the budget is exhausted.
+public final class RequestGovernor {
+    public static final Duration MAX_WAIT = Duration.ofSeconds(5);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final RequestGovernorConfig cfg;
+    private final RequestBackoff backoff;
+    private final LongSupplier nanoTime;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private final Map<SpotifyEndpoint, ClassCounters> counters = new EnumMap<>(SpotifyEndpoint.class);
+    private long arrivals = 0;
+    private double tokens;
+    private long refilledAt;
+
+    private record Waiter(SpotifyEndpoint endpoint, long arrival) implements Comparable<Waiter> {
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = endpoint.compareTo(other.endpoint);
+            return byPriority != 0 ? byPriority : Long.compare(arrival, other.arrival);
+        }
+    }
+
+    private static final class ClassCounters {
+        final LongAdder granted = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final AtomicLong maxWaitNanos = new AtomicLong();
+        int waiting = 0;
+    }
+
+    // A null config never makes a request wait, only counts it.
+    public RequestGovernor(RequestGovernorConfig cfg) {
+        this(cfg, new RequestBackoff(RequestBackoffConfig.DEFAULT));
+    }
+
+    public RequestGovernor(RequestGovernorConfig cfg, LongSupplier nanoTime) {
+        this(cfg, new RequestBackoff(RequestBackoffConfig.DEFAULT, nanoTime, () -> ThreadLocalRandom.current().nextDouble()), nanoTime);
+    }
+
+    // The backoff lives here because it is shared the same way: a 429 for one user is a 429 for the whole app.
+    public RequestGovernor(RequestGovernorConfig cfg, RequestBackoff backoff) {
+        this(cfg, backoff, System::nanoTime);
+    }
+
+    public RequestGovernor(RequestGovernorConfig cfg, RequestBackoff backoff, LongSupplier nanoTime) {
+        this.cfg = cfg;
+        this.backoff = backoff;
+        this.nanoTime = nanoTime;
+        this.tokens = cfg == null ? 0 : cfg.burst();
+        this.refilledAt = nanoTime.getAsLong();
+        for (SpotifyEndpoint endpoint : SpotifyEndpoint.values()) counters.put(endpoint, new ClassCounters());
+    }
+
+    public static RequestGovernor unlimited() {
+        return new RequestGovernor(null);
+    }
+
+    public RequestBackoff backoff() {
+        return backoff;
+    }
+
+    public void acquire(SpotifyEndpoint endpoint) throws InterruptedException {
+        ClassCounters classCounters = counters.get(endpoint);
+        long start = nanoTime.getAsLong();
+        if (cfg != null) {
+            lock.lock();
+            try {
+                Waiter me = new Waiter(endpoint, arrivals++);
+                waiters.add(me);
+                classCounters.waiting++;
+                try {
+                    while (true) {
+                        refill();
+                        double floor = endpoint.isBackground() ? cfg.backgroundReserve() : 0;
+                        if (waiters.peek() == me && tokens - floor >= 1) break;
+                        if (nanoTime.getAsLong() - start >= MAX_WAIT.toNanos()) {
+                            throw new SpotifyApiException(-1, "No request budget for " + endpoint + " within " + MAX_WAIT.toSeconds() + "s");
+                        }
+                        changed.awaitNanos(waiters.peek() == me ? nanosUntil(floor + 1) : MAX_PARK_NANOS);
+                    }
+                    tokens -= 1;
+                } finally {
+                    waiters.remove(me);
+                    classCounters.waiting--;
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        long waited = nanoTime.getAsLong() - start;
+        classCounters.granted.increment();
+        classCounters.waitNanos.add(waited);
+        classCounters.maxWaitNanos.accumulateAndGet(waited, Math::max);
+    }
+
+    private void refill() {
+        long now = nanoTime.getAsLong();
+        tokens = Math.min(cfg.burst(), tokens + (now - refilledAt) * cfg.requestsPerSecond() / 1e9);
+        refilledAt = now;
+    }
+
+    private long nanosUntil(double target) {
+        long nanos = (long) Math.ceil((target - tokens) * 1e9 / cfg.requestsPerSecond());
+        return Math.clamp(nanos, 1, MAX_PARK_NANOS);
+    }
+
+    public Map<SpotifyEndpoint, RequestClassMetrics> metrics() {
+        Map<SpotifyEndpoint, RequestClassMetrics> metrics = new EnumMap<>(SpotifyEndpoint.class);
+        lock.lock();
+        try {
+            counters.forEach((endpoint, c) -> {
+                long granted = c.granted.sum();
+                Duration averageWait = Duration.ofNanos(granted == 0 ? 0 : c.waitNanos.sum() / granted);
+                metrics.put(endpoint, new RequestClassMetrics(granted, c.waiting, averageWait, Duration.ofNanos(c.maxWaitNanos.get())));
+            });
+        } finally {
+            lock.unlock();
+        }
+        return metrics;
+    }
+}
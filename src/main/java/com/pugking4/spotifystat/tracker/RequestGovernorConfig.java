@@ -0,0 +1,18 @@
+package com.pugking4.spotifystat.tracker;
+
+// requestsPerSecond is the long run rate and burst how many requests may go out back to back after a quiet spell.
+// backgroundReserve tokens are only ever spent by foreground endpoints, so a poll never waits behind a metadata sweep.
+public record RequestGovernorConfig(double requestsPerSecond, int burst, int backgroundReserve) {
+    public static final RequestGovernorConfig DEFAULT = new RequestGovernorConfig(3, 30);
+
+    public RequestGovernorConfig {
+        if (!(requestsPerSecond > 0) || Double.isInfinite(requestsPerSecond)) throw new IllegalArgumentException("Request rate must be positive: " + requestsPerSecond);
+        if (burst < 1) throw new IllegalArgumentException("Burst must be at least 1: " + burst);
+        if (backgroundReserve < 0 || backgroundReserve >= burst) throw new IllegalArgumentException("Background reserve must be between 0 and the burst: " + backgroundReserve);
+    }
+
+    // Keeps a fifth of the burst back for foreground requests.
+    public RequestGovernorConfig(double requestsPerSecond, int burst) {
+        this(requestsPerSecond, burst, burst / 5);
+    }
+}
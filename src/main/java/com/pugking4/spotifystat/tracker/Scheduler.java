@@ -2,65 +2,146 @@ package com.pugking4.spotifystat.tracker;
 
 import com.pugking4.spotifystat.common.logging.Logger;
 
-import java.util.HashMap;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
+// Every task reschedules itself after each run and asks its specification for the delay again, so a task can
+// change its cadence between runs. Delays keep nanosecond precision.
 public class Scheduler {
-    private final ScheduledExecutorService executor;
+    private final TaskTimer timer;
+    private final Executor workers;
+    private final Duration maxJitter;
+    private final LongSupplier nanoTime;
+    private volatile boolean started = false;
+    private volatile boolean stopped = false;
     Set<ScheduledTaskSpecification> taskSpecifications;
-    Map<ScheduledTaskSpecification, ScheduledFuture<?>> futures = new HashMap<>();
+    Map<ScheduledTaskSpecification, TaskTimer.Timeout> futures = new ConcurrentHashMap<>();
 
     @ExcludeFromJacocoGeneratedReport
     public Scheduler(Set<ScheduledTaskSpecification> specs) {
-        this.taskSpecifications = specs;
-        this.executor = Executors.newScheduledThreadPool(specs.size());
+        this(specs, Executors.newScheduledThreadPool(specs.size()));
     }
 
     public Scheduler(Set<ScheduledTaskSpecification> specs, ScheduledExecutorService executor) {
-        this.taskSpecifications = specs;
-        this.executor = executor;
+        this(specs, executor, System::nanoTime);
+    }
+
+    public Scheduler(Set<ScheduledTaskSpecification> specs, ScheduledExecutorService executor, LongSupplier nanoTime) {
+        this(specs, executor, Runnable::run, nanoTime);
+    }
+
+    // The timer only keeps time, due tasks run on workers. With virtual thread workers a single timer thread can drive
+    // thousands of tasks that spend most of their run blocked on the network.
+    public Scheduler(Set<ScheduledTaskSpecification> specs, ScheduledExecutorService executor, Executor workers) {
+        this(specs, executor, workers, System::nanoTime);
+    }
+
+    public Scheduler(Set<ScheduledTaskSpecification> specs, ScheduledExecutorService executor, Executor workers, LongSupplier nanoTime) {
+        this(specs, TaskTimer.of(executor), workers, Duration.ZERO, nanoTime);
+    }
+
+    // Each task's first run is pushed back by a random amount below maxJitter, so tasks added together, such as
+    // the pollers of every tracked user, spread over that window instead of polling in one burst.
+    public Scheduler(Set<ScheduledTaskSpecification> specs, TaskTimer timer, Executor workers, Duration maxJitter) {
+        this(specs, timer, workers, maxJitter, System::nanoTime);
+    }
+
+    public Scheduler(Set<ScheduledTaskSpecification> specs, TaskTimer timer, Executor workers, Duration maxJitter, LongSupplier nanoTime) {
+        if (maxJitter.isNegative()) throw new IllegalArgumentException("Jitter is negative");
+        this.taskSpecifications = ConcurrentHashMap.newKeySet();
+        this.taskSpecifications.addAll(specs);
+        this.timer = timer;
+        this.workers = workers;
+        this.maxJitter = maxJitter;
+        this.nanoTime = nanoTime;
     }
 
     public void start() {
+        started = true;
         for (ScheduledTaskSpecification spec : taskSpecifications) {
             schedule(spec);
         }
     }
 
     public void stop() {
-        for (ScheduledFuture<?> f : futures.values()) {
+        stopped = true;
+        for (TaskTimer.Timeout f : futures.values()) {
             if (f != null) f.cancel(true);
         }
-        executor.shutdown();
+        timer.shutdown();
+        if (workers instanceof ExecutorService service) service.shutdown();
     }
 
-    private void schedule(ScheduledTaskSpecification spec) {
-        Runnable wrapped = wrap(spec);
+    // Tasks can join and leave a running scheduler. A task added before start() waits for it.
+    public void add(ScheduledTaskSpecification spec) {
+        if (taskSpecifications.add(spec) && started) schedule(spec);
+    }
 
-        ScheduledFuture<?> f = switch (spec.delayType()) {
-            case FIXED_RATE ->
-                    executor.scheduleAtFixedRate(wrapped, spec.initialDelay().toSeconds(), spec.delay().get().toSeconds(), TimeUnit.SECONDS);
-            case FIXED_DELAY ->
-                    executor.scheduleWithFixedDelay(wrapped, spec.initialDelay().toSeconds(), spec.delay().get().toSeconds(), TimeUnit.SECONDS);
-        };
+    // The pending run is cancelled; a run already in progress finishes but is not rescheduled.
+    public void remove(ScheduledTaskSpecification spec) {
+        taskSpecifications.remove(spec);
+        TaskTimer.Timeout f = futures.remove(spec);
+        if (f != null) f.cancel(false);
+    }
 
-        futures.put(spec, f);
+    public int size() {
+        return taskSpecifications.size();
     }
 
+    private void schedule(ScheduledTaskSpecification spec) {
+        long jitter = maxJitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(maxJitter.toNanos());
+        scheduleAt(spec, nanoTime.getAsLong() + spec.initialDelay().toNanos() + jitter);
+    }
 
-    private Runnable wrap(ScheduledTaskSpecification spec) {
-        return () -> {
-            try {
-                spec.task().run();
-            } catch (Exception e) {
-                Logger.println(e);
-                Logger.log("Task " + spec.description() + " threw an exception", e);
-            }
+    private void scheduleAt(ScheduledTaskSpecification spec, long startNanos) {
+        if (stopped || !taskSpecifications.contains(spec)) return;
+        long delay = Math.max(0, startNanos - nanoTime.getAsLong());
+        try {
+            TaskTimer.Timeout f = timer.schedule(() -> workers.execute(() -> runAndReschedule(spec, startNanos)), delay, TimeUnit.NANOSECONDS);
+            futures.put(spec, f);
+            // remove() may have run between the check above and the put.
+            if (!taskSpecifications.contains(spec) && futures.remove(spec, f)) f.cancel(false);
+        } catch (RejectedExecutionException e) {
+            if (!stopped) throw e;
+        }
+    }
+
+    // FIXED_RATE measures the next start from this run's planned start, FIXED_DELAY from when this run finished.
+    // A run that overran its rate starts the next one immediately rather than bursting to catch up. A run that was
+    // told to retry later is not started again before then, whatever its cadence.
+    private void runAndReschedule(ScheduledTaskSpecification spec, long startedNanos) {
+        Duration holdOff = run(spec);
+        long delay = spec.delay().get().toNanos();
+        long now = nanoTime.getAsLong();
+        long next = switch (spec.delayType()) {
+            case FIXED_RATE -> Math.max(startedNanos + delay, now);
+            case FIXED_DELAY -> now + delay;
         };
+        scheduleAt(spec, Math.max(next, now + holdOff.toNanos()));
+    }
+
+    private Duration run(ScheduledTaskSpecification spec) {
+        try {
+            spec.task().run();
+        } catch (Exception e) {
+            if (e instanceof SpotifyApiException api && api.getRetryAfter().isPresent()) {
+                Duration retryAfter = api.getRetryAfter().get();
+                Logger.println("Task " + spec.description() + " is holding off for " + retryAfter.toMillis() + " ms: " + e.getMessage(), 2);
+                return retryAfter;
+            }
+            Logger.println(e);
+            Logger.log("Task " + spec.description() + " threw an exception", e);
+        }
+        return Duration.ZERO;
     }
 }
@@ -0,0 +1,50 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class SpoolReplayer {
+    private static final int DELAY_SECONDS = 30;
+    private static final int BATCH_SIZE = 200;
+
+    private final PlaySpool spool;
+    private final DatabaseWrapper databaseWrapper;
+
+    public SpoolReplayer(PlaySpool spool, DatabaseWrapper databaseWrapper) {
+        this.spool = spool;
+        this.databaseWrapper = databaseWrapper;
+    }
+
+    public ScheduledTaskSpecification spec() {
+        return new ScheduledTaskSpecification(
+                "Spool Replayer",
+                this::run,
+                DelayType.FIXED_DELAY,
+                Duration.ofSeconds(DELAY_SECONDS),
+                () -> Duration.ofSeconds(DELAY_SECONDS)
+        );
+    }
+
+    // Replays oldest first and only discards a batch after it committed, so a failure part way through
+    // leaves the rest in the spool and the idempotent insert makes replaying a committed batch harmless.
+    // Each user's plays in a batch are replayed against that user.
+    private void run() {
+        SpooledPlays pending = spool.readPending(BATCH_SIZE);
+        while (!pending.plays().isEmpty()) {
+            Logger.println("SpoolReplayer: Replaying " + pending.plays().size() + " spooled track plays.", 2);
+            Map<String, List<PlayedTrack>> byUser = new LinkedHashMap<>();
+            for (int i = 0; i < pending.plays().size(); i++) {
+                byUser.computeIfAbsent(pending.userIds().get(i), userId -> new ArrayList<>()).add(pending.plays().get(i));
+            }
+            byUser.forEach((userId, plays) -> (userId == null ? databaseWrapper : databaseWrapper.forUser(userId)).replayPlayedTracks(plays));
+            spool.discardUpTo(pending.endOffset());
+            pending = spool.readPending(BATCH_SIZE);
+        }
+    }
+}
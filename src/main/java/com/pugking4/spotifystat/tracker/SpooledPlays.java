@@ -0,0 +1,8 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+
+import java.util.List;
+
+// userIds.get(i) is whose play plays.get(i) is, null for the single-user account.
+public record SpooledPlays(List<PlayedTrack> plays, List<String> userIds, long endOffset) {}
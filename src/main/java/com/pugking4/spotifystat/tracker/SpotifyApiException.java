@@ -1,10 +1,22 @@
 package com.pugking4.spotifystat.tracker;
 
+import java.time.Duration;
+import java.util.Optional;
+
 public class SpotifyApiException extends SpotifyException {
     private final int statusCode;
+    private final Duration retryAfter;
     public SpotifyApiException(int statusCode, String message) {
+        this(statusCode, message, null);
+    }
+    // retryAfter is how long Spotify, or our own backoff, says to leave the endpoint alone. Null when there is no such advice.
+    public SpotifyApiException(int statusCode, String message, Duration retryAfter) {
         super(message);
         this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
     }
     public int getStatusCode() { return statusCode; }
+    public Optional<Duration> getRetryAfter() { return Optional.ofNullable(retryAfter); }
+    // Rate limiting, server errors and network failures (status -1) are worth retrying later, the rest are not.
+    public boolean isTransient() { return statusCode == 429 || statusCode >= 500 || statusCode == -1; }
 }
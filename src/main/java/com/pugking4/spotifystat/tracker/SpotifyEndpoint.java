@@ -0,0 +1,19 @@
+package com.pugking4.spotifystat.tracker;
+
+// Endpoints in priority order: when the request budget runs short the earlier ones are served first. Background
+// endpoints also leave the governor's reserve untouched for the ones a user would notice being late.
+public enum SpotifyEndpoint {
+    CURRENTLY_PLAYING(false),
+    DEVICES(false),
+    ARTISTS(true);
+
+    private final boolean background;
+
+    SpotifyEndpoint(boolean background) {
+        this.background = background;
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+}
@@ -0,0 +1,322 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.pugking4.spotifystat.common.dto.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+// Decodes Spotify responses token by token straight into the domain records. Fields we do not store, such as
+// available_markets and external_urls, are skipped without being materialised.
+public final class SpotifyJsonDecoder {
+    private final JsonFactory jsonFactory;
+
+    public SpotifyJsonDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    public Optional<CurrentlyPlaying> decodeCurrentlyPlaying(InputStream body) throws IOException {
+        try (JsonParser p = jsonFactory.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return Optional.empty();
+            boolean empty = true;
+            boolean isPlaying = false;
+            int progressMs = 0;
+            String contextType = null;
+            TrackItem item = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                empty = false;
+                switch (field) {
+                    case "is_playing" -> isPlaying = p.currentToken() == JsonToken.VALUE_TRUE;
+                    case "progress_ms" -> progressMs = p.currentToken() == JsonToken.VALUE_NULL ? 0 : p.getIntValue();
+                    case "context" -> contextType = readContextType(p);
+                    case "item" -> item = p.currentToken() == JsonToken.START_OBJECT ? readTrack(p) : null;
+                    default -> p.skipChildren();
+                }
+            }
+            if (empty) return Optional.empty();
+            return Optional.of(new CurrentlyPlaying(isPlaying, progressMs, contextType,
+                    item == null ? null : item.track(), item == null || item.popularity() == null ? 0 : item.popularity()));
+        }
+    }
+
+    // Only is_playing, progress_ms and the item's id and duration are read, everything else is skipped token by token.
+    public Optional<CurrentlyPlayingView> scanCurrentlyPlaying(byte[] body) throws IOException {
+        try (JsonParser p = jsonFactory.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return Optional.empty();
+            boolean empty = true;
+            boolean isPlaying = false;
+            int progressMs = 0;
+            String trackId = null;
+            Integer durationMs = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                empty = false;
+                switch (field) {
+                    case "is_playing" -> isPlaying = p.currentToken() == JsonToken.VALUE_TRUE;
+                    case "progress_ms" -> progressMs = p.currentToken() == JsonToken.VALUE_NULL ? 0 : p.getIntValue();
+                    case "item" -> {
+                        if (p.currentToken() != JsonToken.START_OBJECT) continue;
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String itemField = p.currentName();
+                            p.nextToken();
+                            switch (itemField) {
+                                case "id" -> trackId = text(p);
+                                case "duration_ms" -> durationMs = integer(p);
+                                default -> p.skipChildren();
+                            }
+                        }
+                    }
+                    default -> p.skipChildren();
+                }
+            }
+            if (empty) return Optional.empty();
+            return Optional.of(new CurrentlyPlayingView(isPlaying, progressMs, trackId, durationMs,
+                    () -> decodeCurrentlyPlaying(new ByteArrayInputStream(body)).orElseThrow()));
+        }
+    }
+
+    public List<AvailableDevice> decodeDevices(InputStream body) throws IOException {
+        List<AvailableDevice> devices = new ArrayList<>();
+        try (JsonParser p = jsonFactory.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return devices;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                if (field.equals("devices") && p.currentToken() == JsonToken.START_ARRAY) {
+                    while (p.nextToken() == JsonToken.START_OBJECT) {
+                        devices.add(readDevice(p));
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return devices;
+    }
+
+    public List<Artist> decodeArtists(InputStream body, Instant updatedAt) throws IOException {
+        List<Artist> artists = new ArrayList<>();
+        try (JsonParser p = jsonFactory.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return artists;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                if (field.equals("artists") && p.currentToken() == JsonToken.START_ARRAY) {
+                    JsonToken token;
+                    while ((token = p.nextToken()) != JsonToken.END_ARRAY) {
+                        // Spotify answers unknown ids with null entries
+                        if (token == JsonToken.START_OBJECT) artists.add(readArtist(p, updatedAt));
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return artists;
+    }
+
+    // Reads error.message from an error body, falling back when the body is not the usual error object.
+    public String decodeErrorMessage(InputStream body) throws IOException {
+        try (JsonParser p = jsonFactory.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return "Unknown error";
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                if (field.equals("error") && p.currentToken() == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String errorField = p.currentName();
+                        p.nextToken();
+                        if (errorField.equals("message") && p.currentToken() == JsonToken.VALUE_STRING) return p.getText();
+                        p.skipChildren();
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return "Unknown error";
+    }
+
+    private record TrackItem(Track track, Integer popularity) {}
+
+    private static String readContextType(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) return null;
+        String type = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if (field.equals("type")) type = text(p);
+            else p.skipChildren();
+        }
+        return type;
+    }
+
+    private static TrackItem readTrack(JsonParser p) throws IOException {
+        String id = null;
+        String name = null;
+        Album album = null;
+        Integer durationMs = null;
+        boolean explicit = false;
+        boolean local = false;
+        List<Artist> artists = List.of();
+        Integer popularity = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "id" -> id = text(p);
+                case "name" -> name = text(p);
+                case "album" -> album = readAlbum(p);
+                case "duration_ms" -> durationMs = integer(p);
+                case "explicit" -> explicit = p.currentToken() == JsonToken.VALUE_TRUE;
+                case "is_local" -> local = p.currentToken() == JsonToken.VALUE_TRUE;
+                case "artists" -> artists = readArtists(p);
+                case "popularity" -> popularity = integer(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new TrackItem(new Track(id, name, album, durationMs, explicit, local, artists), popularity);
+    }
+
+    private static Album readAlbum(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) return null;
+        String id = null;
+        String name = null;
+        String cover = null;
+        String releaseDate = null;
+        String releaseDatePrecision = null;
+        String type = null;
+        List<Artist> artists = List.of();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "id" -> id = text(p);
+                case "name" -> name = text(p);
+                case "images" -> cover = readFirstImageUrl(p);
+                case "release_date" -> releaseDate = text(p);
+                case "release_date_precision" -> releaseDatePrecision = text(p);
+                case "album_type" -> type = text(p);
+                case "artists" -> artists = readArtists(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new Album(id, name, cover, parseReleaseDate(releaseDate, releaseDatePrecision), releaseDatePrecision, type, artists);
+    }
+
+    private static List<Artist> readArtists(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) return List.of();
+        List<Artist> artists = new ArrayList<>(2);
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            artists.add(readArtist(p, null));
+        }
+        return artists;
+    }
+
+    // Handles both the simplified artists nested in tracks and albums and the full objects from /artists.
+    private static Artist readArtist(JsonParser p, Instant updatedAt) throws IOException {
+        String id = null;
+        String name = null;
+        Integer followers = null;
+        List<String> genres = null;
+        String image = null;
+        Integer popularity = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "id" -> id = text(p);
+                case "name" -> name = text(p);
+                case "followers" -> followers = readFollowers(p);
+                case "genres" -> genres = readStrings(p);
+                case "images" -> image = readFirstImageUrl(p);
+                case "popularity" -> popularity = integer(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new Artist(id, name, followers, genres, image, popularity, updatedAt);
+    }
+
+    private static Integer readFollowers(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) return null;
+        Integer total = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            if (field.equals("total")) total = integer(p);
+            else p.skipChildren();
+        }
+        return total;
+    }
+
+    private static AvailableDevice readDevice(JsonParser p) throws IOException {
+        String name = null;
+        String type = null;
+        boolean active = false;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            p.nextToken();
+            switch (field) {
+                case "name" -> name = text(p);
+                case "type" -> type = text(p);
+                case "is_active" -> active = p.currentToken() == JsonToken.VALUE_TRUE;
+                default -> p.skipChildren();
+            }
+        }
+        return new AvailableDevice(new Device(name, type), active);
+    }
+
+    // Spotify lists images largest first.
+    private static String readFirstImageUrl(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) return null;
+        String url = null;
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                p.nextToken();
+                if (url == null && field.equals("url")) url = text(p);
+                else p.skipChildren();
+            }
+        }
+        return url;
+    }
+
+    private static List<String> readStrings(JsonParser p) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) return null;
+        List<String> values = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            values.add(text(p));
+        }
+        return values;
+    }
+
+    private static String text(JsonParser p) throws IOException {
+        return p.currentToken() == JsonToken.VALUE_NULL ? null : p.getText();
+    }
+
+    private static Integer integer(JsonParser p) throws IOException {
+        return p.currentToken() == JsonToken.VALUE_NULL ? null : p.getIntValue();
+    }
+
+    static LocalDate parseReleaseDate(String releaseDate, String precision) {
+        if (releaseDate == null) return null;
+        if (precision == null) precision = "day";
+        return switch (precision) {
+            case "year" -> LocalDate.of(Integer.parseInt(releaseDate.substring(0, 4)), 1, 1);
+            case "month" -> YearMonth.parse(releaseDate.substring(0, 7)).atDay(1);
+            default -> LocalDate.parse(releaseDate);
+        };
+    }
+}
@@ -16,34 +16,61 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyStore;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// A single account's server only binds the port while it authorises and stops once a code arrives. A shared server,
+// used by every tracked user in multi-user mode, stays up and hands each code to the authorisation whose state
+// parameter it carries, so any number of users can authorise at once on one port and redirect URI.
 public class SpotifyOAuthServer {
     private final Cache cache;
     private final HttpsServer server;
     private final OAuthServerConfig cfg;
+    private final boolean shared;
+    private final Map<String, CompletableFuture<String>> pendingByState = new ConcurrentHashMap<>();
+    private volatile CompletableFuture<String> pendingCode = new CompletableFuture<>();
 
     public SpotifyOAuthServer(Cache cache, OAuthServerConfig cfg) {
+        this(cache, cfg, false);
+    }
+
+    public SpotifyOAuthServer(Cache cache, OAuthServerConfig cfg, boolean shared) {
         this.cache = cache;
         this.cfg = cfg;
+        this.shared = shared;
         try {
-            this.server = HttpsServer.create(new InetSocketAddress(cfg.host(), cfg.port()), 0);
+            // Bound in startServer, so that only a server with an authorisation in progress (or the shared server) holds the port.
+            this.server = HttpsServer.create();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     public SpotifyOAuthServer(Cache cache, OAuthServerConfig cfg, HttpsServer server) {
+        this(cache, cfg, server, false);
+    }
+
+    public SpotifyOAuthServer(Cache cache, OAuthServerConfig cfg, HttpsServer server, boolean shared) {
         this.cache = cache;
         this.cfg = cfg;
         this.server = server;
+        this.shared = shared;
     }
 
     public HttpHandler callbackHandler() { return new CallbackHandler(); }
 
     public void startServer() {
+        if (pendingCode.isDone()) pendingCode = new CompletableFuture<>();
         try {
+            if (server.getAddress() == null) server.bind(new InetSocketAddress(cfg.host(), cfg.port()), 0);
+
             KeyStore ks = KeyStore.getInstance("JKS");
             String keystorePassword = cfg.keystorePassword();
             Path keystorePath = cfg.keystorePath();
@@ -83,7 +110,7 @@ public class SpotifyOAuthServer {
             Logger.println("HTTPS Server started on https://" + server.getAddress() + ":" + server.getAddress().getPort() + "/callback", 1);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Logger.log("SpotifyOAuthServer: Failed to start HTTPS server", e);
             throw new RuntimeException("Failed to start HTTPS server", e);
         }
     }
@@ -95,6 +122,33 @@ public class SpotifyOAuthServer {
     }
 
 
+    // Registers an authorisation on a shared server. The future completes with the code sent back with this state,
+    // and the caller forgets the state once it stops waiting.
+    public CompletableFuture<String> expect(String state) {
+        if (!shared) throw new IllegalStateException("Only a shared callback server routes codes by state");
+        CompletableFuture<String> code = new CompletableFuture<>();
+        pendingByState.put(state, code);
+        return code;
+    }
+
+    public void forget(String state) {
+        pendingByState.remove(state);
+    }
+
+    // Waits up to timeout for the callback to deliver a code, empty if none arrived in time.
+    public Optional<String> awaitCode(Duration timeout) {
+        try {
+            return Optional.of(pendingCode.get(timeout.toNanos(), TimeUnit.NANOSECONDS));
+        } catch (TimeoutException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     public int getPort() {
         return server.getAddress().getPort();
     }
@@ -134,10 +188,15 @@ public class SpotifyOAuthServer {
 
             String code = params.get("code");
             String state = params.get("state");
+            if (shared) {
+                route(exchange, code, state, params.get("error"));
+                return;
+            }
 
             Logger.println("Code has been retrieved!", 3);
             if (code != null) {
                 Logger.println("code: " + code, 3);
+                pendingCode.complete(code);
                 String OAUTH_FILENAME = "oauth_code.txt";
                 cache.write(OAUTH_FILENAME, code.getBytes(StandardCharsets.UTF_8));
             }
@@ -154,6 +213,28 @@ public class SpotifyOAuthServer {
         }
     }
 
+    // A code only ever goes to the authorisation that asked for it, and the shared server keeps running afterwards.
+    private void route(HttpExchange exchange, String code, String state, String error) throws IOException {
+        CompletableFuture<String> pending = state == null ? null : pendingByState.remove(state);
+        if (pending == null) {
+            respond(exchange, 400, "Unknown or expired authorisation, start again from a new link.");
+        } else if (code == null) {
+            pending.completeExceptionally(new SpotifyAuthenticationException(-1, "Authorisation refused: " + error));
+            respond(exchange, 200, "Authorisation refused.");
+        } else {
+            pending.complete(code);
+            respond(exchange, 200, "Authorisation received, this page can be closed.");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String response) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
     private static Map<String, String> queryToMap(String query) {
         Map<String, String> result = new HashMap<>();
         if (query != null) {
@@ -1,132 +1,185 @@
 package com.pugking4.spotifystat.tracker;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pugking4.spotifystat.common.dto.Artist;
 import com.pugking4.spotifystat.common.logging.Logger;
 import org.apache.http.client.utils.URIBuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+
 public class SpotifyWrapper {
     private final HttpClient httpClient;
-    private final ObjectMapper objectMapper;
+    private final SpotifyJsonDecoder jsonDecoder;
     private final TokenManager tokenManager;
-    private static final int MAX_ARTIST_BATCH_SIZE = 50;
+    private final String apiBase;
+    private final RequestGovernor governor;
+    public static final int MAX_ARTIST_BATCH_SIZE = 50;
+    public static final String DEFAULT_API_BASE = "https://api.spotify.com/v1";
+    public static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
 
     public SpotifyWrapper(HttpClient httpClient, ObjectMapper objectMapper, TokenManager tokenManager) {
+        this(httpClient, objectMapper, tokenManager, DEFAULT_API_BASE);
+    }
+
+    // apiBase points every request at another host, such as a local stub in load tests.
+    public SpotifyWrapper(HttpClient httpClient, ObjectMapper objectMapper, TokenManager tokenManager, String apiBase) {
+        this(httpClient, objectMapper, tokenManager, apiBase, RequestGovernor.unlimited());
+    }
+
+    // Wrappers for different users should share one governor, the rate limit is per app.
+    public SpotifyWrapper(HttpClient httpClient, ObjectMapper objectMapper, TokenManager tokenManager, String apiBase, RequestGovernor governor) {
         this.httpClient = httpClient;
-        this.objectMapper = objectMapper;
+        this.jsonDecoder = new SpotifyJsonDecoder(objectMapper.getFactory());
         this.tokenManager = tokenManager;
+        this.apiBase = apiBase;
+        this.governor = governor;
     }
 
-    public Map<String, Object> getCurrentlyPlayingTrack() {
+    public RequestGovernor governor() {
+        return governor;
+    }
+
+    public Optional<CurrentlyPlaying> getCurrentlyPlayingTrack() {
+        return getCurrentlyPlaying().map(CurrentlyPlayingView::full);
+    }
+
+    // Scans only the playback fields, the full track is decoded from the retained body on demand.
+    public Optional<CurrentlyPlayingView> getCurrentlyPlaying() {
         try {
-            URI currentPlayingURI = new URIBuilder("https://api.spotify.com/v1/me/player/currently-playing").build();
-            HttpRequest currentPlayingRequest = HttpRequest.newBuilder(currentPlayingURI)
-                    .header("Authorization", "Bearer " + tokenManager.getAccessToken())
-                    .GET()
-                    .build();
+            URI currentPlayingURI = new URIBuilder(apiBase + "/me/player/currently-playing").build();
             Logger.println("Sending request.", 4);
-            HttpResponse<String> response = httpClient.send(currentPlayingRequest, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<InputStream> response = send(currentPlayingURI, SpotifyEndpoint.CURRENTLY_PLAYING);
             Logger.println("Got response.", 4);
-            String json = bodyOrEmptyJson(response);
-            Map<String, Object> results = objectMapper.readValue(json, Map.class);
-
-            Logger.println("Checking for errors.", 4);
-            checkHTTPErrors(results, response.statusCode());
-            Logger.println("No errors found.", 4);
-            Logger.println("Returning results.", 4);
-            return results;
+            try (InputStream body = response.body()) {
+                Logger.println("Checking for errors.", 4);
+                checkHTTPErrors(SpotifyEndpoint.CURRENTLY_PLAYING, response, body);
+                Logger.println("No errors found.", 4);
+                if (response.statusCode() == 204) return Optional.empty();
+                return jsonDecoder.scanCurrentlyPlaying(body.readAllBytes());
+            }
         } catch (URISyntaxException | InterruptedException | IOException e) {
             throw new SpotifyApiException(-1, "Network failure: " + e.getMessage());
         }
     }
 
-    private void checkHTTPErrors(Map<String, Object> map, int statusCode) {
-        switch (statusCode) {
-            case 200, 204 -> { return; }
-            case 400, 401, 403, 404, 429 -> { }
-            default -> throw new SpotifyApiException(statusCode, "Unexpected status: " + statusCode);
-        }
-
-        Map<String, Object> errorMap = (Map<String, Object>) map.get("error");
-        String message = (String) errorMap.getOrDefault("message", "Unknown error");
-
-        throw new SpotifyApiException(statusCode, message);
-    }
-
-    public List<Map<String, Object>> getAvailableDevices() {
+    // An endpoint that is backing off fails here, before it takes a token or touches the network. Once permitted,
+    // every way out reports the request to the backoff or releases it, so a probe cannot leave the endpoint half open.
+    // A response is reported by checkHTTPErrors.
+    private HttpResponse<InputStream> send(URI uri, SpotifyEndpoint endpoint) throws IOException, InterruptedException {
+        governor.backoff().permit(endpoint);
+        boolean reported = false;
         try {
-            URI availableDevicesURI = new URIBuilder("https://api.spotify.com/v1/me/player/devices").build();
-            HttpRequest availableDevicesRequest = HttpRequest.newBuilder(availableDevicesURI)
+            governor.acquire(endpoint);
+            HttpRequest request = HttpRequest.newBuilder(uri)
                     .header("Authorization", "Bearer " + tokenManager.getAccessToken())
+                    .timeout(REQUEST_TIMEOUT)
                     .GET()
                     .build();
+            try {
+                HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                reported = true;
+                return response;
+            } catch (IOException e) {
+                governor.backoff().failed(endpoint, new SpotifyApiException(-1, "Network failure: " + e.getMessage()));
+                reported = true;
+                throw e;
+            }
+        } finally {
+            if (!reported) governor.backoff().release(endpoint);
+        }
+    }
 
-            HttpResponse<String> response = httpClient.send(availableDevicesRequest, HttpResponse.BodyHandlers.ofString());
-            String json = bodyOrEmptyJson(response);
-            Map<String, Object> results = objectMapper.readValue(json, Map.class);
-            checkHTTPErrors(results, response.statusCode());
+    private void checkHTTPErrors(SpotifyEndpoint endpoint, HttpResponse<InputStream> response, InputStream body) throws IOException {
+        int statusCode = response.statusCode();
+        SpotifyApiException error;
+        try {
+            error = switch (statusCode) {
+                case 200, 204 -> null;
+                case 400, 401, 403, 404, 429 -> new SpotifyApiException(statusCode, jsonDecoder.decodeErrorMessage(body), retryAfter(response));
+                default -> statusCode >= 500
+                        ? new SpotifyApiException(statusCode, "Server error: " + statusCode, retryAfter(response))
+                        : new SpotifyApiException(statusCode, "Unexpected status: " + statusCode);
+            };
+        } catch (IOException | RuntimeException e) {
+            // An error body that cannot be read still reports the status.
+            governor.backoff().failed(endpoint, new SpotifyApiException(statusCode, "Unreadable error response: " + statusCode));
+            throw e;
+        }
+        if (error == null) {
+            governor.backoff().succeeded(endpoint);
+            return;
+        }
+        // The backoff goes on the exception too, so the scheduler holds the task back even without a Retry-After.
+        Duration backoff = governor.backoff().failed(endpoint, error);
+        throw backoff == null || error.getRetryAfter().isPresent() ? error : new SpotifyApiException(statusCode, error.getMessage(), backoff);
+    }
 
-            List<Map<String, Object>> devices = (List<Map<String, Object>>) results.getOrDefault("devices", List.of());
+    // Spotify sends whole seconds, but the header may also be an HTTP date.
+    private static Duration retryAfter(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration untilDate = Duration.between(Instant.now(), ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return untilDate.isNegative() ? Duration.ZERO : untilDate;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
 
-            return devices;
+    public List<AvailableDevice> getAvailableDevices() {
+        try {
+            URI availableDevicesURI = new URIBuilder(apiBase + "/me/player/devices").build();
+            HttpResponse<InputStream> response = send(availableDevicesURI, SpotifyEndpoint.DEVICES);
+            try (InputStream body = response.body()) {
+                checkHTTPErrors(SpotifyEndpoint.DEVICES, response, body);
+                return jsonDecoder.decodeDevices(body);
+            }
         } catch (URISyntaxException | IOException | InterruptedException e) {
             throw new SpotifyApiException(-1, "Network failure: " + e.getMessage());
         }
     }
 
-    public List<Map<String, Object>> getBatchArtists(List<String> ids) {
-        StringBuilder idArgument = new StringBuilder();
-        for (int i = 0; i < Math.clamp(ids.size(), 0, MAX_ARTIST_BATCH_SIZE); i++) {
-            idArgument.append(ids.get(i)).append(",");
+    // Callers split larger lists themselves, silently dropping the rest would leave those artists stale.
+    public List<Artist> getBatchArtists(List<String> ids) {
+        if (ids.isEmpty() || ids.size() > MAX_ARTIST_BATCH_SIZE) {
+            throw new IllegalArgumentException("Artist batches must hold 1 to " + MAX_ARTIST_BATCH_SIZE + " ids: " + ids.size());
         }
-        idArgument.deleteCharAt(idArgument.length() - 1);
 
         try {
-            URI artistsURI = new URIBuilder("https://api.spotify.com/v1/artists")
-                    .setParameter("ids", idArgument.toString())
-                    .build();
-            HttpRequest artistsRequest = HttpRequest.newBuilder(artistsURI)
-                    .header("Authorization", "Bearer " + tokenManager.getAccessToken())
-                    .GET()
+            URI artistsURI = new URIBuilder(apiBase + "/artists")
+                    .setParameter("ids", String.join(",", ids))
                     .build();
             Logger.println("Sending request.", 4);
-            HttpResponse<String> response = httpClient.send(artistsRequest, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<InputStream> response = send(artistsURI, SpotifyEndpoint.ARTISTS);
             Logger.println("Got response.", 4);
-            String json = bodyOrEmptyJson(response);
-            Map<String, Object> results = objectMapper.readValue(json, Map.class);
-            Logger.println("Response is non empty.", 4);
-            Logger.println(json, 5);
-
-
-            Logger.println("Checking for errors.", 4);
-            checkHTTPErrors(results, response.statusCode());
-            Logger.println("No errors found.", 4);
-
-            List<Map<String, Object>> artists = (List<Map<String, Object>>) results.get("artists");
-            for (Map<String, Object> artist : artists) {
-                artist.put("updated_at", Instant.now());
+            try (InputStream body = response.body()) {
+                Logger.println("Checking for errors.", 4);
+                checkHTTPErrors(SpotifyEndpoint.ARTISTS, response, body);
+                Logger.println("No errors found.", 4);
+                List<Artist> artists = jsonDecoder.decodeArtists(body, Instant.now());
+                Logger.println("Finished.", 4);
+                return artists;
             }
-
-            Logger.println("Finished.", 4);
-            return artists;
         } catch (URISyntaxException | InterruptedException | IOException e) {
             Logger.log("not sure", e);
             throw new RuntimeException(e);
         }
     }
-
-    private String bodyOrEmptyJson(HttpResponse<String> response) {
-        String body = response.body();
-        return (body == null || body.isBlank()) ? "{}" : body;
-    }
-
 }
-
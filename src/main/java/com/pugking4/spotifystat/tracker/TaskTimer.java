@@ -0,0 +1,31 @@
+package com.pugking4.spotifystat.tracker;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// The one-shot timer the Scheduler runs on. Either a ScheduledExecutorService or a HashedWheelTimer.
+public interface TaskTimer {
+    @FunctionalInterface
+    interface Timeout {
+        boolean cancel(boolean mayInterruptIfRunning);
+    }
+
+    // Throws RejectedExecutionException once the timer is shut down.
+    Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+    void shutdown();
+
+    static TaskTimer of(ScheduledExecutorService executor) {
+        return new TaskTimer() {
+            @Override
+            public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+                return executor.schedule(task, delay, unit)::cancel;
+            }
+
+            @Override
+            public void shutdown() {
+                executor.shutdown();
+            }
+        };
+    }
+}
@@ -12,39 +12,62 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // https://refactoring.guru/design-patterns/singleton/java/example#example-2
 public class TokenManager {
     private static volatile TokenManager instance;
-    private static final Object LOCK = new Object();
+    private static final Duration REFRESH_MARGIN = Duration.ofMinutes(5);
+    private static final Duration MIN_REFRESH_DELAY = Duration.ofSeconds(1);
+    private static final int MAX_BACKOFF_DOUBLINGS = 16;
+
+    private final Object refreshLock = new Object();
+    private final AtomicInteger failedRefreshes = new AtomicInteger();
 
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
     private final Cache cache;
     private final SpotifyOAuthServer oAuthServer;
-    private final Sleeper sleeper;
     private final long pollDelayMs;
 
     private final TokenManagerConfig cfg;
+    private final Clock clock;
+    // Set for a tracked user in multi-user mode, null for the account authorised through getInstance().
+    private final String userId;
+
+    // The access token and its expiry are published together so a reader never pairs a new token with an old expiry.
+    public record AccessToken(String value, Instant expiry) {
+        boolean isValidAt(Instant now) {
+            return value != null && now.isBefore(expiry);
+        }
+    }
 
-    private volatile String accessToken;
-    private volatile Instant accessTokenExpiry = Instant.now();
+    private volatile AccessToken accessToken;
     private volatile String refreshToken;
 
     private static final String REFRESH_TOKEN_FILENAME = "refresh_token.txt";
     private static final String OAUTH_CODE_FILENAME = "oauth_code.txt";
 
-    private TokenManager(HttpClient httpClient, ObjectMapper objectMapper, Cache cache, TokenManagerConfig cfg, SpotifyOAuthServer oAuthServer, Sleeper sleeper, long pollDelayMs) {
+    private TokenManager(HttpClient httpClient, ObjectMapper objectMapper, Cache cache, TokenManagerConfig cfg, SpotifyOAuthServer oAuthServer, long pollDelayMs, Clock clock,
+                         String userId) {
         this.httpClient = httpClient;
         this.objectMapper = objectMapper;
         this.cache = cache;
         this.cfg = cfg;
+        this.clock = clock;
+        this.accessToken = new AccessToken(null, clock.instant());
         this.refreshToken = readRefreshToken();
         this.oAuthServer = oAuthServer;
-        this.sleeper = sleeper;
         this.pollDelayMs = pollDelayMs;
+        this.userId = userId;
 
         if (this.refreshToken.isEmpty()) {
             NewTokens newTokens = startAuthorisationWorkflow();
@@ -53,13 +76,78 @@ public class TokenManager {
         }
     }
 
-    public static TokenManager create(HttpClient client, ObjectMapper mapper, Cache cache, TokenManagerConfig cfg, SpotifyOAuthServer oAuthServer, Sleeper sleeper, long pollDelayMs) {
-        return new TokenManager(client, mapper, cache, cfg, oAuthServer, sleeper, pollDelayMs);
+    public static TokenManager create(HttpClient client, ObjectMapper mapper, Cache cache, TokenManagerConfig cfg, SpotifyOAuthServer oAuthServer, long pollDelayMs) {
+        return create(client, mapper, cache, cfg, oAuthServer, pollDelayMs, Clock.systemUTC());
+    }
+
+    public static TokenManager create(HttpClient client, ObjectMapper mapper, Cache cache, TokenManagerConfig cfg, SpotifyOAuthServer oAuthServer, long pollDelayMs, Clock clock) {
+        return create(client, mapper, cache, cfg, oAuthServer, pollDelayMs, clock, null);
+    }
+
+    public static TokenManager create(HttpClient client, ObjectMapper mapper, Cache cache, TokenManagerConfig cfg, SpotifyOAuthServer oAuthServer, long pollDelayMs, Clock clock,
+                                      String userId) {
+        return new TokenManager(client, mapper, cache, cfg, oAuthServer, pollDelayMs, clock, userId);
+    }
+
+    // Renews the access token REFRESH_MARGIN before it expires so pollers never wait on a refresh themselves.
+    public ScheduledTaskSpecification spec() {
+        return new ScheduledTaskSpecification(
+                "Token Refresher",
+                this::refreshIfDue,
+                DelayType.FIXED_DELAY,
+                Duration.ZERO,
+                this::untilRefreshDue
+        );
+    }
+
+    private Instant refreshDueAt() {
+        return accessToken.expiry().minus(REFRESH_MARGIN);
+    }
+
+    // Failed refreshes back off exponentially from MIN_REFRESH_DELAY up to REFRESH_MARGIN rather than retrying every second.
+    private Duration untilRefreshDue() {
+        int failures = failedRefreshes.get();
+        if (failures > 0) {
+            Duration backoff = MIN_REFRESH_DELAY.multipliedBy(1L << Math.min(failures, MAX_BACKOFF_DOUBLINGS));
+            return backoff.compareTo(REFRESH_MARGIN) > 0 ? REFRESH_MARGIN : backoff;
+        }
+        Duration delay = Duration.between(clock.instant(), refreshDueAt());
+        return delay.compareTo(MIN_REFRESH_DELAY) < 0 ? MIN_REFRESH_DELAY : delay;
+    }
+
+    private void refreshIfDue() {
+        AccessToken current = accessToken;
+        if (current.value() != null && clock.instant().isBefore(refreshDueAt())) return;
+        try {
+            refresh(current);
+        } catch (RuntimeException e) {
+            failedRefreshes.incrementAndGet();
+            throw e;
+        }
+        Logger.println("TokenManager: Refreshed access token ahead of expiry.", 4);
+    }
+
+    // True once a tracked user's refresh token has been rejected; only a new authorisation can bring them back.
+    public boolean needsAuthorisation() {
+        return refreshToken.isEmpty();
+    }
+
+    public AccessToken currentAccessToken() {
+        return accessToken;
+    }
+
+    // Takes over a token saved by an earlier run if it is still valid and outlives the one held, saving a refresh.
+    public void restoreAccessToken(AccessToken saved) {
+        synchronized (refreshLock) {
+            AccessToken current = accessToken;
+            if (!saved.isValidAt(clock.instant())) return;
+            if (current.value() != null && !saved.expiry().isAfter(current.expiry())) return;
+            accessToken = saved;
+        }
     }
 
     private void setAccessToken(String accessToken, Instant expiry) {
-        this.accessToken = accessToken;
-        this.accessTokenExpiry = expiry;
+        this.accessToken = new AccessToken(accessToken, expiry);
     }
 
     private void setRefreshToken(String refreshToken) {
@@ -72,13 +160,14 @@ public class TokenManager {
 
     }
 
-    private String getAuthorisationURI() {
+    private String getAuthorisationURI(String state) {
         try {
             URIBuilder authURIBuilder = new URIBuilder("https://accounts.spotify.com/authorize")
                     .setParameter("client_id", cfg.clientId())
                     .setParameter("response_type", "code")
                     .setParameter("redirect_uri", cfg.redirectUri())
                     .setParameter("scope", "user-read-currently-playing user-read-playback-state");
+            if (state != null) authURIBuilder.setParameter("state", state);
 
             URI authURI = authURIBuilder.build();
 
@@ -90,20 +179,46 @@ public class TokenManager {
     }
 
     private NewTokens startAuthorisationWorkflow() {
+        if (userId != null) return requestTokens(awaitRoutedCode());
         oAuthServer.startServer();
-        Logger.println(getAuthorisationURI(), 1);
+        Logger.println(getAuthorisationURI(null), 1);
+        return requestTokens(awaitOAuthCode());
+    }
+
+    // A tracked user authorises through the shared callback server, which hands over the code sent back with this
+    // authorisation's state, so users can authorise at the same time. Interrupting the waiting thread abandons it.
+    private String awaitRoutedCode() {
+        String state = UUID.randomUUID().toString();
+        CompletableFuture<String> code = oAuthServer.expect(state);
+        try {
+            Logger.println("Authorise user " + userId + ": " + getAuthorisationURI(state), 1);
+            return code.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpotifyAuthenticationException(-1, "Authorisation abandoned before a code arrived");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SpotifyAuthenticationException authenticationException) throw authenticationException;
+            throw new SpotifyAuthenticationException(-1, e.getCause().getMessage());
+        } finally {
+            oAuthServer.forget(state);
+        }
+    }
+
+    // The callback handler hands the code over in-process as soon as it arrives. The code file is still checked
+    // between waits so a code delivered by another process is picked up too. Interrupting the waiting thread
+    // abandons the authorisation and frees the callback port.
+    private String awaitOAuthCode() {
         String code = readOAuthCode();
         while (code.isEmpty()) {
-            try {
-                sleeper.sleep(pollDelayMs);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+            if (Thread.currentThread().isInterrupted()) {
+                oAuthServer.stopServer();
+                throw new SpotifyAuthenticationException(-1, "Authorisation abandoned before a code arrived");
             }
-
+            Optional<String> received = oAuthServer.awaitCode(Duration.ofMillis(pollDelayMs));
+            if (received.isPresent()) return received.get();
             code = readOAuthCode();
         }
-
-        return requestTokens(code);
+        return code;
     }
 
     private NewTokens requestTokens(String code) {
@@ -120,6 +235,7 @@ public class TokenManager {
                     .header("Authorization", "Basic " + cfg.authorisationHeaderValue())
                     .header("Content-Type", "application/x-www-form-urlencoded")
                     .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .timeout(SpotifyWrapper.REQUEST_TIMEOUT)
                     .build();
 
 
@@ -134,7 +250,7 @@ public class TokenManager {
 
 
             String accessToken = (String) tokenResponse.get("access_token");
-            Instant accessTokenExpiry = Instant.now().plusMillis((Integer) tokenResponse.get("expires_in"));
+            Instant accessTokenExpiry = clock.instant().plusSeconds((Integer) tokenResponse.get("expires_in"));
             String refreshToken = (String) tokenResponse.get("refresh_token");
             Logger.println("Gotten new refresh token: " + refreshToken);
             return new NewTokens(accessToken, refreshToken, accessTokenExpiry);
@@ -155,6 +271,7 @@ public class TokenManager {
                     .header("Authorization", "Basic " + cfg.authorisationHeaderValue())
                     .header("Content-Type", "application/x-www-form-urlencoded")
                     .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .timeout(SpotifyWrapper.REQUEST_TIMEOUT)
                     .build();
 
 
@@ -162,6 +279,14 @@ public class TokenManager {
             Map<String, Object> tokenResponse = objectMapper.readValue(response.body(), Map.class);
 
             if (tokenResponse.containsKey("error")) {
+                // A tracked user is never authorised inline: that would hold refreshLock, and every poller waiting on
+                // it, until the user happened to approve. The user is handed back to MultiUserTracker instead.
+                if (userId != null && response.statusCode() == 400) {
+                    Logger.println("TokenManager: Refresh token for user " + userId + " was rejected, they need to authorise again.", 2);
+                    setRefreshToken("");
+                    throw new SpotifyAuthenticationException(400, "Refresh token rejected for user " + userId);
+                }
+                if (userId != null) throw new SpotifyAuthenticationException(response.statusCode(), "Token refresh failed for user " + userId);
                 Logger.println("Refresh token invalid, need full authorization: " + tokenResponse.get("error_description"));
                 return startAuthorisationWorkflow();
             }
@@ -171,7 +296,7 @@ public class TokenManager {
             }
             int expirySeconds = (Integer) tokenResponse.get("expires_in");
             String accessToken = (String) tokenResponse.get("access_token");
-            return new NewTokens(accessToken, refreshToken, Instant.now().plusSeconds(expirySeconds));
+            return new NewTokens(accessToken, refreshToken, clock.instant().plusSeconds(expirySeconds));
 
         } catch (IOException | InterruptedException e) {
             throw new SpotifyAuthenticationException(-1, e.getMessage());
@@ -211,28 +336,61 @@ public class TokenManager {
 
     @ExcludeFromJacocoGeneratedReport
     private static TokenManager createInstance() {
+        return createWithCache(new FileCache(), HttpClient.newBuilder().build(), new ObjectMapper(), null, null);
+    }
+
+    // Each user keeps their tokens in files prefixed with their id, and every user authorises through the one shared
+    // callback server.
+    @ExcludeFromJacocoGeneratedReport
+    public static TokenManager createForUser(String userId, HttpClient client, ObjectMapper mapper, SpotifyOAuthServer sharedServer) {
+        return createWithCache(new PrefixedCache(new FileCache(), userId + "_"), client, mapper, sharedServer, userId);
+    }
+
+    // The callback server for multi-user mode, started once and left running.
+    @ExcludeFromJacocoGeneratedReport
+    public static SpotifyOAuthServer createSharedServer() {
+        SpotifyOAuthServer server = new SpotifyOAuthServer(new FileCache(), oAuthServerConfig(Dotenv.load()), true);
+        server.startServer();
+        return server;
+    }
+
+    @ExcludeFromJacocoGeneratedReport
+    private static OAuthServerConfig oAuthServerConfig(Dotenv dotenv) {
+        return new OAuthServerConfig(dotenv.get("HOST"), Integer.parseInt(dotenv.get("PORT")), dotenv.get("KEYSTORE_PASSWORD"));
+    }
+
+    @ExcludeFromJacocoGeneratedReport
+    private static TokenManager createWithCache(Cache cache, HttpClient client, ObjectMapper mapper, SpotifyOAuthServer oAuthServer, String userId) {
         Dotenv dotenv = Dotenv.load();
         return new TokenManager(
-                HttpClient.newBuilder().build(),
-                new ObjectMapper(),
-                new FileCache(),
+                client,
+                mapper,
+                cache,
                 new TokenManagerConfig(dotenv.get("CLIENT_ID"), dotenv.get("CLIENT_SECRET"), dotenv.get("REDIRECT_URI")),
-                new SpotifyOAuthServer(
-                        new FileCache(),
-                        new OAuthServerConfig(dotenv.get("HOST"), Integer.parseInt(dotenv.get("PORT")), dotenv.get("KEYSTORE_PASSWORD"))
-                ),
-                Thread::sleep,
-                10000
+                oAuthServer != null ? oAuthServer : new SpotifyOAuthServer(cache, oAuthServerConfig(dotenv)),
+                10000,
+                Clock.systemUTC(),
+                userId
         );
     }
 
+    // A valid token is a single volatile read. Callers that find it expired queue on one refresh: the first
+    // does the request and the rest pick up its result instead of refreshing again.
     public String getAccessToken() {
-        synchronized (LOCK) {
-            if (Instant.now().isAfter(accessTokenExpiry) || accessToken == null) {
-                NewTokens newTokens = refreshAccessToken();
-                setAccessToken(newTokens.accessToken(), newTokens.expiry());
-                setRefreshToken(newTokens.refreshToken());
-            }
+        AccessToken current = accessToken;
+        if (current.isValidAt(clock.instant())) return current.value();
+        AccessToken refreshed = refresh(current);
+        return refreshed.value();
+    }
+
+    private AccessToken refresh(AccessToken seen) {
+        synchronized (refreshLock) {
+            AccessToken current = accessToken;
+            if (current != seen && current.isValidAt(clock.instant())) return current;
+            NewTokens newTokens = refreshAccessToken();
+            setAccessToken(newTokens.accessToken(), newTokens.expiry());
+            setRefreshToken(newTokens.refreshToken());
+            failedRefreshes.set(0);
             return accessToken;
         }
     }
@@ -1,27 +1,58 @@
 package com.pugking4.spotifystat.tracker;
 
+import com.pugking4.spotifystat.common.dto.Device;
 import com.pugking4.spotifystat.common.dto.PlayedTrack;
 import com.pugking4.spotifystat.common.logging.Logger;
 
 import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class TrackingPoller {
     private static final int ACTIVE = 5;
     private static final int IDLE = 15;
+    // A poll makes at most two API requests, each waiting on the governor, plus a token refresh.
+    public static final Duration POLL_TIMEOUT = SpotifyWrapper.REQUEST_TIMEOUT.multipliedBy(3).plus(RequestGovernor.MAX_WAIT.multipliedBy(2));
 
-    private volatile int delaySeconds = IDLE;
+    private volatile Duration delay = Duration.ofSeconds(IDLE);
     private volatile boolean activeMode = false;
 
     private final SpotifyWrapper spotifyWrapper;
-    private final DatabaseWrapper databaseWrapper;
+    private final PlayRecorder playRecorder;
+    private final PollPredictionConfig prediction;
+    private final IdleBackoffPolicy idleBackoff;
+
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong activePolls = new AtomicLong();
+    private final AtomicLong activeMillis = new AtomicLong();
+    private final AtomicLong idlePolls = new AtomicLong();
+    private final AtomicLong idleMillis = new AtomicLong();
 
     private PlayingTrack currentTrack;
+    private volatile PlaybackCheckpoint checkpoint;
 
     public TrackingPoller(SpotifyWrapper spotifyWrapper, DatabaseWrapper databaseWrapper) {
+        this(spotifyWrapper, databaseWrapper::insertPlayedTrack);
+    }
+
+    public TrackingPoller(SpotifyWrapper spotifyWrapper, PlayRecorder playRecorder) {
+        this(spotifyWrapper, playRecorder, null);
+    }
+
+    // With a prediction config the poller sleeps until the track should cross the played threshold or end instead of
+    // polling on the fixed active cadence. A null config keeps the fixed cadence.
+    public TrackingPoller(SpotifyWrapper spotifyWrapper, PlayRecorder playRecorder, PollPredictionConfig prediction) {
+        this(spotifyWrapper, playRecorder, prediction, null);
+    }
+
+    // A null idle policy keeps the fixed idle cadence.
+    public TrackingPoller(SpotifyWrapper spotifyWrapper, PlayRecorder playRecorder, PollPredictionConfig prediction, IdleBackoffPolicy idleBackoff) {
         this.spotifyWrapper = spotifyWrapper;
-        this.databaseWrapper = databaseWrapper;
+        this.playRecorder = playRecorder;
+        this.prediction = prediction;
+        this.idleBackoff = idleBackoff;
     }
 
     public ScheduledTaskSpecification spec() {
@@ -30,94 +61,158 @@ public final class TrackingPoller {
                 this::run,
                 DelayType.FIXED_RATE,
                 Duration.ZERO,
-                () -> Duration.ofSeconds(delaySeconds)
+                () -> delay
         );
     }
 
+    public PollMetrics metrics() {
+        return new PollMetrics(polls.get(), activePolls.get(), activeMillis.get() / Duration.ofSeconds(ACTIVE).toMillis(),
+                idlePolls.get(), idleMillis.get() / Duration.ofSeconds(IDLE).toMillis());
+    }
+
+    // Taken at the end of every poll so it can be read from other threads.
+    public Optional<PlaybackCheckpoint> checkpoint() {
+        return Optional.ofNullable(checkpoint);
+    }
+
+    // Picks up a track another poller was following. Must not run concurrently with a poll.
+    public void restore(PlaybackCheckpoint restored) {
+        if (restored.isStale(Instant.now())) {
+            Logger.println("TrackingPoller: Ignoring checkpoint of a track that has since ended.", 3);
+            return;
+        }
+        currentTrack = PlayingTrack.restore(restored);
+        checkpoint = restored;
+        setActiveMode();
+        Logger.println("TrackingPoller: Restored checkpoint of track " + restored.trackId() + ".", 3);
+    }
+
     private void run() {
+        try {
+            track();
+        } finally {
+            checkpoint = currentTrack == null ? null : currentTrack.checkpoint(Instant.now());
+        }
+    }
+
+    private void track() {
+        polls.incrementAndGet();
         var trackData = poll();
-        if (trackData.isEmpty()) return;
-        setMode(trackData);
-        handleTrackData(trackData);
+        if (trackData.isEmpty()) {
+            setIdleMode();
+            scheduleIdlePoll();
+            return;
+        }
+        setMode(trackData.get());
+        handleTrackData(trackData.get());
+        if (activeMode) {
+            if (prediction != null) delay = predictDelay(trackData.get());
+            activePolls.incrementAndGet();
+            activeMillis.addAndGet(delay.toMillis());
+        } else {
+            scheduleIdlePoll();
+        }
+    }
+
+    private void scheduleIdlePoll() {
+        if (idleBackoff != null) delay = idleBackoff.nextDelay();
+        idlePolls.incrementAndGet();
+        idleMillis.addAndGet(delay.toMillis());
+    }
+
+    // Aims the next poll just past the played threshold of the current track, or past its end once it has been
+    // recorded, never sleeping longer than the sparse interval so skips and seeks are still seen.
+    private Duration predictDelay(CurrentlyPlayingView trackData) {
+        long untilNext;
+        if (currentTrack != null) {
+            untilNext = currentTrack.millisUntilPlayed().orElse(currentTrack.millisUntilEnd());
+        } else if (trackData.durationMs() != null) {
+            untilNext = Math.max(0, trackData.durationMs() - trackData.progressMs());
+        } else {
+            untilNext = prediction.sparseInterval().toMillis();
+        }
+        Duration predicted = Duration.ofMillis(untilNext).plus(prediction.margin());
+        if (predicted.compareTo(prediction.minimumInterval()) < 0) return prediction.minimumInterval();
+        if (predicted.compareTo(prediction.sparseInterval()) > 0) return prediction.sparseInterval();
+        return predicted;
     }
 
-    private void handlePlayedTrack(Map<String, Object> trackData) {
+    private void handlePlayedTrack(CurrentlyPlayingView trackData) {
         Logger.println("Track has finished playing.", 3);
-        insertDeviceData(trackData);
-        PlayedTrack playedTrack = createPlayedTrack(trackData, currentTrack);
-        Logger.println("Calling DatabaseWrapper to record played track.", 4);
-        databaseWrapper.insertPlayedTrack(playedTrack);
-        Logger.println("DatabaseWrapper has been called.", 4);
+        Device device = getActiveDevice();
+        PlayedTrack playedTrack = createPlayedTrack(trackData.full(), device, currentTrack);
+        Logger.println("Recording played track.", 4);
+        playRecorder.record(playedTrack);
+        Logger.println("Played track has been handed off.", 4);
         currentTrack = null;
     }
 
-    private boolean isPlayingSong(Map<String, Object> data) {
-        return (Boolean) data.get("is_playing");
+    private boolean isPlayingSong(CurrentlyPlayingView data) {
+        return data.isPlaying() && data.trackId() != null;
     }
 
-    private boolean isCurrentTrackPlaying(PlayingTrack playingTrack) {
+    private boolean isCurrentTrackPlaying(CurrentlyPlayingView trackData) {
         if (currentTrack == null) return false;
-        return currentTrack.equals(playingTrack);
+        return currentTrack.id.equals(trackData.trackId());
     }
 
-    private void handleTrackData(Map<String, Object> trackData) {
+    // The steady state, the same track still playing, only touches the scanned fields of the view.
+    private void handleTrackData(CurrentlyPlayingView trackData) {
         if (isPlayingSong(trackData)) {
             Logger.println("Song is playing.", 4);
-            PlayingTrack playingTrack = PlayingTrack.fromMap(trackData);
-            if (isCurrentTrackPlaying(playingTrack)) {
+            if (isCurrentTrackPlaying(trackData)) {
                 Logger.println("Current track is still playing.", 4);
-                currentTrack.updateProgress(playingTrack.progressMs);
+                currentTrack.updateProgress(trackData.progressMs());
                 if (currentTrack.played) {
                     handlePlayedTrack(trackData);
                 }
             } else {
                 Logger.println("New track has started playing.", 3);
-                currentTrack = playingTrack;
+                currentTrack = PlayingTrack.from(trackData);
             }
         } else {
             Logger.println("No song is playing.", 4);
         }
     }
 
-    private void setMode(Map<String, Object> trackData) {
+    private void setMode(CurrentlyPlayingView trackData) {
         if (isPlayingSong(trackData)) {
+            if (idleBackoff != null) idleBackoff.reset();
             setActiveMode();
         } else {
             setIdleMode();
         }
     }
 
-    private Map<String, Object> poll() {
+    private Optional<CurrentlyPlayingView> poll() {
         Logger.println("Starting poll.", 4);
-        Map<String, Object> trackData = spotifyWrapper.getCurrentlyPlayingTrack();
+        Optional<CurrentlyPlayingView> trackData = spotifyWrapper.getCurrentlyPlaying();
         Logger.println("Ending poll.", 4);
         return trackData;
     }
 
-    private void insertDeviceData(Map<String, Object> trackData) {
-        List<Map<String, Object>> devices = spotifyWrapper.getAvailableDevices();
-        Map<String, Object> activeDevice = devices.stream().filter(x -> (Boolean) x.get("is_active")).findFirst().get();
-        trackData.put("device", activeDevice);
+    private Device getActiveDevice() {
+        List<AvailableDevice> devices = spotifyWrapper.getAvailableDevices();
+        return devices.stream().filter(AvailableDevice::isActive).findFirst().orElseThrow().device();
     }
 
 
     private void setActiveMode() {
         if (!activeMode) {
             activeMode = true;
-            delaySeconds = ACTIVE;
+            delay = Duration.ofSeconds(ACTIVE);
         }
     }
 
     private void setIdleMode()   {
         if (activeMode)  {
             activeMode = false;
-            delaySeconds = IDLE;
+            delay = Duration.ofSeconds(IDLE);
         }
     }
 
-    private PlayedTrack createPlayedTrack(Map<String, Object> data, PlayingTrack playingTrack) {
+    private PlayedTrack createPlayedTrack(CurrentlyPlaying data, Device device, PlayingTrack playingTrack) {
         Logger.println("Starting.", 4);
-        data.put("time_finished", playingTrack.timeFinished);
-        return PlayedTrack.fromMap(data);
+        return new PlayedTrack(data.track(), data.contextType(), device, data.popularity(), playingTrack.timeFinished);
     }
 }
@@ -0,0 +1,151 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+// Periodic snapshot of the state a restart would otherwise lose or rebuild: the track the poller is following, the
+// access token and the known-id sets. The file is [int length][int crc32][payload], framed like a PlaySpool record,
+// and replaced atomically, so a crash mid-write leaves the previous snapshot in place. The poller is null in
+// multi-user mode and under a LeaderElection, where only the shared token and known ids are kept.
+public final class WarmSnapshot {
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final Duration SNAPSHOT_DELAY = Duration.ofSeconds(15);
+
+    private final Path path;
+    private final TrackingPoller poller;
+    private final KnownIdCache knownIds;
+    private final TokenManager tokenManager;
+
+    public WarmSnapshot(Path path, TrackingPoller poller, KnownIdCache knownIds, TokenManager tokenManager) {
+        this.path = path;
+        this.poller = poller;
+        this.knownIds = knownIds;
+        this.tokenManager = tokenManager;
+    }
+
+    // Shutdown also saves, so only a crash loses up to one delay of progress, and the track id survives that.
+    public ScheduledTaskSpecification spec() {
+        return new ScheduledTaskSpecification(
+                "Warm Snapshot",
+                this::save,
+                DelayType.FIXED_DELAY,
+                SNAPSHOT_DELAY,
+                () -> SNAPSHOT_DELAY
+        );
+    }
+
+    public void save() {
+        byte[] payload = encode();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer file = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        file.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, file.array());
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Logger.println("WarmSnapshot: Saved " + payload.length + " bytes.", 4);
+    }
+
+    // Returns false when there is no usable snapshot, in which case the caches have to be warmed the slow way.
+    public boolean restore() {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            Logger.log("WarmSnapshot: Could not read snapshot", e);
+            return false;
+        }
+        ByteBuffer file = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_BYTES || file.getInt() != bytes.length - HEADER_BYTES) {
+            Logger.println("WarmSnapshot: Ignoring truncated snapshot.", 2);
+            return false;
+        }
+        int expectedCrc = file.getInt();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES);
+        if ((int) crc.getValue() != expectedCrc) {
+            Logger.println("WarmSnapshot: Ignoring snapshot that failed its checksum.", 2);
+            return false;
+        }
+        try {
+            decode(new DataInputStream(new ByteArrayInputStream(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES)));
+        } catch (IOException e) {
+            Logger.log("WarmSnapshot: Could not decode snapshot", e);
+            return false;
+        }
+        Logger.println("WarmSnapshot: Restored snapshot.", 2);
+        return true;
+    }
+
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+
+            Optional<PlaybackCheckpoint> checkpoint = poller == null ? Optional.empty() : poller.checkpoint();
+            out.writeBoolean(checkpoint.isPresent());
+            if (checkpoint.isPresent()) checkpoint.get().write(out);
+
+            TokenManager.AccessToken token = tokenManager.currentAccessToken();
+            boolean hasToken = token != null && token.value() != null;
+            out.writeBoolean(hasToken);
+            if (hasToken) {
+                out.writeUTF(token.value());
+                out.writeLong(token.expiry().toEpochMilli());
+            }
+
+            Map<KnownIdCache.Dimension, List<String>> ids = knownIds.snapshot();
+            for (KnownIdCache.Dimension dimension : KnownIdCache.Dimension.values()) {
+                List<String> values = ids.get(dimension);
+                out.writeInt(values.size());
+                for (String id : values) out.writeUTF(id);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Everything is read before anything is applied, so a bad snapshot changes nothing.
+    private void decode(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version: " + version);
+
+        PlaybackCheckpoint checkpoint = in.readBoolean() ? PlaybackCheckpoint.read(in) : null;
+        TokenManager.AccessToken token = in.readBoolean() ? new TokenManager.AccessToken(in.readUTF(), Instant.ofEpochMilli(in.readLong())) : null;
+        List<List<String>> ids = new ArrayList<>();
+        for (KnownIdCache.Dimension ignored : KnownIdCache.Dimension.values()) {
+            int size = in.readInt();
+            List<String> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) values.add(in.readUTF());
+            ids.add(values);
+        }
+
+        if (checkpoint != null && poller != null) poller.restore(checkpoint);
+        if (token != null) tokenManager.restoreAccessToken(token);
+        for (KnownIdCache.Dimension dimension : KnownIdCache.Dimension.values()) {
+            knownIds.addAll(dimension, ids.get(dimension.ordinal()));
+        }
+    }
+}
@@ -0,0 +1,3 @@
+package com.pugking4.spotifystat.tracker;
+
+public record WriteBehindMetrics(int queued, long submitted, long written, long batches, long failedAttempts, long spilled, long rejected) {}
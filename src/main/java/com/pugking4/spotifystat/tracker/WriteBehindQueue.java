@@ -0,0 +1,218 @@
+package com.pugking4.spotifystat.tracker;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.common.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Plays from every tracked user share one queue and worker. Each play carries its user, null for the single-user
+// account, and a batch is committed per user.
+public final class WriteBehindQueue implements PlayRecorder {
+    private static final long POLL_MILLIS = 1000;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private final DatabaseWrapper databaseWrapper;
+    private final PlaySpool spool;
+    private final BlockingQueue<QueuedPlay> queue;
+    private final int maxBatchSize;
+    private final Duration offerTimeout;
+    private final Sleeper sleeper;
+    private final boolean idempotent;
+
+    private final List<QueuedPlay> inFlight = new ArrayList<>();
+    private volatile boolean running = false;
+    private Thread worker;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+
+    private record QueuedPlay(String userId, PlayedTrack playedTrack) {}
+
+    public WriteBehindQueue(DatabaseWrapper databaseWrapper, int capacity, int maxBatchSize, Duration offerTimeout, Sleeper sleeper) {
+        this(databaseWrapper, null, capacity, maxBatchSize, offerTimeout, sleeper);
+    }
+
+    // With a spool, plays that cannot be queued or written are spilled to disk for the SpoolReplayer instead of
+    // being retried in memory or dropped.
+    public WriteBehindQueue(DatabaseWrapper databaseWrapper, PlaySpool spool, int capacity, int maxBatchSize, Duration offerTimeout, Sleeper sleeper) {
+        this(databaseWrapper, spool, capacity, maxBatchSize, offerTimeout, sleeper, false);
+    }
+
+    // Idempotent writes skip plays that are already recorded, for a tracker whose standby can take over mid-track
+    // and see the same play again.
+    public WriteBehindQueue(DatabaseWrapper databaseWrapper, PlaySpool spool, int capacity, int maxBatchSize, Duration offerTimeout, Sleeper sleeper,
+                            boolean idempotent) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        if (maxBatchSize < 1) throw new IllegalArgumentException("Batch size must be at least 1: " + maxBatchSize);
+        this.databaseWrapper = databaseWrapper;
+        this.spool = spool;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.offerTimeout = offerTimeout;
+        this.sleeper = sleeper;
+        this.idempotent = idempotent;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        worker = Thread.ofPlatform().name("write-behind").start(this::run);
+    }
+
+    // Waits for the worker to write everything still queued, giving up on the database after the timeout.
+    public void stop(Duration timeout) {
+        Thread w;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            w = worker;
+        }
+        w.interrupt();
+        try {
+            w.join(timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void record(PlayedTrack playedTrack) {
+        enqueue(new QueuedPlay(null, playedTrack));
+    }
+
+    public PlayRecorder forUser(String userId) {
+        return playedTrack -> enqueue(new QueuedPlay(userId, playedTrack));
+    }
+
+    private void enqueue(QueuedPlay play) {
+        submitted.increment();
+        try {
+            if (running && queue.offer(play, offerTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                Logger.println("WriteBehindQueue: Queued track play, " + queue.size() + " pending.", 4);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        overflow(play);
+    }
+
+    private void overflow(QueuedPlay play) {
+        if (spool != null) {
+            Logger.println("WriteBehindQueue: Queue full or stopped, spooling track play: " + play.playedTrack().track().name(), 2);
+            spill(List.of(play));
+            return;
+        }
+        rejected.increment();
+        Logger.println("WriteBehindQueue: Queue full or stopped, dropping track play: " + play.playedTrack().track().name(), 1);
+    }
+
+    private void spill(List<QueuedPlay> plays) {
+        byUser(plays).forEach((userId, playedTracks) -> {
+            try {
+                spool.append(userId, playedTracks);
+                spilled.add(playedTracks.size());
+            } catch (RuntimeException e) {
+                rejected.add(playedTracks.size());
+                Logger.log("WriteBehindQueue: Failed to spool " + playedTracks.size() + " track plays, they are lost", e);
+            }
+        });
+    }
+
+    // Keeps each user's plays in the order they were queued.
+    private static Map<String, List<PlayedTrack>> byUser(List<QueuedPlay> plays) {
+        Map<String, List<PlayedTrack>> byUser = new LinkedHashMap<>();
+        for (QueuedPlay play : plays) byUser.computeIfAbsent(play.userId(), userId -> new ArrayList<>()).add(play.playedTrack());
+        return byUser;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                QueuedPlay first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                inFlight.add(first);
+                queue.drainTo(inFlight, maxBatchSize - 1);
+                writeWithRetry();
+            }
+        } catch (InterruptedException ignored) {
+            // stop() interrupts the worker to skip the remaining poll or backoff wait and flush immediately.
+        }
+        Thread.interrupted();
+        flush();
+    }
+
+    private void writeWithRetry() throws InterruptedException {
+        if (spool != null) {
+            // While older plays are still spooled, newer ones join them so the replayer keeps the original order.
+            if (!spool.isEmpty() || !write(inFlight)) spill(inFlight);
+            inFlight.clear();
+            return;
+        }
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (!write(inFlight)) {
+            sleeper.sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+        inFlight.clear();
+    }
+
+    // Each user's plays commit on their own, and leave the batch once they have, so a retry or spill after a
+    // partial failure only covers the users that were not written.
+    private boolean write(List<QueuedPlay> batch) {
+        for (Map.Entry<String, List<PlayedTrack>> entry : byUser(batch).entrySet()) {
+            String userId = entry.getKey();
+            List<PlayedTrack> playedTracks = entry.getValue();
+            try {
+                DatabaseWrapper target = userId == null ? databaseWrapper : databaseWrapper.forUser(userId);
+                if (idempotent) target.replayPlayedTracks(List.copyOf(playedTracks));
+                else target.insertPlayedTracks(List.copyOf(playedTracks));
+                batches.increment();
+                written.add(playedTracks.size());
+                batch.removeIf(play -> Objects.equals(play.userId(), userId));
+            } catch (RuntimeException e) {
+                failedAttempts.increment();
+                Logger.log("WriteBehindQueue: Failed to write " + playedTracks.size() + " track plays", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flush() {
+        queue.drainTo(inFlight);
+        if (inFlight.isEmpty()) return;
+        Logger.println("WriteBehindQueue: Flushing " + inFlight.size() + " track plays before shutdown.", 2);
+        while (!inFlight.isEmpty()) {
+            if (spool != null && !spool.isEmpty()) break;
+            if (!write(inFlight.subList(0, Math.min(maxBatchSize, inFlight.size())))) break;
+        }
+        if (!inFlight.isEmpty()) {
+            if (spool != null) {
+                spill(inFlight);
+            } else {
+                rejected.add(inFlight.size());
+                Logger.println("WriteBehindQueue: Lost " + inFlight.size() + " track plays during shutdown.", 1);
+            }
+        }
+        inFlight.clear();
+    }
+
+    public WriteBehindMetrics metrics() {
+        return new WriteBehindMetrics(queue.size(), submitted.sum(), written.sum(), batches.sum(), failedAttempts.sum(), spilled.sum(), rejected.sum());
+    }
+}
@@ -0,0 +1,6 @@
+package com.pugking4.spotifystat.tracker;
+
+public enum WriteStrategy {
+    BATCHED,
+    SINGLE_STATEMENT
+}
@@ -0,0 +1,95 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.DatabaseWrapper;
+import com.pugking4.spotifystat.tracker.SpotifyWrapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import java.sql.*;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs against a real Postgres, see DatabaseWrapperBenchmarkIT.
+// BENCHMARK_ARTIST_ROWS caps the largest table size, 1,000,000 by default.
+public class ArtistStalenessBenchmarkIT {
+    private static final int RUNS = 25;
+    private static final String SEED_ARTISTS_SQL = """
+        INSERT INTO artists (id, name, updated_at)
+        SELECT 'artist-' || g, 'Artist ' || g,
+               CASE WHEN g % 1000 = 0 THEN NULL ELSE now() - (g % 96) * interval '1 hour' END
+        FROM generate_series(?, ?) AS g
+    """;
+
+    private PGSimpleDataSource ds;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        ds = DatabaseWrapperBenchmarkIT.benchmarkDataSource();
+    }
+
+    @Test
+    void benchmark_getStaleArtistIds_stays_flat_as_artists_grow() throws SQLException {
+        int maxRows = Integer.parseInt(System.getenv().getOrDefault("BENCHMARK_ARTIST_ROWS", "1000000"));
+        DatabaseWrapper databaseWrapper = new DatabaseWrapper(ds);
+        databaseWrapper.ensureSchema();
+        Instant staleBefore = Instant.now().minus(12, ChronoUnit.HOURS);
+
+        int rows = 0;
+        for (int target = 10_000; target <= maxRows; target *= 10) {
+            seed(rows + 1, target);
+            rows = target;
+
+            List<String> ids = databaseWrapper.getStaleArtistIds(staleBefore, SpotifyWrapper.MAX_ARTIST_BATCH_SIZE);
+            assertEquals(SpotifyWrapper.MAX_ARTIST_BATCH_SIZE, ids.size());
+            assertTrue(ids.getFirst().endsWith("000"), "Never updated artists should come first");
+            assertTrue(usesUpdatedAtIndex(), "Stale artist query should use artists_updated_at_idx");
+
+            double indexed = medianMillis(() -> databaseWrapper.getStaleArtistIds(staleBefore, SpotifyWrapper.MAX_ARTIST_BATCH_SIZE));
+            double fullScan = medianMillis(databaseWrapper::getAllSkeletonArtists);
+            System.out.printf("%,10d artists  stale ids %8.3f ms  full scan %10.3f ms%n", rows, indexed, fullScan);
+        }
+    }
+
+    private void seed(int from, int to) throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(SEED_ARTISTS_SQL)) {
+                ps.setInt(1, from);
+                ps.setInt(2, to);
+                ps.executeUpdate();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ANALYZE artists");
+            }
+        }
+    }
+
+    private boolean usesUpdatedAtIndex() throws SQLException {
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement("EXPLAIN " + DatabaseWrapper.GET_STALE_ARTIST_IDS_SQL)) {
+            ps.setTimestamp(1, Timestamp.from(Instant.now().minus(12, ChronoUnit.HOURS)));
+            ps.setInt(2, SpotifyWrapper.MAX_ARTIST_BATCH_SIZE);
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) plan.append(rs.getString(1)).append('\n');
+            }
+            return plan.toString().contains("artists_updated_at_idx");
+        }
+    }
+
+    private static double medianMillis(Runnable query) {
+        double[] samples = new double[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            query.run();
+            samples[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(samples);
+        return samples[RUNS / 2];
+    }
+}
@@ -15,9 +15,13 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
 
 public class ArtistUpdaterTests {
@@ -50,66 +54,30 @@ public class ArtistUpdaterTests {
         assertEquals(Duration.ofSeconds(30), spec.delay().get());
     }
 
-    Artist createSkeletonArtist(String id, Instant updatedAt) {
-        return new Artist(
-                id,
-                null,
-                null,
-                null,
-                null,
-                null,
-                updatedAt
-        );
-    }
-
     @Test
-    void test_correctly_sorts_and_filters_artists() {
-        List<Artist> artists = new ArrayList<>();
-        artists.add(createSkeletonArtist("0", clock.instant().minusSeconds(60 * 87)));
-        artists.add(createSkeletonArtist("1", clock.instant().minusSeconds(60 * 60 * 77)));
-        artists.add(createSkeletonArtist("2", clock.instant().minusSeconds(60 * 60 * 3)));
-        artists.add(createSkeletonArtist("3", clock.instant().minusSeconds(60 * 60 * 23)));
-        artists.add(createSkeletonArtist("4", clock.instant().minusSeconds(60 * 60 * 40)));
-        artists.add(createSkeletonArtist("5", clock.instant().minusSeconds(60 * 2)));
-        artists.add(createSkeletonArtist("6", clock.instant().minusSeconds(60 * 60 * 10)));
-
-        when(databaseWrapper.getAllSkeletonArtists()).thenReturn(artists);
+    void test_queries_stale_artists_ranked_in_sql() {
+        List<String> staleIds = List.of("1", "4", "3");
+        when(databaseWrapper.getStaleArtistIds(any(), anyInt())).thenReturn(staleIds);
         when(spotifyWrapper.getBatchArtists(any())).thenReturn(List.of());
 
         artistUpdater.spec().task().run();
 
-        ArgumentCaptor<List<String>> captor = ArgumentCaptor.forClass(List.class);
-        verify(spotifyWrapper).getBatchArtists(captor.capture());
-        var list = captor.getValue();
-
-        assertAll("Correct ordering and filtering", () -> {
-            assertEquals("1", list.get(0));
-            assertEquals("4", list.get(1));
-            assertEquals("3", list.get(2));
-        });
-
-        assertEquals(3, list.size());
+        verify(databaseWrapper).getStaleArtistIds(clock.instant().minusSeconds(60 * 60 * 12), ArtistUpdater.DEFAULT_MAX_ARTISTS_PER_RUN);
+        verify(spotifyWrapper).getBatchArtists(staleIds);
+        verify(databaseWrapper, never()).getAllSkeletonArtists();
     }
 
     @Test
-    void test_empty_getAllSkeletonArtists() {
-        when(databaseWrapper.getAllSkeletonArtists()).thenReturn(List.of());
-        when(spotifyWrapper.getBatchArtists(any())).thenReturn(List.of());
+    void test_stale_threshold_matches_lowest_priority() {
+        Instant staleBefore = priorityClassifier.staleBefore();
 
-        artistUpdater.spec().task().run();
-
-        verify(spotifyWrapper, never()).getBatchArtists(any());
-        verify(databaseWrapper, never()).updateBatchArtists(any());
+        assertEquals(Priority.LOW, priorityClassifier.classify(staleBefore.minusSeconds(1)));
+        assertEquals(Priority.DO_NOT_UPDATE, priorityClassifier.classify(staleBefore.plusSeconds(1)));
     }
 
     @Test
-    void test_all_DO_NOT_UPDATE() {
-        List<Artist> skeletonArtists = new ArrayList<>();
-        for (int i = 0; i < 1000; i++) {
-            skeletonArtists.add(createSkeletonArtist(Integer.toString(i), clock.instant().minusSeconds((i * 60 * 20) % (60 * 60 * 12))));
-        }
-
-        when(databaseWrapper.getAllSkeletonArtists()).thenReturn(skeletonArtists);
+    void test_no_stale_artists() {
+        when(databaseWrapper.getStaleArtistIds(any(), anyInt())).thenReturn(List.of());
         when(spotifyWrapper.getBatchArtists(any())).thenReturn(List.of());
 
         artistUpdater.spec().task().run();
@@ -120,20 +88,116 @@ public class ArtistUpdaterTests {
 
     @Test
     void test_correctly_stores_updated_artists() {
-        List<Artist> artists = TestUtilities.getSkeletonArtists(27);
-        var updatedArtists = TestUtilities.getArtistsRaw(27);
+        List<String> ids = TestUtilities.getSkeletonArtists(27).stream().map(Artist::id).toList();
+        var updatedArtists = TestUtilities.getArtists(27);
 
-        when(databaseWrapper.getAllSkeletonArtists()).thenReturn(artists);
+        when(databaseWrapper.getStaleArtistIds(any(), anyInt())).thenReturn(ids);
         when(spotifyWrapper.getBatchArtists(any())).thenReturn(updatedArtists);
 
         artistUpdater.spec().task().run();
 
-        verify(databaseWrapper).getAllSkeletonArtists();
-        verify(spotifyWrapper).getBatchArtists(any());
+        verify(databaseWrapper).getStaleArtistIds(any(), anyInt());
+        verify(spotifyWrapper).getBatchArtists(ids);
         ArgumentCaptor<List<Artist>> captor = ArgumentCaptor.forClass(List.class);
         verify(databaseWrapper).updateBatchArtists(captor.capture());
         var list = captor.getValue();
 
         assertEquals(27, list.size());
     }
+
+    @Test
+    void test_unchanged_artists_are_only_touched() {
+        List<Artist> fresh = TestUtilities.getArtists(5);
+        List<Artist> stored = new ArrayList<>();
+        for (Artist artist : fresh) {
+            stored.add(new Artist(artist.id(), artist.name(), artist.followers(), artist.genres(), artist.image(), artist.popularity(), clock.instant().minusSeconds(60 * 60 * 48)));
+        }
+        Artist moved = stored.get(2);
+        stored.set(2, new Artist(moved.id(), moved.name(), moved.followers(), moved.genres(), moved.image(), moved.popularity() + 1, moved.updatedAt()));
+        List<String> ids = fresh.stream().map(Artist::id).toList();
+
+        when(databaseWrapper.getStaleArtistIds(any(), anyInt())).thenReturn(ids);
+        when(spotifyWrapper.getBatchArtists(any())).thenReturn(fresh);
+        when(databaseWrapper.getArtists(ids)).thenReturn(stored);
+
+        artistUpdater.spec().task().run();
+
+        ArgumentCaptor<List<Artist>> changedCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<Artist>> touchedCaptor = ArgumentCaptor.forClass(List.class);
+        verify(databaseWrapper).updateBatchArtists(changedCaptor.capture());
+        verify(databaseWrapper).touchArtists(touchedCaptor.capture());
+
+        assertEquals(List.of(fresh.get(2).id()), changedCaptor.getValue().stream().map(Artist::id).toList());
+        assertEquals(4, touchedCaptor.getValue().size());
+        ArtistUpdateMetrics metrics = artistUpdater.metrics();
+        assertEquals(1, metrics.runs());
+        assertEquals(1, metrics.changed());
+        assertEquals(4, metrics.unchanged());
+    }
+
+    @Test
+    void test_unknown_artists_count_as_changed() {
+        List<Artist> fresh = TestUtilities.getArtists(3);
+        List<String> ids = fresh.stream().map(Artist::id).toList();
+
+        when(databaseWrapper.getStaleArtistIds(any(), anyInt())).thenReturn(ids);
+        when(spotifyWrapper.getBatchArtists(any())).thenReturn(fresh);
+        when(databaseWrapper.getArtists(ids)).thenReturn(List.of());
+
+        artistUpdater.spec().task().run();
+
+        assertEquals(3, artistUpdater.metrics().changed());
+        assertEquals(0, artistUpdater.metrics().unchanged());
+    }
+
+    private static List<Artist> fetched(List<String> ids) {
+        return ids.stream().map(id -> new Artist(id, "Artist " + id, 100, List.of("pop"), null, 50, Instant.parse("2026-01-01T00:00:00Z"))).toList();
+    }
+
+    @Test
+    void test_refreshes_every_candidate_in_chunks_of_50() {
+        List<String> ids = IntStream.range(0, 120).mapToObj(i -> "artist-" + i).toList();
+        when(databaseWrapper.getStaleArtistIds(any(), anyInt())).thenReturn(ids);
+        when(spotifyWrapper.getBatchArtists(any())).thenAnswer(invocation -> fetched(invocation.getArgument(0)));
+
+        artistUpdater.spec().task().run();
+
+        ArgumentCaptor<List<String>> batches = ArgumentCaptor.forClass(List.class);
+        verify(spotifyWrapper, times(3)).getBatchArtists(batches.capture());
+        assertEquals(List.of(20, 50, 50), batches.getAllValues().stream().map(List::size).sorted().toList());
+        assertEquals(Set.copyOf(ids), batches.getAllValues().stream().flatMap(List::stream).collect(Collectors.toSet()));
+        verify(databaseWrapper, times(3)).updateBatchArtists(any());
+
+        ArtistUpdateMetrics metrics = artistUpdater.metrics();
+        assertEquals(3, metrics.chunks());
+        assertEquals(120, metrics.changed());
+        assertEquals(0, metrics.pending());
+    }
+
+    @Test
+    void test_failed_chunk_stops_new_fetches_and_rethrows() {
+        artistUpdater = new ArtistUpdater(spotifyWrapper, databaseWrapper, priorityClassifier, 1, 1000);
+        List<String> ids = IntStream.range(0, 150).mapToObj(i -> "artist-" + i).toList();
+        SpotifyApiException throttled = new SpotifyApiException(429, "Too many requests", Duration.ofSeconds(5));
+        when(databaseWrapper.getStaleArtistIds(any(), anyInt())).thenReturn(ids);
+        when(spotifyWrapper.getBatchArtists(any()))
+                .thenAnswer(invocation -> fetched(invocation.getArgument(0)))
+                .thenThrow(throttled);
+
+        SpotifyApiException thrown = assertThrows(SpotifyApiException.class, () -> artistUpdater.spec().task().run());
+
+        assertSame(throttled, thrown);
+        verify(spotifyWrapper, times(2)).getBatchArtists(any());
+        ArtistUpdateMetrics metrics = artistUpdater.metrics();
+        assertEquals(1, metrics.chunks());
+        assertEquals(1, metrics.failedChunks());
+        assertEquals(50, metrics.changed());
+        assertEquals(0, metrics.pending());
+    }
+
+    @Test
+    void test_rejects_invalid_limits() {
+        assertThrows(IllegalArgumentException.class, () -> new ArtistUpdater(spotifyWrapper, databaseWrapper, priorityClassifier, 0, 100));
+        assertThrows(IllegalArgumentException.class, () -> new ArtistUpdater(spotifyWrapper, databaseWrapper, priorityClassifier, 4, 0));
+    }
 }
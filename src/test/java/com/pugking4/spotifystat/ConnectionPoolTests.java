@@ -0,0 +1,172 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.ConnectionPool;
+import com.pugking4.spotifystat.tracker.ConnectionPoolConfig;
+import com.pugking4.spotifystat.tracker.PoolMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ConnectionPoolTests {
+    @Mock
+    DataSource ds;
+    @Mock
+    Connection first;
+    @Mock
+    Connection second;
+
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        MockitoAnnotations.openMocks(this);
+        clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+        when(ds.getConnection()).thenReturn(first, second);
+        when(first.isValid(anyInt())).thenReturn(true);
+        when(second.isValid(anyInt())).thenReturn(true);
+        when(first.getAutoCommit()).thenReturn(true);
+        when(second.getAutoCommit()).thenReturn(true);
+    }
+
+    ConnectionPool pool(int maxSize) {
+        return new ConnectionPool(ds, new ConnectionPoolConfig(maxSize, Duration.ZERO, Duration.ofMinutes(5), Duration.ofMinutes(2), Duration.ofSeconds(2)), clock);
+    }
+
+    @Test
+    void test_returned_connection_is_reused() throws SQLException {
+        ConnectionPool pool = pool(2);
+
+        pool.getConnection().close();
+        pool.getConnection().close();
+
+        verify(ds, times(1)).getConnection();
+        verify(first, never()).close();
+        assertEquals(1, pool.metrics().created());
+        assertEquals(2, pool.metrics().borrows());
+    }
+
+    @Test
+    void test_pool_is_bounded() throws SQLException {
+        ConnectionPool pool = pool(1);
+
+        Connection held = pool.getConnection();
+
+        assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+
+        held.close();
+        assertDoesNotThrow(() -> pool.getConnection().close());
+    }
+
+    @Test
+    void test_invalid_connection_is_replaced_on_borrow() throws SQLException {
+        ConnectionPool pool = pool(1);
+        pool.getConnection().close();
+        when(first.isValid(anyInt())).thenReturn(false);
+
+        Connection conn = pool.getConnection();
+        conn.close();
+
+        verify(first).close();
+        verify(ds, times(2)).getConnection();
+        assertEquals(1, pool.metrics().validationFailures());
+    }
+
+    @Test
+    void test_uncommitted_transaction_rolled_back_on_return() throws SQLException {
+        ConnectionPool pool = pool(1);
+        Connection conn = pool.getConnection();
+        when(first.getAutoCommit()).thenReturn(false);
+
+        conn.close();
+
+        verify(first).rollback();
+        verify(first).setAutoCommit(true);
+    }
+
+    @Test
+    void test_closed_handle_cannot_be_used_or_returned_twice() throws SQLException {
+        ConnectionPool pool = pool(2);
+        Connection conn = pool.getConnection();
+        conn.close();
+        conn.close();
+
+        assertTrue(conn.isClosed());
+        assertThrows(SQLException.class, conn::createStatement);
+        assertEquals(1, pool.metrics().idle());
+    }
+
+    @Test
+    void test_housekeeping_evicts_idle_connections() throws SQLException {
+        ConnectionPool pool = pool(2);
+        pool.getConnection().close();
+
+        clock.advance(Duration.ofMinutes(6));
+        pool.spec().task().run();
+
+        verify(first).close();
+        PoolMetrics metrics = pool.metrics();
+        assertEquals(0, metrics.idle());
+        assertEquals(1, metrics.destroyed());
+    }
+
+    @Test
+    void test_housekeeping_reports_leak_once() throws SQLException {
+        ConnectionPool pool = pool(2);
+        Connection held = pool.getConnection();
+
+        clock.advance(Duration.ofMinutes(3));
+        pool.spec().task().run();
+        pool.spec().task().run();
+
+        assertEquals(1, pool.metrics().leaksDetected());
+        assertEquals(1, pool.metrics().active());
+        held.close();
+        assertEquals(0, pool.metrics().active());
+    }
+
+    @Test
+    void test_config_rejects_invalid_size() {
+        assertThrows(IllegalArgumentException.class, () -> new ConnectionPoolConfig(0));
+    }
+
+    static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
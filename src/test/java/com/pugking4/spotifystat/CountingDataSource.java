@@ -0,0 +1,57 @@
+package com.pugking4.spotifystat;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Wraps a DataSource and counts every call that makes the driver talk to the server, as an approximation of round trips.
+public class CountingDataSource {
+    private static final Set<String> ROUND_TRIP_METHODS = Set.of("execute", "executeQuery", "executeUpdate", "executeBatch", "executeLargeUpdate", "executeLargeBatch", "commit", "rollback");
+
+    private final DataSource delegate;
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    public CountingDataSource(DataSource delegate) {
+        this.delegate = delegate;
+    }
+
+    public long roundTrips() {
+        return roundTrips.get();
+    }
+
+    public void reset() {
+        roundTrips.set(0);
+    }
+
+    public DataSource dataSource() {
+        return proxy(DataSource.class, delegate);
+    }
+
+    private <T> T proxy(Class<T> type, T target) {
+        InvocationHandler handler = (p, method, args) -> {
+            if (ROUND_TRIP_METHODS.contains(method.getName())) roundTrips.incrementAndGet();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Connection c) return proxy(Connection.class, c);
+            if (result instanceof Statement s) return proxyStatement(s);
+            return result;
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private Object proxyStatement(Statement statement) {
+        Class<?> type = statement instanceof java.sql.CallableStatement ? java.sql.CallableStatement.class
+                : statement instanceof java.sql.PreparedStatement ? java.sql.PreparedStatement.class
+                : Statement.class;
+        return proxy((Class<Object>) type, statement);
+    }
+}
@@ -0,0 +1,163 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.common.dto.*;
+import com.pugking4.spotifystat.tracker.DatabaseWrapper;
+import com.pugking4.spotifystat.tracker.WriteStrategy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.pugking4.spotifystat.TestUtilities.loadResource;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Runs against a real Postgres, e.g.
+// BENCHMARK_DATABASE_URL="jdbc:postgresql://localhost:5433/postgres?user=postgres&password=postgres" mvn verify
+public class DatabaseWrapperBenchmarkIT {
+    static final String SCHEMA = "spotify_stat_benchmark";
+    private static final int PLAYS = 500;
+    private static final int ARTISTS_PER_TRACK = 5;
+
+    private PGSimpleDataSource ds;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        ds = benchmarkDataSource();
+    }
+
+    static PGSimpleDataSource benchmarkDataSource() throws SQLException {
+        String url = System.getenv("BENCHMARK_DATABASE_URL");
+        assumeTrue(url != null, "BENCHMARK_DATABASE_URL not set, skipping benchmark");
+
+        PGSimpleDataSource ds = new PGSimpleDataSource();
+        ds.setURL(url);
+        try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(loadResource("benchmark-schema.sql"));
+        }
+        ds.setCurrentSchema(SCHEMA);
+        return ds;
+    }
+
+    static List<PlayedTrack> plays(int amount, int artistsPerTrack) {
+        return IntStream.range(0, amount)
+                .mapToObj(i -> {
+                    List<Artist> artists = IntStream.range(0, artistsPerTrack)
+                            .mapToObj(a -> new Artist("artist-" + i + "-" + a, "Artist " + a, null, null, null, null, null))
+                            .toList();
+                    Album album = new Album("album-" + i, "Album " + i, "https://example.com/" + i + ".jpg", LocalDate.of(2026, 1, 1), "day", "album", artists.subList(0, 1));
+                    Track track = new Track("track-" + i, "Track " + i, album, 180000, false, false, artists);
+                    return new PlayedTrack(track, "playlist", new Device("device-" + (i % 3), "Computer"), 50, Instant.now());
+                })
+                .toList();
+    }
+
+    @Test
+    void benchmark_insertPlayedTrack_round_trips_and_latency() throws SQLException {
+        CountingDataSource legacyCounter = new CountingDataSource(ds);
+        long legacyNanos = 0;
+        for (PlayedTrack play : plays(PLAYS, ARTISTS_PER_TRACK)) {
+            long start = System.nanoTime();
+            legacyInsert(legacyCounter.dataSource(), play);
+            legacyNanos += System.nanoTime() - start;
+        }
+
+        truncate();
+
+        CountingDataSource batchedCounter = new CountingDataSource(ds);
+        long batchedNanos = run(new DatabaseWrapper(batchedCounter.dataSource(), WriteStrategy.BATCHED));
+
+        truncate();
+
+        CountingDataSource singleCounter = new CountingDataSource(ds);
+        long singleNanos = run(new DatabaseWrapper(singleCounter.dataSource(), WriteStrategy.SINGLE_STATEMENT));
+
+        report("legacy per-row", legacyCounter.roundTrips(), legacyNanos);
+        report("batched", batchedCounter.roundTrips(), batchedNanos);
+        report("single statement", singleCounter.roundTrips(), singleNanos);
+
+        assertTrue(batchedCounter.roundTrips() < legacyCounter.roundTrips());
+        assertTrue(singleCounter.roundTrips() < batchedCounter.roundTrips());
+    }
+
+    private long run(DatabaseWrapper databaseWrapper) {
+        long nanos = 0;
+        for (PlayedTrack play : plays(PLAYS, ARTISTS_PER_TRACK)) {
+            long start = System.nanoTime();
+            databaseWrapper.insertPlayedTrack(play);
+            nanos += System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    private void truncate() throws SQLException {
+        try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute("TRUNCATE track_history, track_artist, album_artist, tracks, albums, artists, devices");
+        }
+    }
+
+    static void report(String name, long roundTrips, long nanos) {
+        System.out.printf("%-16s %6.2f round trips/play  %8.3f ms/play%n", name, (double) roundTrips / PLAYS, nanos / 1_000_000.0 / PLAYS);
+    }
+
+    // The per-row write path insertPlayedTrack used before statements were batched, kept as the baseline.
+    private static void legacyInsert(DataSource ds, PlayedTrack playedTrack) throws SQLException {
+        Track track = playedTrack.track();
+        Album album = track.album();
+        try (Connection conn = ds.getConnection()) {
+            conn.setAutoCommit(false);
+            for (Artist artist : track.artists()) {
+                update(conn, DatabaseWrapper.INSERT_ARTIST_SQL, artist.id(), artist.name());
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_SQL)) {
+                stmt.setString(1, album.id());
+                stmt.setString(2, album.name());
+                stmt.setString(3, album.cover());
+                stmt.setDate(4, Date.valueOf(album.releaseDate()));
+                stmt.setString(5, album.releaseDatePrecision());
+                stmt.setString(6, album.type());
+                stmt.executeUpdate();
+            }
+            for (Artist artist : album.artists()) {
+                update(conn, DatabaseWrapper.INSERT_ALBUM_ARTIST_SQL, album.id(), artist.id());
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_SQL)) {
+                stmt.setString(1, track.id());
+                stmt.setString(2, track.name());
+                stmt.setString(3, album.id());
+                stmt.setInt(4, track.durationMs());
+                stmt.setBoolean(5, track.isExplicit());
+                stmt.setBoolean(6, track.isLocal());
+                stmt.executeUpdate();
+            }
+            for (Artist artist : track.artists()) {
+                update(conn, DatabaseWrapper.INSERT_TRACK_ARTIST_SQL, track.id(), artist.id());
+            }
+            update(conn, DatabaseWrapper.INSERT_DEVICE_SQL, playedTrack.device().name(), playedTrack.device().type());
+            try (PreparedStatement stmt = conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL)) {
+                stmt.setString(1, playedTrack.contextType());
+                stmt.setString(2, album.id());
+                stmt.setString(3, track.id());
+                stmt.setString(4, playedTrack.device().name());
+                stmt.setInt(5, playedTrack.currentPopularity());
+                stmt.setTimestamp(6, Timestamp.from(playedTrack.timeFinished()));
+                stmt.executeQuery().close();
+            }
+            conn.commit();
+        }
+    }
+
+    private static void update(Connection conn, String sql, String first, String second) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, first);
+            stmt.setString(2, second);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -1,21 +1,31 @@
 package com.pugking4.spotifystat;
 
 import com.pugking4.spotifystat.common.dto.*;
+import com.pugking4.spotifystat.tracker.ClusterView;
 import com.pugking4.spotifystat.tracker.DatabaseWrapper;
+import com.pugking4.spotifystat.tracker.KnownIdCache;
+import com.pugking4.spotifystat.tracker.ListeningHeatmap;
 import com.pugking4.spotifystat.tracker.SpotifyApiException;
 import com.pugking4.spotifystat.tracker.SpotifyWrapper;
+import com.pugking4.spotifystat.tracker.WriteStrategy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static com.pugking4.spotifystat.TestUtilities.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -156,15 +166,327 @@ public class DatabaseWrapperTests {
 
         new DatabaseWrapper(ds).insertPlayedTrack(played);
 
-        verify(insertArtist, times(1)).executeUpdate();
-        verify(insertAlbum, times(1)).executeUpdate();
-        verify(insertTrack, times(1)).executeUpdate();
-        verify(insertDevice, times(1)).executeUpdate();
-        verify(insertAlbumArtist, times(1)).executeUpdate();
-        verify(insertTrackArtist, times(1)).executeUpdate();
+        verify(insertArtist, times(1)).addBatch();
+        verify(insertAlbum, times(1)).addBatch();
+        verify(insertTrack, times(1)).addBatch();
+        verify(insertDevice, times(1)).addBatch();
+        verify(insertAlbumArtist, times(1)).addBatch();
+        verify(insertTrackArtist, times(1)).addBatch();
+
+        for (PreparedStatement stmt : List.of(insertArtist, insertAlbum, insertTrack, insertDevice, insertAlbumArtist, insertTrackArtist)) {
+            verify(stmt, times(1)).executeBatch();
+            verify(stmt, never()).executeUpdate();
+        }
         verify(insertTrackHistory, times(1)).executeQuery();
     }
 
+    @Test
+    void test_insertPlayedTrack_prepares_once_and_batches_many_artists() throws Exception {
+        when(conn.getAutoCommit()).thenReturn(true);
+
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ARTIST_SQL)).thenReturn(insertArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_SQL)).thenReturn(insertAlbum);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_SQL)).thenReturn(insertTrack);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_DEVICE_SQL)).thenReturn(insertDevice);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_ARTIST_SQL)).thenReturn(insertAlbumArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_ARTIST_SQL)).thenReturn(insertTrackArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL)).thenReturn(insertTrackHistory);
+
+        when(insertTrackHistory.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getInt("id")).thenReturn(123);
+
+        PlayedTrack base = getPlayedTrack();
+        List<Artist> trackArtists = getArtists(5);
+        Track track = new Track(base.track().id(), base.track().name(), base.track().album(), base.track().durationMs(), base.track().isExplicit(), base.track().isLocal(), trackArtists);
+        PlayedTrack played = new PlayedTrack(track, base.contextType(), base.device(), base.currentPopularity(), base.timeFinished());
+
+        new DatabaseWrapper(ds).insertPlayedTrack(played);
+
+        verify(conn, times(1)).prepareStatement(DatabaseWrapper.INSERT_ARTIST_SQL);
+        verify(conn, times(1)).prepareStatement(DatabaseWrapper.INSERT_TRACK_ARTIST_SQL);
+        verify(insertArtist, times(6)).addBatch();
+        verify(insertTrackArtist, times(5)).addBatch();
+        verify(insertArtist, times(1)).executeBatch();
+        verify(insertTrackArtist, times(1)).executeBatch();
+        verify(conn).commit();
+    }
+
+    @Test
+    void test_insertPlayedTracks_group_commits_in_one_transaction() throws Exception {
+        when(conn.getAutoCommit()).thenReturn(true);
+
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ARTIST_SQL)).thenReturn(insertArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_SQL)).thenReturn(insertAlbum);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_SQL)).thenReturn(insertTrack);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_DEVICE_SQL)).thenReturn(insertDevice);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_ARTIST_SQL)).thenReturn(insertAlbumArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_ARTIST_SQL)).thenReturn(insertTrackArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL)).thenReturn(insertTrackHistory);
+
+        when(insertTrackHistory.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getInt("id")).thenReturn(123, 124, 125);
+
+        new DatabaseWrapper(ds).insertPlayedTracks(List.of(getPlayedTrack(), getPlayedTrack(), getPlayedTrack()));
+
+        verify(ds, times(1)).getConnection();
+        verify(conn, times(1)).prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL);
+        verify(insertArtist, times(1)).addBatch();
+        verify(insertTrackHistory, times(3)).executeQuery();
+        verify(conn, times(1)).commit();
+    }
+
+    @Test
+    void test_insertPlayedTracks_empty_does_nothing() throws Exception {
+        new DatabaseWrapper(ds).insertPlayedTracks(List.of());
+
+        verify(ds, never()).getConnection();
+    }
+
+    @Test
+    void test_replayPlayedTracks_skips_already_recorded_plays() throws Exception {
+        when(conn.getAutoCommit()).thenReturn(true);
+
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ARTIST_SQL)).thenReturn(insertArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_SQL)).thenReturn(insertAlbum);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_SQL)).thenReturn(insertTrack);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_DEVICE_SQL)).thenReturn(insertDevice);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_ARTIST_SQL)).thenReturn(insertAlbumArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_ARTIST_SQL)).thenReturn(insertTrackArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_IF_ABSENT_SQL)).thenReturn(insertTrackHistory);
+
+        when(insertTrackHistory.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getInt("id")).thenReturn(123);
+
+        PlayedTrack played = getPlayedTrack();
+        new DatabaseWrapper(ds).replayPlayedTracks(List.of(played, getPlayedTrack()));
+
+        verify(conn, never()).prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL);
+        verify(insertTrackHistory, times(2)).executeQuery();
+        verify(insertTrackHistory).setString(8, played.track().id());
+        long window = played.track().durationMs() / 2;
+        verify(insertTrackHistory).setTimestamp(10, Timestamp.from(played.timeFinished().minusMillis(window)));
+        verify(insertTrackHistory).setTimestamp(11, Timestamp.from(played.timeFinished().plusMillis(window)));
+        verify(conn).commit();
+    }
+
+    @Test
+    void test_insertPlayedTrack_single_statement_one_round_trip() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_PLAYED_TRACK_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getInt("id")).thenReturn(123);
+
+        PlayedTrack played = getPlayedTrack();
+
+        new DatabaseWrapper(ds, WriteStrategy.SINGLE_STATEMENT).insertPlayedTrack(played);
+
+        verify(conn, times(1)).prepareStatement(anyString());
+        verify(generic, times(1)).executeQuery();
+        verify(generic).setString(23, played.track().id());
+        verify(generic).setTimestamp(26, Timestamp.from(played.timeFinished()));
+        verify(conn, never()).setAutoCommit(anyBoolean());
+        verify(conn, never()).commit();
+    }
+
+    @Test
+    void test_forUser_records_plays_against_user() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_PLAYED_TRACK_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getInt("id")).thenReturn(123);
+
+        DatabaseWrapper shared = new DatabaseWrapper(ds, WriteStrategy.SINGLE_STATEMENT);
+        DatabaseWrapper alice = shared.forUser("alice");
+        alice.insertPlayedTrack(getPlayedTrack());
+
+        verify(generic).setString(27, "alice");
+        assertSame(shared.knownIds(), alice.knownIds());
+        assertNull(shared.userId());
+    }
+
+    @Test
+    void test_getTrackedUsers_reads_active_users() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.GET_TRACKED_USERS_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getString("user_id")).thenReturn("alice", "bob");
+
+        assertEquals(List.of("alice", "bob"), new DatabaseWrapper(ds).getTrackedUsers());
+    }
+
+    @Test
+    void test_claimLeases_binds_node_lease_and_limit() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.CLAIM_LEASES_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getString("user_id")).thenReturn("alice");
+
+        assertEquals(List.of("alice"), new DatabaseWrapper(ds).claimLeases("node-a", Duration.ofMillis(1500), 3));
+
+        verify(generic).setString(1, "node-a");
+        verify(generic).setDouble(2, 1.5);
+        verify(generic).setString(3, "node-a");
+        verify(generic).setInt(4, 3);
+    }
+
+    @Test
+    void test_heartbeat_reads_cluster_view() throws Exception {
+        PreparedStatement view = mock(PreparedStatement.class);
+        when(conn.prepareStatement(DatabaseWrapper.HEARTBEAT_NODE_SQL)).thenReturn(generic);
+        when(conn.prepareStatement(DatabaseWrapper.PRUNE_NODES_SQL)).thenReturn(generic);
+        when(conn.prepareStatement(DatabaseWrapper.GET_CLUSTER_VIEW_SQL)).thenReturn(view);
+        when(view.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getInt("nodes")).thenReturn(3);
+        when(rs.getInt("users")).thenReturn(10);
+
+        assertEquals(new ClusterView(3, 10), new DatabaseWrapper(ds).heartbeat("node-a", Duration.ofSeconds(30)));
+
+        verify(generic).setString(1, "node-a");
+        verify(view).setDouble(1, 30.0);
+    }
+
+    @Test
+    void test_insertPlayedTrack_single_statement_no_id_throws_sqlexception() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_PLAYED_TRACK_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(false);
+
+        PlayedTrack played = getPlayedTrack();
+
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> {
+            new DatabaseWrapper(ds, WriteStrategy.SINGLE_STATEMENT).insertPlayedTrack(played);
+        });
+
+        assertSame(SQLException.class, ex.getCause().getClass());
+        assertTrue(ex.getMessage().contains("Insert failed: no ID returned"));
+    }
+
+    @Test
+    void test_insertPlayedTrack_known_track_is_single_history_insert() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL)).thenReturn(insertTrackHistory);
+        when(insertTrackHistory.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getInt("id")).thenReturn(123);
+
+        PlayedTrack played = getPlayedTrack();
+        KnownIdCache knownIds = new KnownIdCache(100);
+        knownIds.remember(played);
+
+        new DatabaseWrapper(ds, WriteStrategy.BATCHED, knownIds).insertPlayedTrack(played);
+
+        verify(conn, times(1)).prepareStatement(anyString());
+        verify(insertTrackHistory, times(1)).executeQuery();
+        verify(conn, never()).setAutoCommit(anyBoolean());
+        assertEquals(1, knownIds.metrics().hits());
+        assertEquals(0, knownIds.metrics().misses());
+    }
+
+    @Test
+    void test_insertPlayedTrack_known_album_skips_album_rows() throws Exception {
+        when(conn.getAutoCommit()).thenReturn(true);
+
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ARTIST_SQL)).thenReturn(insertArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_SQL)).thenReturn(insertAlbum);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_SQL)).thenReturn(insertTrack);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_DEVICE_SQL)).thenReturn(insertDevice);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_ALBUM_ARTIST_SQL)).thenReturn(insertAlbumArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_ARTIST_SQL)).thenReturn(insertTrackArtist);
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL)).thenReturn(insertTrackHistory);
+
+        when(insertTrackHistory.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(rs.getInt("id")).thenReturn(123);
+
+        PlayedTrack played = getPlayedTrack();
+        KnownIdCache knownIds = new KnownIdCache(100);
+        knownIds.add(KnownIdCache.Dimension.ALBUM, played.track().album().id());
+        knownIds.add(KnownIdCache.Dimension.DEVICE, played.device().name());
+
+        new DatabaseWrapper(ds, WriteStrategy.BATCHED, knownIds).insertPlayedTrack(played);
+
+        verify(insertAlbum, never()).executeBatch();
+        verify(insertAlbumArtist, never()).executeBatch();
+        verify(insertDevice, never()).executeBatch();
+        verify(insertTrack, times(1)).executeBatch();
+        verify(insertTrackArtist, times(1)).executeBatch();
+        verify(conn).commit();
+        assertEquals(1, knownIds.metrics().misses());
+        assertTrue(knownIds.isFullyKnown(played));
+    }
+
+    @Test
+    void test_insertPlayedTrack_failure_clears_known_ids() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.INSERT_TRACK_HISTORY_SQL)).thenReturn(insertTrackHistory);
+        when(insertTrackHistory.executeQuery()).thenThrow(new SQLException("fk-violation-test"));
+
+        PlayedTrack played = getPlayedTrack();
+        KnownIdCache knownIds = new KnownIdCache(100);
+        knownIds.remember(played);
+
+        assertThrows(RuntimeException.class, () -> {
+            new DatabaseWrapper(ds, WriteStrategy.BATCHED, knownIds).insertPlayedTrack(played);
+        });
+
+        assertFalse(knownIds.isFullyKnown(played));
+        assertEquals(0, knownIds.metrics().size());
+    }
+
+    @Test
+    void test_warmKnownIds_seeds_every_dimension() throws Exception {
+        when(conn.prepareStatement(anyString())).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, false, true, false, true, false, true, false);
+        when(rs.getString(1)).thenReturn("track-1", "album-1", "artist-1", "device-1");
+
+        KnownIdCache knownIds = new KnownIdCache(100);
+        new DatabaseWrapper(ds, WriteStrategy.BATCHED, knownIds).warmKnownIds(500);
+
+        verify(generic, times(4)).setInt(1, 500);
+        assertTrue(knownIds.contains(KnownIdCache.Dimension.TRACK, "track-1"));
+        assertTrue(knownIds.contains(KnownIdCache.Dimension.ALBUM, "album-1"));
+        assertTrue(knownIds.contains(KnownIdCache.Dimension.ARTIST, "artist-1"));
+        assertTrue(knownIds.contains(KnownIdCache.Dimension.DEVICE, "device-1"));
+    }
+
+    @Test
+    void test_getStaleArtistIds_binds_threshold_and_limit() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.GET_STALE_ARTIST_IDS_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getString("id")).thenReturn("never-updated", "oldest");
+
+        Instant staleBefore = Instant.parse("2026-01-01T00:00:00Z");
+        List<String> ids = new DatabaseWrapper(ds).getStaleArtistIds(staleBefore, 50);
+
+        verify(generic).setTimestamp(1, Timestamp.from(staleBefore));
+        verify(generic).setInt(2, 50);
+        assertEquals(List.of("never-updated", "oldest"), ids);
+    }
+
+    @Test
+    void test_getListeningHeatmap_fills_slots_by_day_and_hour() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.GET_LISTENING_HEATMAP_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getInt("day")).thenReturn(1, 7);
+        when(rs.getInt("hour")).thenReturn(20, 3);
+        when(rs.getLong("plays")).thenReturn(40L, 2L);
+
+        Instant since = Instant.parse("2026-01-01T00:00:00Z");
+        ListeningHeatmap heatmap = new DatabaseWrapper(ds).getListeningHeatmap(ZoneId.of("Europe/London"), since);
+
+        verify(generic).setString(1, "Europe/London");
+        verify(generic).setString(2, "Europe/London");
+        verify(generic).setTimestamp(3, Timestamp.from(since));
+        assertEquals(40, heatmap.plays(ZonedDateTime.parse("2026-10-12T20:30:00Z")));
+        assertEquals(2, heatmap.plays(ZonedDateTime.parse("2026-10-18T03:00:00Z")));
+        assertTrue(heatmap.isQuiet(ZonedDateTime.parse("2026-10-13T12:00:00Z")));
+    }
+
     @Test
     void test_getAllSkeletonArtists_standard() throws Exception {
         List<Artist> artists = getSkeletonArtists(4);
@@ -213,45 +535,149 @@ public class DatabaseWrapperTests {
         assertTrue(ex.getMessage().contains("rs-exception-test"));
     }
 
+    @Test
+    void test_scanSkeletonArtists_uses_cursor_in_transaction() throws Exception {
+        when(conn.getAutoCommit()).thenReturn(true);
+        when(conn.prepareStatement(DatabaseWrapper.GET_ALL_ARTISTS_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getString("id")).thenReturn("a", "b");
+
+        List<String> ids = new ArrayList<>();
+        new DatabaseWrapper(ds).scanSkeletonArtists(250, artist -> ids.add(artist.id()));
+
+        assertEquals(List.of("a", "b"), ids);
+        InOrder inOrder = inOrder(conn, generic);
+        inOrder.verify(conn).setAutoCommit(false);
+        inOrder.verify(generic).setFetchSize(250);
+        inOrder.verify(generic).executeQuery();
+        inOrder.verify(conn).commit();
+        inOrder.verify(conn).setAutoCommit(true);
+    }
+
+    @Test
+    void test_streamSkeletonArtists_releases_connection_on_close() throws Exception {
+        when(conn.getAutoCommit()).thenReturn(true);
+        when(conn.prepareStatement(DatabaseWrapper.GET_ALL_ARTISTS_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true, true, true, false);
+        when(rs.getString("id")).thenReturn("a", "b", "c");
+
+        List<String> ids;
+        try (Stream<Artist> artists = new DatabaseWrapper(ds).streamSkeletonArtists(2)) {
+            ids = artists.map(Artist::id).limit(2).toList();
+            verify(conn, never()).close();
+        }
+
+        assertEquals(List.of("a", "b"), ids);
+        verify(generic).setFetchSize(2);
+        verify(rs).close();
+        verify(conn).commit();
+        verify(conn).setAutoCommit(true);
+        verify(conn).close();
+    }
+
+    @Test
+    void test_streamSkeletonArtists_query_failure_rolls_back_and_closes() throws Exception {
+        when(conn.getAutoCommit()).thenReturn(true);
+        when(conn.prepareStatement(DatabaseWrapper.GET_ALL_ARTISTS_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenThrow(new SQLException("cursor-exception-test"));
+
+        RuntimeException ex = assertThrows(RuntimeException.class, () -> {
+            new DatabaseWrapper(ds).streamSkeletonArtists(100);
+        });
+
+        assertTrue(ex.getMessage().contains("cursor-exception-test"));
+        verify(conn).rollback();
+        verify(generic).close();
+        verify(conn).close();
+    }
+
     @Test
     void test_updateBatchArtists_standard() throws Exception {
-        // Arrange: build a small list with known values
         List<Artist> input = getArtists(27);
         when(conn.prepareStatement(DatabaseWrapper.UPDATE_BATCH_ARTISTS_SQL)).thenReturn(generic);
 
         new DatabaseWrapper(ds).updateBatchArtists(input);
 
-        verify(generic, times(input.size())).addBatch();
-        verify(generic, times(1)).executeBatch();
+        verify(generic, times(1)).executeUpdate();
+        verify(generic, never()).addBatch();
+        verify(generic, never()).executeBatch();
 
-        // Assert: capture per-iteration values (example: ids)
-        ArgumentCaptor<String> idCaptor = ArgumentCaptor.forClass(String.class);
-        verify(generic, times(input.size())).setString(eq(7), idCaptor.capture());
-        List<String> ids = idCaptor.getAllValues();
+        ArgumentCaptor<Object[]> textCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(conn, times(4)).createArrayOf(eq("text"), textCaptor.capture());
+        Object[] ids = textCaptor.getAllValues().get(0);
+        Object[] genres = textCaptor.getAllValues().get(2);
 
+        assertEquals(input.size(), ids.length);
         for (int i = 0; i < input.size(); i++) {
-            assertEquals(input.get(i).id(), ids.get(i));
+            assertEquals(input.get(i).id(), ids[i]);
+            assertTrue(((String) genres[i]).startsWith("{"));
         }
+        verify(conn, times(2)).createArrayOf(eq("integer"), any());
+        verify(conn, times(1)).createArrayOf(eq("timestamptz"), any());
     }
 
     @Test
-    void test_updateBatchArtists_max() throws Exception {
-        // Arrange: build a small list with known values
+    void test_updateBatchArtists_max_is_one_statement() throws Exception {
         List<Artist> input = getArtists(50);
         when(conn.prepareStatement(DatabaseWrapper.UPDATE_BATCH_ARTISTS_SQL)).thenReturn(generic);
 
         new DatabaseWrapper(ds).updateBatchArtists(input);
 
-        verify(generic, times(input.size())).addBatch();
-        verify(generic, times(1)).executeBatch();
+        verify(conn, times(1)).prepareStatement(anyString());
+        verify(generic, times(1)).executeUpdate();
+    }
 
-        ArgumentCaptor<String> idCaptor = ArgumentCaptor.forClass(String.class);
-        verify(generic, times(input.size())).setString(eq(7), idCaptor.capture());
-        List<String> ids = idCaptor.getAllValues();
+    @Test
+    void test_updateBatchArtists_genres_are_escaped_array_literals() throws Exception {
+        Artist artist = new Artist("id", "name", 10, List.of("hip hop", "say \"hi\"", "back\\slash"), "image", 50, Instant.parse("2026-01-01T00:00:00Z"));
+        when(conn.prepareStatement(DatabaseWrapper.UPDATE_BATCH_ARTISTS_SQL)).thenReturn(generic);
 
-        for (int i = 0; i < input.size(); i++) {
-            assertEquals(input.get(i).id(), ids.get(i));
-        }
+        new DatabaseWrapper(ds).updateBatchArtists(List.of(artist));
+
+        ArgumentCaptor<Object[]> textCaptor = ArgumentCaptor.forClass(Object[].class);
+        verify(conn, times(4)).createArrayOf(eq("text"), textCaptor.capture());
+        assertEquals("{\"hip hop\",\"say \\\"hi\\\"\",\"back\\\\slash\"}", textCaptor.getAllValues().get(2)[0]);
+    }
+
+    @Test
+    void test_updateBatchArtists_empty_does_nothing() throws Exception {
+        new DatabaseWrapper(ds).updateBatchArtists(List.of());
+
+        verify(ds, never()).getConnection();
+    }
+
+    @Test
+    void test_getArtists_reads_genre_arrays() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.GET_ARTISTS_BY_ID_SQL)).thenReturn(generic);
+        when(generic.executeQuery()).thenReturn(rs);
+        Array genres = mock(Array.class);
+        when(genres.getArray()).thenReturn(new String[] {"rock", "pop"});
+        when(rs.next()).thenReturn(true, false);
+        when(rs.getString("id")).thenReturn("id");
+        when(rs.getString("name")).thenReturn("name");
+        when(rs.getObject("followers", Integer.class)).thenReturn(10);
+        when(rs.getArray("genres")).thenReturn(genres);
+        when(rs.getObject("popularity", Integer.class)).thenReturn(null);
+
+        List<Artist> artists = new DatabaseWrapper(ds).getArtists(List.of("id"));
+
+        assertEquals(1, artists.size());
+        assertEquals(List.of("rock", "pop"), artists.getFirst().genres());
+        assertEquals(10, artists.getFirst().followers());
+        assertNull(artists.getFirst().popularity());
+    }
+
+    @Test
+    void test_touchArtists_only_sets_updated_at() throws Exception {
+        when(conn.prepareStatement(DatabaseWrapper.TOUCH_ARTISTS_SQL)).thenReturn(generic);
+
+        new DatabaseWrapper(ds).touchArtists(getArtists(5));
+
+        verify(conn, times(1)).createArrayOf(eq("text"), any());
+        verify(conn, times(1)).createArrayOf(eq("timestamptz"), any());
+        verify(generic, times(1)).executeUpdate();
     }
 
     @Test
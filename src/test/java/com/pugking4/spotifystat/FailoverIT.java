@@ -0,0 +1,156 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.common.dto.Track;
+import com.pugking4.spotifystat.tracker.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.pugking4.spotifystat.DatabaseWrapperBenchmarkIT.benchmarkDataSource;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// Runs an active and a standby tracker against one Postgres and a simulated player that plays a new 20 second track
+// every 20 seconds, crashes whichever is leading a few times mid-track and prints the polling gap each failover
+// leaves, then checks every track that finished was recorded once. Set BENCHMARK_DATABASE_URL to run it.
+public class FailoverIT {
+    private static final int TRACK_MS = 20_000;
+    private static final int FAILOVERS = 4;
+    private static final String GROUP = "failover-it";
+
+    private record Poll(String node, long nanos) {}
+
+    private PGSimpleDataSource ds;
+    private Track baseTrack;
+    private long simulationStart;
+    private final List<Poll> polls = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> recorded = Collections.synchronizedList(new ArrayList<>());
+    private final List<Node> nodes = new ArrayList<>();
+
+    private final class Node {
+        final String name;
+        final LeaderElection election;
+        final Scheduler scheduler;
+
+        Node(String name) {
+            this.name = name;
+            SpotifyWrapper spotify = mock(SpotifyWrapper.class);
+            when(spotify.getCurrentlyPlaying()).thenAnswer(invocation -> {
+                polls.add(new Poll(name, System.nanoTime()));
+                return Optional.of(nowPlaying());
+            });
+            when(spotify.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+            TrackingPoller poller = new TrackingPoller(spotify, played -> recorded.add(played.track().id()));
+            election = new LeaderElection(ds, new DatabaseWrapper(ds), GROUP, poller, () -> {});
+            scheduler = new Scheduler(Set.of(election.guard(poller.spec()), election.spec()));
+            scheduler.start();
+        }
+
+        // Closing the lock connection is what the database sees when a process dies.
+        void crash() {
+            scheduler.stop();
+            election.close();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ds = benchmarkDataSource();
+        new DatabaseWrapper(ds).ensureSchema();
+        baseTrack = TestUtilities.getPlayingTrackFull(0.5, true).track();
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (Node node : nodes) node.crash();
+    }
+
+    private CurrentlyPlayingView nowPlaying() {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - simulationStart);
+        String trackId = "track-" + elapsed / TRACK_MS;
+        int progress = (int) (elapsed % TRACK_MS);
+        Track track = new Track(trackId, baseTrack.name(), baseTrack.album(), TRACK_MS, baseTrack.isExplicit(), baseTrack.isLocal(), baseTrack.artists());
+        CurrentlyPlaying full = new CurrentlyPlaying(true, progress, "playlist", track, 50);
+        return new CurrentlyPlayingView(true, progress, trackId, TRACK_MS, () -> full);
+    }
+
+    private Node leader() throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (System.nanoTime() < deadline) {
+            for (Node node : nodes) {
+                if (node.election.isLeader()) return node;
+            }
+            Thread.sleep(20);
+        }
+        return fail("No leader elected");
+    }
+
+    private Poll firstPollAfter(String node, long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(15).toNanos();
+        while (System.nanoTime() < deadline) {
+            synchronized (polls) {
+                for (Poll poll : polls) {
+                    if (poll.node().equals(node) && poll.nanos() > nanos) return poll;
+                }
+            }
+            Thread.sleep(20);
+        }
+        return fail("Standby " + node + " never took over");
+    }
+
+    private long lastPollBefore(String node, long nanos) {
+        synchronized (polls) {
+            return polls.stream().filter(p -> p.node().equals(node) && p.nanos() <= nanos).mapToLong(Poll::nanos).max().orElse(nanos);
+        }
+    }
+
+    @Test
+    void failover_resumes_within_one_poll_interval_without_losing_plays() throws Exception {
+        simulationStart = System.nanoTime();
+        nodes.add(new Node("a"));
+        leader();
+        nodes.add(new Node("b"));
+
+        long maxResumeMillis = 0;
+        for (int i = 0; i < FAILOVERS; i++) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(6_000, 14_000));
+            Node crashed = leader();
+            Node standby = nodes.get(1 - nodes.indexOf(crashed));
+            long crashedAt = System.nanoTime();
+            crashed.crash();
+
+            Poll resumed = firstPollAfter(standby.name, crashedAt);
+            long gapMillis = TimeUnit.NANOSECONDS.toMillis(resumed.nanos() - lastPollBefore(crashed.name, crashedAt));
+            long resumeMillis = TimeUnit.NANOSECONDS.toMillis(resumed.nanos() - crashedAt);
+            maxResumeMillis = Math.max(maxResumeMillis, resumeMillis);
+            System.out.printf("failover %d: %s -> %s  resumed %,d ms after crash, %,d ms since the last poll%n",
+                    i + 1, crashed.name, standby.name, resumeMillis, gapMillis);
+            nodes.set(nodes.indexOf(crashed), new Node(crashed.name));
+        }
+
+        Thread.sleep(TRACK_MS);
+        long finishedTracks = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - simulationStart) / TRACK_MS;
+        for (Node node : nodes) node.crash();
+        nodes.clear();
+
+        List<String> plays = List.copyOf(recorded);
+        Set<String> distinct = new HashSet<>(plays);
+        int duplicates = plays.size() - distinct.size();
+        List<String> lost = new ArrayList<>();
+        for (long track = 0; track < finishedTracks; track++) {
+            if (!distinct.contains("track-" + track)) lost.add("track-" + track);
+        }
+        System.out.printf("%d tracks finished, %d plays recorded, %d duplicates (%.1f%%), %d lost %s%n",
+                finishedTracks, plays.size(), duplicates, 100.0 * duplicates / Math.max(1, plays.size()), lost.size(), lost);
+
+        assertTrue(maxResumeMillis < 5_000, "Standby should resume within one active poll interval: " + maxResumeMillis + " ms");
+        assertEquals(List.of(), lost);
+        assertEquals(0, duplicates);
+    }
+}
@@ -0,0 +1,90 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.HashedWheelTimer;
+import com.pugking4.spotifystat.tracker.TaskTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashedWheelTimerTests {
+    private HashedWheelTimer timer;
+
+    @AfterEach
+    void tearDown() {
+        if (timer != null) timer.shutdown();
+    }
+
+    @Test
+    void test_fires_after_delay() throws InterruptedException {
+        timer = new HashedWheelTimer(Duration.ofMillis(10), 8, Runnable::run);
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        timer.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void test_fires_delays_longer_than_one_rotation() throws InterruptedException {
+        // 8 buckets of 10ms is one rotation every 80ms.
+        timer = new HashedWheelTimer(Duration.ofMillis(10), 8, Runnable::run);
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        timer.schedule(fired::countDown, 250, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test
+    void test_cancelled_timeout_never_fires() throws InterruptedException {
+        timer = new HashedWheelTimer(Duration.ofMillis(10), 8, Runnable::run);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch later = new CountDownLatch(1);
+
+        TaskTimer.Timeout timeout = timer.schedule(runs::incrementAndGet, 30, TimeUnit.MILLISECONDS);
+        timer.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel(false));
+        assertFalse(timeout.cancel(false));
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void test_dispatches_many_timeouts() throws InterruptedException {
+        timer = new HashedWheelTimer(Duration.ofMillis(5), 64, Runnable::run);
+        int count = 10_000;
+        CountDownLatch fired = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            timer.schedule(fired::countDown, i % 200, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(0, timer.pendingTimeouts());
+    }
+
+    @Test
+    void test_rejects_after_shutdown() {
+        timer = new HashedWheelTimer(Duration.ofMillis(10), 8, Runnable::run);
+        timer.shutdown();
+
+        assertThrows(RejectedExecutionException.class, () -> timer.schedule(() -> {}, 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void test_rejects_wheel_size_not_power_of_two() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedWheelTimer(Duration.ofMillis(10), 12, Runnable::run));
+    }
+}
@@ -0,0 +1,98 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class IdleBackoffPolicyTests {
+    @Mock
+    private DatabaseWrapper databaseWrapper;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        // Every hour of the week has plays except Wednesday 00:00 to 08:00.
+        long[] plays = new long[ListeningHeatmap.SLOTS];
+        Arrays.fill(plays, 10);
+        for (int hour = 0; hour < 8; hour++) plays[ListeningHeatmap.slot(3, hour)] = 0;
+        when(databaseWrapper.getListeningHeatmap(any(), any())).thenReturn(new ListeningHeatmap(plays));
+    }
+
+    private IdleBackoffPolicy policyAt(String instant) {
+        Clock clock = Clock.fixed(Instant.parse(instant), ZoneOffset.UTC);
+        IdleBackoffPolicy policy = new IdleBackoffPolicy(databaseWrapper, clock, Duration.ofSeconds(15), Duration.ofMinutes(5));
+        policy.refresh();
+        return policy;
+    }
+
+    private List<Long> delays(IdleBackoffPolicy policy, int count) {
+        List<Long> seconds = new ArrayList<>();
+        for (int i = 0; i < count; i++) seconds.add(policy.nextDelay().toSeconds());
+        return seconds;
+    }
+
+    @Test
+    void test_backs_off_exponentially_in_quiet_hours_up_to_max() {
+        IdleBackoffPolicy policy = policyAt("2026-10-14T03:00:00Z");
+
+        assertEquals(List.of(15L, 30L, 60L, 120L, 240L, 300L, 300L), delays(policy, 7));
+    }
+
+    @Test
+    void test_backoff_never_sleeps_past_next_busy_hour() {
+        IdleBackoffPolicy policy = policyAt("2026-10-14T07:58:00Z");
+
+        assertEquals(List.of(15L, 30L, 60L, 120L, 120L), delays(policy, 5));
+    }
+
+    @Test
+    void test_busy_hours_keep_base_delay() {
+        IdleBackoffPolicy policy = policyAt("2026-10-14T10:00:00Z");
+
+        assertEquals(List.of(15L, 15L, 15L), delays(policy, 3));
+    }
+
+    @Test
+    void test_reset_snaps_back_to_base_delay() {
+        IdleBackoffPolicy policy = policyAt("2026-10-14T03:00:00Z");
+        delays(policy, 4);
+
+        policy.reset();
+
+        assertEquals(Duration.ofSeconds(15), policy.nextDelay());
+    }
+
+    @Test
+    void test_empty_history_is_never_quiet() {
+        IdleBackoffPolicy policy = new IdleBackoffPolicy(databaseWrapper, Clock.fixed(Instant.parse("2026-10-14T03:00:00Z"), ZoneOffset.UTC), Duration.ofSeconds(15), Duration.ofMinutes(5));
+
+        assertEquals(List.of(15L, 15L), delays(policy, 2));
+        verifyNoInteractions(databaseWrapper);
+    }
+
+    @Test
+    void test_refresh_reads_history_in_clock_zone() {
+        policyAt("2026-10-14T03:00:00Z");
+
+        verify(databaseWrapper).getListeningHeatmap(ZoneOffset.UTC, Instant.parse("2026-08-19T03:00:00Z"));
+    }
+
+    @Test
+    void test_rejects_max_shorter_than_base() {
+        assertThrows(IllegalArgumentException.class, () -> new IdleBackoffPolicy(databaseWrapper, Clock.systemUTC(), Duration.ofMinutes(1), Duration.ofSeconds(15)));
+    }
+}
@@ -0,0 +1,61 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.tracker.KnownIdCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.pugking4.spotifystat.TestUtilities.getPlayedTrack;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KnownIdCacheTests {
+    @Test
+    void test_evicts_least_recently_used() {
+        KnownIdCache cache = new KnownIdCache(2);
+        cache.add(KnownIdCache.Dimension.ARTIST, "a");
+        cache.add(KnownIdCache.Dimension.ARTIST, "b");
+        cache.contains(KnownIdCache.Dimension.ARTIST, "a");
+        cache.add(KnownIdCache.Dimension.ARTIST, "c");
+
+        assertTrue(cache.contains(KnownIdCache.Dimension.ARTIST, "a"));
+        assertFalse(cache.contains(KnownIdCache.Dimension.ARTIST, "b"));
+        assertTrue(cache.contains(KnownIdCache.Dimension.ARTIST, "c"));
+    }
+
+    @Test
+    void test_capacity_is_per_dimension() {
+        KnownIdCache cache = new KnownIdCache(1);
+        cache.add(KnownIdCache.Dimension.ARTIST, "x");
+        cache.add(KnownIdCache.Dimension.TRACK, "x");
+
+        assertTrue(cache.contains(KnownIdCache.Dimension.ARTIST, "x"));
+        assertTrue(cache.contains(KnownIdCache.Dimension.TRACK, "x"));
+        assertEquals(2, cache.metrics().size());
+    }
+
+    @Test
+    void test_zero_capacity_never_remembers() {
+        KnownIdCache cache = new KnownIdCache(0);
+        PlayedTrack played = getPlayedTrack();
+        cache.remember(played);
+
+        assertFalse(cache.isFullyKnown(played));
+    }
+
+    @Test
+    void test_remember_marks_every_dimension() {
+        KnownIdCache cache = new KnownIdCache(100);
+        PlayedTrack played = getPlayedTrack();
+        cache.remember(played);
+
+        assertTrue(cache.isFullyKnown(played));
+        assertTrue(cache.contains(KnownIdCache.Dimension.ALBUM, played.track().album().id()));
+        assertEquals(List.of(played.track().id()), cache.snapshot().get(KnownIdCache.Dimension.TRACK));
+    }
+
+    @Test
+    void test_negative_capacity_throws() {
+        assertThrows(IllegalArgumentException.class, () -> new KnownIdCache(-1));
+    }
+}
@@ -0,0 +1,188 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class LeaderElectionTests {
+    @Mock
+    private DataSource ds;
+    @Mock
+    private Connection conn;
+    @Mock
+    private PreparedStatement tryLock;
+    @Mock
+    private ResultSet rs;
+    @Mock
+    private DatabaseWrapper databaseWrapper;
+    @Mock
+    private TrackingPoller poller;
+
+    private final AtomicInteger polls = new AtomicInteger();
+    private final AtomicInteger warmups = new AtomicInteger();
+    private LeaderElection election;
+    private Runnable guarded;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        MockitoAnnotations.openMocks(this);
+        when(ds.getConnection()).thenReturn(conn);
+        when(conn.prepareStatement(LeaderElection.TRY_LOCK_SQL)).thenReturn(tryLock);
+        when(tryLock.executeQuery()).thenReturn(rs);
+        when(rs.next()).thenReturn(true);
+        when(poller.checkpoint()).thenReturn(Optional.empty());
+        when(databaseWrapper.getPlaybackCheckpoint("tracker")).thenReturn(Optional.empty());
+        election = new LeaderElection(ds, databaseWrapper, "tracker", poller, warmups::incrementAndGet, Runnable::run);
+        guarded = election.guard(new ScheduledTaskSpecification("Tracking Poller", polls::incrementAndGet, DelayType.FIXED_RATE, Duration.ZERO, () -> Duration.ofSeconds(15))).task();
+    }
+
+    @Test
+    void test_standby_keeps_warm_instead_of_polling() throws SQLException {
+        when(rs.getBoolean(1)).thenReturn(false);
+
+        election.elect();
+        guarded.run();
+
+        assertFalse(election.isLeader());
+        assertEquals(0, polls.get());
+        assertEquals(1, warmups.get());
+        verify(conn).close();
+    }
+
+    @Test
+    void test_takeover_restores_checkpoint_and_polls_immediately() {
+        when(rs.getBoolean(1)).thenReturn(true);
+        PlaybackCheckpoint checkpoint = new PlaybackCheckpoint("track", 200_000, 100_000, 10_000, Instant.now());
+        PlaybackCheckpoint afterPoll = new PlaybackCheckpoint("next", 180_000, 5_000, 0, Instant.now());
+        when(databaseWrapper.getPlaybackCheckpoint("tracker")).thenReturn(Optional.of(checkpoint.encode()));
+        when(poller.checkpoint()).thenReturn(Optional.of(afterPoll));
+
+        election.elect();
+
+        assertTrue(election.isLeader());
+        assertEquals(1, election.takeovers());
+        assertEquals(1, polls.get());
+        InOrder inOrder = inOrder(poller, databaseWrapper);
+        inOrder.verify(poller).restore(checkpoint);
+        inOrder.verify(databaseWrapper).savePlaybackCheckpoint(eq("tracker"), aryEq(afterPoll.encode()));
+    }
+
+    @Test
+    void test_leader_checkpoints_after_every_poll_and_clears_when_idle() {
+        when(rs.getBoolean(1)).thenReturn(true);
+        PlaybackCheckpoint checkpoint = new PlaybackCheckpoint("track", 200_000, 100_000, 10_000, Instant.now());
+        when(poller.checkpoint()).thenReturn(Optional.empty(), Optional.of(checkpoint), Optional.empty(), Optional.empty());
+        election.elect();
+
+        guarded.run();
+        guarded.run();
+        guarded.run();
+
+        assertEquals(4, polls.get());
+        verify(databaseWrapper).savePlaybackCheckpoint(eq("tracker"), aryEq(checkpoint.encode()));
+        verify(databaseWrapper).savePlaybackCheckpoint("tracker", null);
+        verify(databaseWrapper, times(2)).savePlaybackCheckpoint(anyString(), any());
+    }
+
+    @Test
+    void test_progress_alone_does_not_save_checkpoint() {
+        when(rs.getBoolean(1)).thenReturn(true);
+        PlaybackCheckpoint checkpoint = new PlaybackCheckpoint("track", 200_000, 100_000, 10_000, Instant.now());
+        PlaybackCheckpoint later = new PlaybackCheckpoint("track", 200_000, 115_000, 10_000, Instant.now());
+        PlaybackCheckpoint restarted = new PlaybackCheckpoint("track", 200_000, 1_000, 0, Instant.now());
+        when(poller.checkpoint()).thenReturn(Optional.of(checkpoint), Optional.of(later), Optional.of(restarted));
+        election.elect();
+
+        guarded.run();
+        guarded.run();
+
+        verify(databaseWrapper).savePlaybackCheckpoint(eq("tracker"), aryEq(checkpoint.encode()));
+        verify(databaseWrapper).savePlaybackCheckpoint(eq("tracker"), aryEq(restarted.encode()));
+        verify(databaseWrapper, times(2)).savePlaybackCheckpoint(anyString(), any());
+    }
+
+    @Test
+    void test_failed_checkpoint_save_retried_on_next_poll() {
+        when(rs.getBoolean(1)).thenReturn(true);
+        PlaybackCheckpoint checkpoint = new PlaybackCheckpoint("track", 200_000, 100_000, 10_000, Instant.now());
+        when(poller.checkpoint()).thenReturn(Optional.of(checkpoint));
+        doThrow(new RuntimeException("write failed")).doNothing().when(databaseWrapper).savePlaybackCheckpoint(anyString(), any());
+        election.elect();
+
+        guarded.run();
+        guarded.run();
+
+        verify(databaseWrapper, times(2)).savePlaybackCheckpoint(eq("tracker"), aryEq(checkpoint.encode()));
+    }
+
+    @Test
+    void test_checkpoint_saved_off_the_poll_thread() {
+        List<Runnable> saves = new ArrayList<>();
+        election = new LeaderElection(ds, databaseWrapper, "tracker", poller, warmups::incrementAndGet, saves::add);
+        when(rs.getBoolean(1)).thenReturn(true);
+        PlaybackCheckpoint checkpoint = new PlaybackCheckpoint("track", 200_000, 100_000, 10_000, Instant.now());
+        when(poller.checkpoint()).thenReturn(Optional.of(checkpoint));
+
+        election.elect();
+
+        verify(databaseWrapper, never()).savePlaybackCheckpoint(anyString(), any());
+        saves.forEach(Runnable::run);
+        verify(databaseWrapper).savePlaybackCheckpoint(eq("tracker"), aryEq(checkpoint.encode()));
+    }
+
+    @Test
+    void test_steps_down_when_lock_connection_lost() throws SQLException {
+        when(rs.getBoolean(1)).thenReturn(true);
+        election.elect();
+        when(conn.isValid(anyInt())).thenReturn(false);
+
+        election.elect();
+        guarded.run();
+
+        assertFalse(election.isLeader());
+        assertEquals(1, polls.get());
+        assertEquals(1, warmups.get());
+        verify(conn).close();
+    }
+
+    @Test
+    void test_failed_checkpoint_restore_still_takes_over() {
+        when(rs.getBoolean(1)).thenReturn(true);
+        when(databaseWrapper.getPlaybackCheckpoint("tracker")).thenThrow(new RuntimeException("read failed"));
+
+        election.elect();
+
+        assertTrue(election.isLeader());
+        assertEquals(1, polls.get());
+    }
+
+    @Test
+    void test_close_releases_lock_connection() throws SQLException {
+        when(rs.getBoolean(1)).thenReturn(true);
+        election.elect();
+
+        election.close();
+
+        assertFalse(election.isLeader());
+        verify(conn).close();
+    }
+}
@@ -0,0 +1,145 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class LeaseManagerTests {
+    private static final Duration LEASE = Duration.ofSeconds(30);
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(10);
+
+    @Mock
+    private DatabaseWrapper databaseWrapper;
+    @Mock
+    private MultiUserTracker tracker;
+
+    private final AtomicLong now = new AtomicLong(0);
+    private LeaseManager leases;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        leases = new LeaseManager(databaseWrapper, "node-a", LEASE, POLL_TIMEOUT, now::get);
+    }
+
+    @Test
+    void test_claims_up_to_fair_share() {
+        when(databaseWrapper.heartbeat("node-a", LEASE)).thenReturn(new ClusterView(2, 5));
+        when(databaseWrapper.renewLeases("node-a", LEASE)).thenReturn(List.of("alice"));
+        when(databaseWrapper.claimLeases("node-a", LEASE, 2)).thenReturn(List.of("bob", "carol"));
+
+        leases.heartbeat(tracker);
+
+        verify(tracker).sync(List.of("alice", "bob", "carol"));
+        assertEquals(Set.of("alice", "bob", "carol"), leases.heldUsers());
+    }
+
+    @Test
+    void test_releases_surplus_after_stopping_it() {
+        when(databaseWrapper.heartbeat("node-a", LEASE)).thenReturn(new ClusterView(2, 4));
+        when(databaseWrapper.renewLeases("node-a", LEASE)).thenReturn(List.of("dave", "alice", "carol", "bob"));
+
+        leases.heartbeat(tracker);
+
+        InOrder inOrder = inOrder(tracker, databaseWrapper);
+        inOrder.verify(tracker).removeUser("carol");
+        inOrder.verify(tracker).removeUser("dave");
+        inOrder.verify(databaseWrapper).releaseLeases("node-a", List.of("carol", "dave"));
+        inOrder.verify(tracker).sync(List.of("alice", "bob"));
+        verify(databaseWrapper, never()).claimLeases(anyString(), any(), anyInt());
+        assertFalse(leases.holds("carol"));
+        assertTrue(leases.holds("alice"));
+    }
+
+    @Test
+    void test_lease_stops_holding_before_database_expiry() {
+        when(databaseWrapper.heartbeat("node-a", LEASE)).thenReturn(new ClusterView(1, 1));
+        when(databaseWrapper.renewLeases("node-a", LEASE)).thenReturn(List.of("alice"));
+        leases.heartbeat(tracker);
+
+        now.set(LEASE.toNanos() - 1);
+        assertTrue(leases.holds("alice"));
+        now.set(LEASE.toNanos());
+        assertFalse(leases.holds("alice"));
+    }
+
+    @Test
+    void test_failed_heartbeat_keeps_lease_until_deadline() {
+        when(databaseWrapper.heartbeat("node-a", LEASE)).thenReturn(new ClusterView(1, 1)).thenThrow(new RuntimeException("database down"));
+        when(databaseWrapper.renewLeases("node-a", LEASE)).thenReturn(List.of("alice"));
+        leases.heartbeat(tracker);
+
+        now.set(LEASE.dividedBy(3).toNanos());
+        assertThrows(RuntimeException.class, () -> leases.heartbeat(tracker));
+
+        assertTrue(leases.holds("alice"));
+        now.set(LEASE.toNanos());
+        assertFalse(leases.holds("alice"));
+    }
+
+    @Test
+    void test_lost_lease_dropped() {
+        when(databaseWrapper.heartbeat("node-a", LEASE)).thenReturn(new ClusterView(1, 2));
+        when(databaseWrapper.renewLeases("node-a", LEASE)).thenReturn(List.of("alice", "bob"), List.of("alice"));
+        when(databaseWrapper.claimLeases("node-a", LEASE, 1)).thenReturn(List.of());
+        leases.heartbeat(tracker);
+
+        leases.heartbeat(tracker);
+
+        assertFalse(leases.holds("bob"));
+        verify(tracker).sync(List.of("alice"));
+    }
+
+    @Test
+    void test_leave_stops_users_before_releasing() {
+        when(tracker.users()).thenReturn(Set.of("alice"));
+
+        leases.leave(tracker);
+
+        InOrder inOrder = inOrder(tracker, databaseWrapper);
+        inOrder.verify(tracker).removeUser("alice");
+        inOrder.verify(databaseWrapper).leaveCluster("node-a");
+    }
+
+    @Test
+    void test_rejects_short_lease() {
+        assertThrows(IllegalArgumentException.class, () -> new LeaseManager(databaseWrapper, "node-a", Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void test_rejects_lease_shorter_than_two_poll_timeouts() {
+        assertThrows(IllegalArgumentException.class, () -> new LeaseManager(databaseWrapper, "node-a", Duration.ofSeconds(19), POLL_TIMEOUT, now::get));
+    }
+
+    @Test
+    void test_no_poll_starts_without_poll_timeout_left_on_lease() {
+        when(databaseWrapper.heartbeat("node-a", LEASE)).thenReturn(new ClusterView(1, 1));
+        when(databaseWrapper.renewLeases("node-a", LEASE)).thenReturn(List.of("alice"));
+        leases.heartbeat(tracker);
+
+        now.set(LEASE.minus(POLL_TIMEOUT).toNanos() - 1);
+        assertTrue(leases.canPoll("alice"));
+        now.set(LEASE.minus(POLL_TIMEOUT).toNanos());
+        assertFalse(leases.canPoll("alice"));
+        assertTrue(leases.holds("alice"));
+    }
+
+    @Test
+    void test_fair_share_rounds_up() {
+        assertEquals(4, new ClusterView(3, 10).fairShare());
+        assertEquals(0, new ClusterView(3, 0).fairShare());
+        assertEquals(7, new ClusterView(0, 7).fairShare());
+    }
+}
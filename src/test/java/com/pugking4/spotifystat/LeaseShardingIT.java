@@ -0,0 +1,145 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.DatabaseWrapper;
+import com.pugking4.spotifystat.tracker.LeaseManager;
+import com.pugking4.spotifystat.tracker.MultiUserTracker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.ds.PGSimpleDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static com.pugking4.spotifystat.DatabaseWrapperBenchmarkIT.benchmarkDataSource;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+// Runs several lease nodes against one Postgres, each with its own connections and heartbeat thread as separate
+// tracker processes would have, and checks every user ends up on exactly one node as nodes crash, join and leave.
+// A sampler checks throughout that no user is ever held by two nodes. Set BENCHMARK_DATABASE_URL to run it.
+public class LeaseShardingIT {
+    private static final Duration LEASE = Duration.ofSeconds(3);
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+    private static final int USERS = 30;
+
+    private PGSimpleDataSource ds;
+    private final List<Node> nodes = new CopyOnWriteArrayList<>();
+    // Crashed nodes stay here: a node cut off from the database still believes it holds its users until its deadline.
+    private final List<Node> sampled = new CopyOnWriteArrayList<>();
+    private final AtomicReference<String> overlap = new AtomicReference<>();
+    private final AtomicReference<RuntimeException> heartbeatFailure = new AtomicReference<>();
+    private ScheduledExecutorService sampler;
+
+    private final class Node {
+        final LeaseManager leases;
+        final MultiUserTracker tracker = mock(MultiUserTracker.class);
+        final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+        volatile boolean crashed;
+
+        Node(String nodeId) {
+            leases = new LeaseManager(new DatabaseWrapper(ds), nodeId, LEASE, POLL_TIMEOUT, System::nanoTime);
+            heartbeats.scheduleAtFixedRate(() -> {
+                try {
+                    leases.heartbeat(tracker);
+                } catch (RuntimeException e) {
+                    // A heartbeat cut short by crash() is expected, any other failure fails the run.
+                    if (!crashed) heartbeatFailure.compareAndSet(null, e);
+                }
+            }, 0, LEASE.dividedBy(3).toMillis(), TimeUnit.MILLISECONDS);
+            nodes.add(this);
+            sampled.add(this);
+        }
+
+        void crash() {
+            crashed = true;
+            heartbeats.shutdownNow();
+            nodes.remove(this);
+        }
+
+        void leave() throws InterruptedException {
+            heartbeats.shutdown();
+            assertTrue(heartbeats.awaitTermination(5, TimeUnit.SECONDS));
+            leases.leave(tracker);
+            nodes.remove(this);
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ds = benchmarkDataSource();
+        new DatabaseWrapper(ds).ensureSchema();
+        try (Connection conn = ds.getConnection();
+             PreparedStatement ps = conn.prepareStatement("INSERT INTO tracked_users (user_id) VALUES (?)")) {
+            for (int i = 0; i < USERS; i++) {
+                ps.setString(1, "user-" + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(this::checkNoOverlap, 0, 5, TimeUnit.MILLISECONDS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (sampler != null) sampler.shutdownNow();
+        for (Node node : nodes) node.crash();
+    }
+
+    private void checkNoOverlap() {
+        Map<String, String> owners = new HashMap<>();
+        for (Node node : sampled) {
+            for (String userId : node.leases.heldUsers()) {
+                String other = owners.put(userId, node.leases.nodeId());
+                if (other != null) overlap.compareAndSet(null, userId + " held by " + other + " and " + node.leases.nodeId());
+            }
+        }
+    }
+
+    private boolean balanced() {
+        int share = Math.ceilDiv(USERS, nodes.size());
+        Set<String> covered = new HashSet<>();
+        for (Node node : nodes) {
+            Set<String> held = node.leases.heldUsers();
+            if (held.size() > share) return false;
+            covered.addAll(held);
+        }
+        return covered.size() == USERS;
+    }
+
+    private void await(String description, BooleanSupplier condition) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + Duration.ofSeconds(30).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for " + description);
+            Thread.sleep(50);
+        }
+        System.out.printf("%-28s %,d ms%n", description, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Test
+    void users_rebalance_across_nodes_without_overlap() throws Exception {
+        new Node("node-a");
+        new Node("node-b");
+        Node c = new Node("node-c");
+        await("three nodes balanced", this::balanced);
+
+        c.crash();
+        await("rebalanced after crash", this::balanced);
+
+        Node d = new Node("node-d");
+        await("rebalanced after join", () -> balanced() && !d.leases.heldUsers().isEmpty());
+
+        nodes.getFirst().leave();
+        await("rebalanced after leave", this::balanced);
+
+        assertNull(overlap.get());
+        assertNull(heartbeatFailure.get());
+    }
+}
@@ -0,0 +1,121 @@
+package com.pugking4.spotifystat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pugking4.spotifystat.tracker.*;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+// Polls a local Spotify stub for a growing number of users from one JVM and prints requests made, platform threads
+// and heap per user. Set LOAD_TEST_USERS to the largest user count to run it, for example LOAD_TEST_USERS=5000.
+// Token managers are mocks, so the heap per user is an upper bound.
+public class MultiUserLoadIT {
+    private static final Duration RUN_TIME = Duration.ofSeconds(12);
+
+    private HttpServer stub;
+    private final AtomicLong requests = new AtomicLong();
+    private byte[] currentlyPlaying;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        assumeTrue(System.getenv("LOAD_TEST_USERS") != null, "LOAD_TEST_USERS not set");
+        try (InputStream is = getClass().getResourceAsStream("/currently-playing-miku.json")) {
+            currentlyPlaying = is.readAllBytes();
+        }
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/v1/me/player/currently-playing", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, currentlyPlaying.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(currentlyPlaying);
+            }
+        });
+        stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stub.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (stub != null) stub.stop(0);
+    }
+
+    @Test
+    void load_threads_and_heap_grow_sub_linearly_with_users() throws Exception {
+        int maxUsers = Integer.parseInt(System.getenv("LOAD_TEST_USERS"));
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        int baselineThreads = threads.getThreadCount();
+
+        for (int users = 100; users <= maxUsers; users *= 10) {
+            System.gc();
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+            requests.set(0);
+
+            Result result = run(users, threads);
+
+            long heapPerUser = (result.heapWhileRunning() - heapBefore) / users;
+            System.out.printf("%,6d users  %,8d requests  %4d platform threads (peak)  ~%,d bytes heap per user%n",
+                    users, requests.get(), result.peakThreads(), heapPerUser);
+
+            assertTrue(requests.get() >= users, "Every user should have been polled at least once");
+            assertTrue(result.peakThreads() - baselineThreads < 64, "Platform threads should not grow with users: " + result.peakThreads());
+        }
+    }
+
+    private record Result(int peakThreads, long heapWhileRunning) {}
+
+    private Result run(int users, ThreadMXBean threads) throws InterruptedException {
+        HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        ObjectMapper objectMapper = new ObjectMapper();
+        String apiBase = "http://127.0.0.1:" + stub.getAddress().getPort() + "/v1";
+
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < users; i++) userIds.add("user-" + i);
+        DatabaseWrapper databaseWrapper = mock(DatabaseWrapper.class);
+        when(databaseWrapper.getTrackedUsers()).thenReturn(userIds);
+        when(databaseWrapper.forUser(anyString())).thenReturn(databaseWrapper);
+
+        Scheduler scheduler = new Scheduler(Set.of(), new HashedWheelTimer(Duration.ofMillis(100), 512, Runnable::run), Executors.newVirtualThreadPerTaskExecutor(), Duration.ofSeconds(5));
+        MultiUserTracker tracker = new MultiUserTracker(databaseWrapper, scheduler, userId -> {
+            TokenManager tokenManager = mock(TokenManager.class);
+            when(tokenManager.getAccessToken()).thenReturn("token-" + userId);
+            when(tokenManager.spec()).thenReturn(new ScheduledTaskSpecification("Token Refresher " + userId, () -> {}, DelayType.FIXED_DELAY, Duration.ofHours(1), () -> Duration.ofHours(1)));
+            return tokenManager;
+        }, tokenManager -> new SpotifyWrapper(httpClient, objectMapper, tokenManager, apiBase), null, 64);
+
+        scheduler.start();
+        tracker.sync();
+
+        int peakThreads = 0;
+        long deadline = System.nanoTime() + RUN_TIME.toNanos();
+        while (System.nanoTime() < deadline) {
+            peakThreads = Math.max(peakThreads, threads.getThreadCount());
+            Thread.sleep(100);
+        }
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        scheduler.stop();
+        return new Result(peakThreads, heap);
+    }
+}
@@ -0,0 +1,317 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class MultiUserTrackerTests {
+    @Mock
+    private DatabaseWrapper databaseWrapper;
+    @Mock
+    private DatabaseWrapper userDatabaseWrapper;
+    @Mock
+    private Scheduler scheduler;
+    @Mock
+    private TokenManager tokenManager;
+    @Mock
+    private SpotifyWrapper spotifyWrapper;
+
+    private final List<String> authorised = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(databaseWrapper.forUser(anyString())).thenReturn(userDatabaseWrapper);
+    }
+
+    private MultiUserTracker tracker(int maxConcurrentRequests) {
+        return new MultiUserTracker(databaseWrapper, scheduler, userId -> {
+            authorised.add(userId);
+            return tokenManager;
+        }, tm -> spotifyWrapper, null, maxConcurrentRequests, userId -> true, Runnable::run);
+    }
+
+    private List<ScheduledTaskSpecification> pollerSpecs() {
+        ArgumentCaptor<ScheduledTaskSpecification> captor = ArgumentCaptor.forClass(ScheduledTaskSpecification.class);
+        verify(scheduler, atLeastOnce()).add(captor.capture());
+        return captor.getAllValues().stream().filter(s -> s != null && s.description().startsWith("Tracking Poller")).toList();
+    }
+
+    @Test
+    void test_sync_adds_new_users() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice", "bob"));
+        MultiUserTracker tracker = tracker(4);
+
+        tracker.sync();
+
+        assertEquals(2, tracker.userCount());
+        assertEquals(List.of("alice", "bob"), authorised);
+        assertEquals(List.of("Tracking Poller alice", "Tracking Poller bob"), pollerSpecs().stream().map(ScheduledTaskSpecification::description).toList());
+        verify(databaseWrapper).forUser("alice");
+        verify(databaseWrapper).forUser("bob");
+    }
+
+    @Test
+    void test_sync_removes_departed_users_and_keeps_existing() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice", "bob"), List.of("bob"));
+        MultiUserTracker tracker = tracker(4);
+
+        tracker.sync();
+        ScheduledTaskSpecification alicePoller = pollerSpecs().getFirst();
+        tracker.sync();
+
+        assertEquals(1, tracker.userCount());
+        assertEquals(List.of("alice", "bob"), authorised);
+        verify(scheduler).remove(alicePoller);
+    }
+
+    @Test
+    void test_rejected_refresh_token_drops_user_before_taking_a_permit() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice"));
+        when(tokenManager.getAccessToken()).thenThrow(new SpotifyAuthenticationException(400, "Refresh token rejected for user alice"));
+        when(tokenManager.needsAuthorisation()).thenReturn(true);
+        MultiUserTracker tracker = tracker(1);
+        tracker.sync();
+
+        pollerSpecs().getFirst().task().run();
+
+        assertEquals(0, tracker.userCount());
+        verify(spotifyWrapper, never()).getCurrentlyPlaying();
+        tracker.sync();
+        assertEquals(List.of("alice", "alice"), authorised);
+    }
+
+    @Test
+    void test_failed_refresh_kept_when_token_still_accepted() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice"));
+        when(tokenManager.getAccessToken()).thenThrow(new SpotifyAuthenticationException(-1, "Network failure"));
+        MultiUserTracker tracker = tracker(1);
+        tracker.sync();
+
+        assertThrows(SpotifyAuthenticationException.class, () -> pollerSpecs().getFirst().task().run());
+
+        assertEquals(1, tracker.userCount());
+        verify(spotifyWrapper, never()).getCurrentlyPlaying();
+    }
+
+    @Test
+    void test_failed_authorisation_retried_on_next_sync() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice"));
+        AtomicInteger attempts = new AtomicInteger();
+        MultiUserTracker tracker = new MultiUserTracker(databaseWrapper, scheduler, userId -> {
+            if (attempts.incrementAndGet() == 1) throw new SpotifyAuthenticationException(-1, "no refresh token");
+            return tokenManager;
+        }, tm -> spotifyWrapper, null, 4, userId -> true, Runnable::run);
+
+        tracker.sync();
+        assertEquals(0, tracker.userCount());
+
+        tracker.sync();
+        assertEquals(1, tracker.userCount());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void test_user_awaiting_approval_does_not_hold_up_sync() throws Exception {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice", "bob"));
+        CountDownLatch approved = new CountDownLatch(1);
+        AtomicInteger aliceAttempts = new AtomicInteger();
+        ExecutorService authorisers = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            MultiUserTracker tracker = new MultiUserTracker(databaseWrapper, scheduler, userId -> {
+                if (userId.equals("alice")) {
+                    aliceAttempts.incrementAndGet();
+                    try {
+                        approved.await();
+                    } catch (InterruptedException e) {
+                        throw new SpotifyAuthenticationException(-1, "Authorisation abandoned");
+                    }
+                }
+                return tokenManager;
+            }, tm -> spotifyWrapper, null, 4, userId -> true, authorisers);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> tracker.sync());
+            await(() -> tracker.users().equals(Set.of("bob")));
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> tracker.sync());
+            assertEquals(1, aliceAttempts.get());
+
+            approved.countDown();
+            await(() -> tracker.users().equals(Set.of("alice", "bob")));
+        } finally {
+            authorisers.shutdownNow();
+        }
+    }
+
+    @Test
+    void test_removed_user_abandons_pending_authorisation() throws Exception {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice"), List.of());
+        AtomicBoolean abandoned = new AtomicBoolean();
+        ExecutorService authorisers = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            MultiUserTracker tracker = new MultiUserTracker(databaseWrapper, scheduler, userId -> {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    abandoned.set(true);
+                }
+                throw new SpotifyAuthenticationException(-1, "Authorisation abandoned");
+            }, tm -> spotifyWrapper, null, 4, userId -> true, authorisers);
+
+            tracker.sync();
+            Thread.sleep(50);
+            tracker.sync();
+
+            await(abandoned::get);
+            assertEquals(0, tracker.userCount());
+        } finally {
+            authorisers.shutdownNow();
+        }
+    }
+
+    @Test
+    void test_polls_handed_to_user_recorder() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice"));
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)), Optional.of(TestUtilities.getPlayingTrackView(0.80)));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+        List<String> recorded = new ArrayList<>();
+        MultiUserTracker tracker = new MultiUserTracker(databaseWrapper, scheduler, userId -> tokenManager, tm -> spotifyWrapper, null, 4,
+                userId -> true, Runnable::run, userId -> play -> recorded.add(userId));
+        tracker.sync();
+
+        Runnable poll = pollerSpecs().getFirst().task();
+        poll.run();
+        poll.run();
+
+        assertEquals(List.of("alice"), recorded);
+        verify(userDatabaseWrapper, never()).insertPlayedTrack(any());
+    }
+
+    @Test
+    void test_polls_recorded_against_user() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice"));
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)), Optional.of(TestUtilities.getPlayingTrackView(0.80)));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+        MultiUserTracker tracker = tracker(4);
+        tracker.sync();
+
+        Runnable poll = pollerSpecs().getFirst().task();
+        poll.run();
+        poll.run();
+
+        verify(userDatabaseWrapper).insertPlayedTrack(any());
+        verify(databaseWrapper, never()).insertPlayedTrack(any());
+    }
+
+    @Test
+    void test_concurrent_polls_limited_by_semaphore() throws Exception {
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 16; i++) users.add("user-" + i);
+        when(databaseWrapper.getTrackedUsers()).thenReturn(users);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(spotifyWrapper.getCurrentlyPlaying()).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return Optional.empty();
+        });
+        MultiUserTracker tracker = tracker(3);
+        tracker.sync();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> polls = new ArrayList<>();
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (ScheduledTaskSpecification spec : pollerSpecs()) {
+                polls.add(workers.submit(() -> {
+                    start.await();
+                    spec.task().run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> poll : polls) poll.get(5, TimeUnit.SECONDS);
+        }
+
+        assertTrue(maxInFlight.get() <= 3, "At most 3 users should poll at once: " + maxInFlight.get());
+        verify(spotifyWrapper, times(16)).getCurrentlyPlaying();
+    }
+
+    @Test
+    void test_rejects_zero_concurrency() {
+        assertThrows(IllegalArgumentException.class, () -> tracker(0));
+    }
+
+    @Test
+    void test_poll_skipped_without_lease() {
+        when(databaseWrapper.getTrackedUsers()).thenReturn(List.of("alice"));
+        AtomicBoolean leased = new AtomicBoolean(false);
+        MultiUserTracker tracker = new MultiUserTracker(databaseWrapper, scheduler, userId -> tokenManager, tm -> spotifyWrapper, null, 4, userId -> leased.get(), Runnable::run);
+        tracker.sync();
+        Runnable poll = pollerSpecs().getFirst().task();
+
+        poll.run();
+        verify(spotifyWrapper, never()).getCurrentlyPlaying();
+
+        leased.set(true);
+        poll.run();
+        verify(spotifyWrapper).getCurrentlyPlaying();
+    }
+
+    @Test
+    void test_remove_waits_for_running_poll() throws Exception {
+        CountDownLatch polling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenAnswer(invocation -> {
+            polling.countDown();
+            release.await();
+            return Optional.empty();
+        });
+        MultiUserTracker tracker = tracker(4);
+        tracker.sync(List.of("alice"));
+        Runnable poll = pollerSpecs().getFirst().task();
+
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            workers.submit(poll);
+            assertTrue(polling.await(5, TimeUnit.SECONDS));
+            Future<?> removal = workers.submit(() -> tracker.removeUser("alice"));
+
+            assertThrows(TimeoutException.class, () -> removal.get(100, TimeUnit.MILLISECONDS));
+            release.countDown();
+            removal.get(5, TimeUnit.SECONDS);
+        }
+
+        poll.run();
+        verify(spotifyWrapper, times(1)).getCurrentlyPlaying();
+        assertEquals(Set.of(), tracker.users());
+    }
+}
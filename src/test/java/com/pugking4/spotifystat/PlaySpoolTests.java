@@ -0,0 +1,143 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.tracker.PlaySpool;
+import com.pugking4.spotifystat.tracker.SpooledPlays;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.pugking4.spotifystat.TestUtilities.getPlayedTrack;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlaySpoolTests {
+    @TempDir
+    Path tempDir;
+
+    private Path path;
+    private PlaySpool spool;
+
+    @BeforeEach
+    void setUp() {
+        path = tempDir.resolve("play_spool.bin");
+        spool = new PlaySpool(path);
+    }
+
+    @AfterEach
+    void tearDown() {
+        spool.close();
+    }
+
+    @Test
+    void test_appended_plays_read_back_in_order() {
+        List<PlayedTrack> plays = List.of(getPlayedTrack(), getPlayedTrack(), getPlayedTrack());
+
+        spool.append(plays.subList(0, 2));
+        spool.append(plays.subList(2, 3));
+        SpooledPlays pending = spool.readPending(10);
+
+        assertFalse(spool.isEmpty());
+        assertEquals(plays, pending.plays());
+    }
+
+    @Test
+    void test_user_id_read_back_with_play() {
+        PlayedTrack own = getPlayedTrack();
+        PlayedTrack alicePlay = getPlayedTrack();
+
+        spool.append(List.of(own));
+        spool.append("alice", List.of(alicePlay));
+        SpooledPlays pending = spool.readPending(10);
+
+        assertEquals(List.of(own, alicePlay), pending.plays());
+        assertEquals(Arrays.asList(null, "alice"), pending.userIds());
+    }
+
+    @Test
+    void test_failed_append_leaves_no_partial_batch() {
+        PlayedTrack first = getPlayedTrack();
+        PlayedTrack written = getPlayedTrack();
+        PlayedTrack unencodable = new PlayedTrack(null, written.contextType(), written.device(), written.currentPopularity(), written.timeFinished());
+        PlayedTrack last = getPlayedTrack();
+        spool.append(List.of(first));
+
+        assertThrows(RuntimeException.class, () -> spool.append(List.of(written, unencodable)));
+        spool.append(List.of(last));
+
+        assertEquals(List.of(first, last), spool.readPending(10).plays());
+    }
+
+    @Test
+    void test_spool_survives_reopen() {
+        PlayedTrack play = getPlayedTrack();
+        spool.append(List.of(play));
+        spool.close();
+
+        spool = new PlaySpool(path);
+
+        assertEquals(List.of(play), spool.readPending(10).plays());
+    }
+
+    @Test
+    void test_readPending_respects_limit() {
+        spool.append(List.of(getPlayedTrack(), getPlayedTrack(), getPlayedTrack()));
+
+        assertEquals(2, spool.readPending(2).plays().size());
+    }
+
+    @Test
+    void test_discardUpTo_keeps_later_records() {
+        List<PlayedTrack> plays = List.of(getPlayedTrack(), getPlayedTrack(), getPlayedTrack());
+        spool.append(plays);
+
+        SpooledPlays first = spool.readPending(1);
+        spool.discardUpTo(first.endOffset());
+
+        assertEquals(plays.subList(1, 3), spool.readPending(10).plays());
+
+        spool.discardUpTo(spool.readPending(10).endOffset());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    void test_torn_tail_is_truncated() throws IOException {
+        PlayedTrack play = getPlayedTrack();
+        spool.append(List.of(play));
+        long goodSize = Files.size(path);
+        Files.write(path, new byte[] {0, 0, 1, 0, 1, 2}, StandardOpenOption.APPEND);
+
+        SpooledPlays pending = spool.readPending(10);
+
+        assertEquals(List.of(play), pending.plays());
+        assertEquals(goodSize, Files.size(path));
+    }
+
+    @Test
+    void test_checksum_mismatch_stops_reading() throws IOException {
+        PlayedTrack play = getPlayedTrack();
+        spool.append(List.of(play));
+        long firstSize = Files.size(path);
+        spool.append(List.of(getPlayedTrack()));
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(firstSize + 12);
+            byte original = file.readByte();
+            file.seek(firstSize + 12);
+            file.writeByte(original ^ 0xFF);
+        }
+
+        SpooledPlays pending = spool.readPending(10);
+
+        assertEquals(List.of(play), pending.plays());
+        assertEquals(firstSize, Files.size(path));
+    }
+}
@@ -0,0 +1,103 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.*;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestBackoffTests {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(0);
+    private final RequestBackoff backoff = new RequestBackoff(new RequestBackoffConfig(Duration.ofSeconds(1), Duration.ofSeconds(8)), now::get, () -> 0.0);
+
+    private BackoffState state(SpotifyEndpoint endpoint) {
+        return backoff.state().get(endpoint);
+    }
+
+    @Test
+    void test_retry_after_blocks_every_endpoint_then_recovers_at_full_speed() {
+        backoff.failed(SpotifyEndpoint.DEVICES, new SpotifyApiException(429, "Too many requests", Duration.ofSeconds(10)));
+
+        SpotifyApiException blocked = assertThrows(SpotifyApiException.class, () -> backoff.permit(SpotifyEndpoint.CURRENTLY_PLAYING));
+        assertEquals(Duration.ofSeconds(10), blocked.getRetryAfter().orElseThrow());
+        assertEquals(BackoffState.Breaker.OPEN, state(SpotifyEndpoint.ARTISTS).breaker());
+
+        now.addAndGet(10 * SECOND);
+        backoff.permit(SpotifyEndpoint.CURRENTLY_PLAYING);
+        backoff.succeeded(SpotifyEndpoint.CURRENTLY_PLAYING);
+
+        assertEquals(BackoffState.Breaker.CLOSED, state(SpotifyEndpoint.CURRENTLY_PLAYING).breaker());
+        for (int i = 0; i < 100; i++) backoff.permit(SpotifyEndpoint.CURRENTLY_PLAYING);
+    }
+
+    @Test
+    void test_background_429_leaves_foreground_endpoints_open() {
+        backoff.failed(SpotifyEndpoint.ARTISTS, new SpotifyApiException(429, "Too many requests", Duration.ofSeconds(10)));
+
+        assertThrows(SpotifyApiException.class, () -> backoff.permit(SpotifyEndpoint.ARTISTS));
+        backoff.permit(SpotifyEndpoint.CURRENTLY_PLAYING);
+        backoff.permit(SpotifyEndpoint.DEVICES);
+        assertEquals(BackoffState.Breaker.CLOSED, state(SpotifyEndpoint.CURRENTLY_PLAYING).breaker());
+    }
+
+    @Test
+    void test_server_errors_back_off_exponentially_up_to_max() {
+        for (long expected : new long[] {500, 1000, 2000, 4000, 4000}) {
+            Duration delay = backoff.failed(SpotifyEndpoint.DEVICES, new SpotifyApiException(502, "Server error: 502"));
+            assertEquals(Duration.ofMillis(expected), delay);
+            assertEquals(Duration.ofMillis(expected), state(SpotifyEndpoint.DEVICES).retryIn());
+        }
+        assertEquals(5, state(SpotifyEndpoint.DEVICES).consecutiveFailures());
+        assertEquals(BackoffState.Breaker.CLOSED, state(SpotifyEndpoint.CURRENTLY_PLAYING).breaker());
+    }
+
+    @Test
+    void test_half_open_lets_one_probe_through() {
+        backoff.failed(SpotifyEndpoint.DEVICES, new SpotifyApiException(503, "Server error: 503"));
+        now.addAndGet(SECOND);
+
+        backoff.permit(SpotifyEndpoint.DEVICES);
+        assertEquals(BackoffState.Breaker.HALF_OPEN, state(SpotifyEndpoint.DEVICES).breaker());
+        assertThrows(SpotifyApiException.class, () -> backoff.permit(SpotifyEndpoint.DEVICES));
+
+        backoff.failed(SpotifyEndpoint.DEVICES, new SpotifyApiException(503, "Server error: 503"));
+        assertEquals(BackoffState.Breaker.OPEN, state(SpotifyEndpoint.DEVICES).breaker());
+        assertEquals(Duration.ofSeconds(1), state(SpotifyEndpoint.DEVICES).retryIn());
+    }
+
+    @Test
+    void test_non_transient_failure_closes_breaker() {
+        backoff.failed(SpotifyEndpoint.ARTISTS, new SpotifyApiException(-1, "Network failure: reset"));
+        now.addAndGet(SECOND);
+        backoff.permit(SpotifyEndpoint.ARTISTS);
+
+        assertNull(backoff.failed(SpotifyEndpoint.ARTISTS, new SpotifyApiException(404, "Not found")));
+
+        assertEquals(BackoffState.Breaker.CLOSED, state(SpotifyEndpoint.ARTISTS).breaker());
+        assertEquals(0, state(SpotifyEndpoint.ARTISTS).consecutiveFailures());
+    }
+
+    @Test
+    void test_rejects_invalid_config() {
+        assertThrows(IllegalArgumentException.class, () -> new RequestBackoffConfig(Duration.ZERO, Duration.ofSeconds(1)));
+        assertThrows(IllegalArgumentException.class, () -> new RequestBackoffConfig(Duration.ofSeconds(2), Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void test_released_probe_lets_next_request_probe_at_once() {
+        backoff.failed(SpotifyEndpoint.DEVICES, new SpotifyApiException(503, "Server error: 503"));
+        now.addAndGet(10 * SECOND);
+        backoff.permit(SpotifyEndpoint.DEVICES);
+        assertThrows(SpotifyApiException.class, () -> backoff.permit(SpotifyEndpoint.DEVICES));
+
+        backoff.release(SpotifyEndpoint.DEVICES);
+
+        backoff.permit(SpotifyEndpoint.DEVICES);
+        assertEquals(BackoffState.Breaker.HALF_OPEN, state(SpotifyEndpoint.DEVICES).breaker());
+    }
+}
@@ -0,0 +1,139 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.RequestGovernor;
+import com.pugking4.spotifystat.tracker.RequestGovernorConfig;
+import com.pugking4.spotifystat.tracker.SpotifyApiException;
+import com.pugking4.spotifystat.tracker.SpotifyEndpoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestGovernorTests {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(0);
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+    }
+
+    private Future<?> acquireAsync(RequestGovernor governor, SpotifyEndpoint endpoint) {
+        return workers.submit(() -> {
+            governor.acquire(endpoint);
+            return null;
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void test_burst_granted_without_waiting() throws InterruptedException {
+        RequestGovernor governor = new RequestGovernor(new RequestGovernorConfig(1, 5, 0), now::get);
+
+        for (int i = 0; i < 5; i++) governor.acquire(SpotifyEndpoint.ARTISTS);
+
+        assertEquals(5, governor.metrics().get(SpotifyEndpoint.ARTISTS).granted());
+        assertEquals(0, governor.metrics().get(SpotifyEndpoint.ARTISTS).maxWait().toNanos());
+    }
+
+    @Test
+    void test_waits_for_refill_once_burst_spent() throws Exception {
+        RequestGovernor governor = new RequestGovernor(new RequestGovernorConfig(1, 1, 0), now::get);
+        governor.acquire(SpotifyEndpoint.DEVICES);
+
+        Future<?> second = acquireAsync(governor, SpotifyEndpoint.DEVICES);
+        assertThrows(TimeoutException.class, () -> second.get(100, TimeUnit.MILLISECONDS));
+
+        now.addAndGet(SECOND);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(SECOND, governor.metrics().get(SpotifyEndpoint.DEVICES).maxWait().toNanos());
+    }
+
+    @Test
+    void test_gives_up_after_max_wait() throws Exception {
+        RequestGovernor governor = new RequestGovernor(new RequestGovernorConfig(0.1, 1, 0), now::get);
+        governor.acquire(SpotifyEndpoint.CURRENTLY_PLAYING);
+
+        Future<?> second = acquireAsync(governor, SpotifyEndpoint.CURRENTLY_PLAYING);
+        await(() -> governor.metrics().get(SpotifyEndpoint.CURRENTLY_PLAYING).waiting() == 1);
+        now.addAndGet(RequestGovernor.MAX_WAIT.toNanos());
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SpotifyApiException.class, e.getCause());
+        assertEquals(0, governor.metrics().get(SpotifyEndpoint.CURRENTLY_PLAYING).waiting());
+    }
+
+    @Test
+    void test_playback_poll_overtakes_queued_background_request() throws Exception {
+        RequestGovernor governor = new RequestGovernor(new RequestGovernorConfig(1, 1, 0), now::get);
+        governor.acquire(SpotifyEndpoint.ARTISTS);
+
+        Future<?> background = acquireAsync(governor, SpotifyEndpoint.ARTISTS);
+        await(() -> governor.metrics().get(SpotifyEndpoint.ARTISTS).waiting() == 1);
+        Future<?> poll = acquireAsync(governor, SpotifyEndpoint.CURRENTLY_PLAYING);
+        await(() -> governor.metrics().get(SpotifyEndpoint.CURRENTLY_PLAYING).waiting() == 1);
+
+        now.addAndGet(SECOND);
+        poll.get(5, TimeUnit.SECONDS);
+        assertFalse(background.isDone());
+
+        now.addAndGet(SECOND);
+        background.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void test_background_leaves_reserve_for_foreground() throws Exception {
+        RequestGovernor governor = new RequestGovernor(new RequestGovernorConfig(1, 5, 2), now::get);
+        for (int i = 0; i < 3; i++) governor.acquire(SpotifyEndpoint.ARTISTS);
+
+        Future<?> background = acquireAsync(governor, SpotifyEndpoint.ARTISTS);
+        assertThrows(TimeoutException.class, () -> background.get(100, TimeUnit.MILLISECONDS));
+        governor.acquire(SpotifyEndpoint.CURRENTLY_PLAYING);
+        governor.acquire(SpotifyEndpoint.DEVICES);
+
+        now.addAndGet(3 * SECOND);
+        background.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void test_unlimited_never_waits_but_counts() throws InterruptedException {
+        RequestGovernor governor = RequestGovernor.unlimited();
+
+        for (int i = 0; i < 1000; i++) governor.acquire(SpotifyEndpoint.CURRENTLY_PLAYING);
+
+        assertEquals(1000, governor.metrics().get(SpotifyEndpoint.CURRENTLY_PLAYING).granted());
+        assertEquals(0, governor.metrics().get(SpotifyEndpoint.ARTISTS).granted());
+    }
+
+    @Test
+    void test_rejects_invalid_config() {
+        assertThrows(IllegalArgumentException.class, () -> new RequestGovernorConfig(0, 5));
+        assertThrows(IllegalArgumentException.class, () -> new RequestGovernorConfig(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RequestGovernorConfig(1, 5, 5));
+        assertEquals(6, new RequestGovernorConfig(1, 30).backgroundReserve());
+    }
+
+    @Test
+    void test_default_config_is_limited() {
+        assertEquals(3, RequestGovernorConfig.DEFAULT.requestsPerSecond());
+        assertEquals(30, RequestGovernorConfig.DEFAULT.burst());
+    }
+}
@@ -0,0 +1,63 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.HashedWheelTimer;
+import com.pugking4.spotifystat.tracker.TaskTimer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Cost of scheduling and cancelling one poll while 100k others are registered, on the hashed wheel and on a
+// ScheduledThreadPoolExecutor. Run main() after mvn test-compile.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+    @Param({"100000"})
+    public int registered;
+
+    private HashedWheelTimer wheel;
+    private TaskTimer executor;
+    private ScheduledThreadPoolExecutor pool;
+
+    @Setup
+    public void setUp() {
+        wheel = new HashedWheelTimer(Duration.ofMillis(100), 512, Runnable::run);
+        pool = new ScheduledThreadPoolExecutor(2);
+        pool.setRemoveOnCancelPolicy(true);
+        executor = TaskTimer.of(pool);
+        for (int i = 0; i < registered; i++) {
+            long delay = ThreadLocalRandom.current().nextLong(TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(20));
+            wheel.schedule(() -> {}, delay, TimeUnit.MILLISECONDS);
+            executor.schedule(() -> {}, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        wheel.shutdown();
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean wheelScheduleAndCancel() {
+        return wheel.schedule(() -> {}, ThreadLocalRandom.current().nextLong(1, 600), TimeUnit.SECONDS).cancel(false);
+    }
+
+    @Benchmark
+    public boolean executorScheduleAndCancel() {
+        return executor.schedule(() -> {}, ThreadLocalRandom.current().nextLong(1, 600), TimeUnit.SECONDS).cancel(false);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SchedulerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -3,7 +3,9 @@ package com.pugking4.spotifystat;
 import com.pugking4.spotifystat.tracker.DelayType;
 import com.pugking4.spotifystat.tracker.ScheduledTaskSpecification;
 import com.pugking4.spotifystat.tracker.Scheduler;
+import com.pugking4.spotifystat.tracker.SpotifyApiException;
 import com.pugking4.spotifystat.tracker.SpotifyOAuthServer;
+import com.pugking4.spotifystat.tracker.TaskTimer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -11,12 +13,16 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -28,44 +34,37 @@ public class SchedulerTests {
     @Mock
     ScheduledFuture<?> future;
 
+    AtomicLong now = new AtomicLong(0);
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        doReturn(future).when(executor).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
     }
 
-    @Test
-    void test_start_schedules_fixed_rate_specs() {
-        var ran = new AtomicBoolean(false);
-        ScheduledTaskSpecification spec = new ScheduledTaskSpecification(
-                "poller",
-                () -> ran.set(true),
-                DelayType.FIXED_RATE,
-                Duration.ZERO,
-                () -> Duration.ofSeconds(5)
-        );
+    private static ScheduledTaskSpecification spec(Runnable task, DelayType type, Duration initialDelay, AtomicReference<Duration> delay) {
+        return new ScheduledTaskSpecification("poller", task, type, initialDelay, delay::get);
+    }
 
-        doReturn(future).when(executor).scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    private Runnable lastScheduled(long expectedNanos) {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, atLeastOnce()).schedule(captor.capture(), eq(expectedNanos), eq(TimeUnit.NANOSECONDS));
+        return captor.getValue();
+    }
 
-        Scheduler s = new Scheduler(Set.of(spec), executor);
+    @Test
+    void test_start_schedules_initial_delay_in_nanoseconds() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> {}, DelayType.FIXED_RATE, Duration.ofMillis(1500), delay)), executor, now::get);
         s.start();
 
-        verify(executor).scheduleAtFixedRate(any(Runnable.class), eq(0L), eq(5L), eq(TimeUnit.SECONDS));
+        verify(executor).schedule(any(Runnable.class), eq(1_500_000_000L), eq(TimeUnit.NANOSECONDS));
     }
 
     @Test
     void test_start_schedules_fixed_rate_specs_and_stops() {
-        var ran = new AtomicBoolean(false);
-        ScheduledTaskSpecification spec = new ScheduledTaskSpecification(
-                "poller",
-                () -> ran.set(true),
-                DelayType.FIXED_RATE,
-                Duration.ZERO,
-                () -> Duration.ofSeconds(5)
-        );
-
-        doReturn(future).when(executor).scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
-
-        Scheduler s = new Scheduler(Set.of(spec), executor);
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> {}, DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, now::get);
         s.start();
         s.stop();
 
@@ -74,44 +73,74 @@ public class SchedulerTests {
     }
 
     @Test
-    void test_start_schedules_fixed_delay_specs() {
-        var ran = new AtomicBoolean(false);
-        ScheduledTaskSpecification spec = new ScheduledTaskSpecification(
-                "poller",
-                () -> ran.set(true),
-                DelayType.FIXED_DELAY,
-                Duration.ZERO,
-                () -> Duration.ofSeconds(5)
-        );
+    void test_fixed_rate_measures_next_run_from_planned_start() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> now.addAndGet(2_000_000_000L), DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, now::get);
+        s.start();
 
-        doReturn(future).when(executor).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+        lastScheduled(0L).run();
 
-        Scheduler s = new Scheduler(Set.of(spec), executor);
+        verify(executor).schedule(any(Runnable.class), eq(3_000_000_000L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    void test_fixed_rate_overrun_runs_next_immediately() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> now.addAndGet(7_000_000_000L), DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, now::get);
         s.start();
 
-        verify(executor).scheduleWithFixedDelay(any(Runnable.class), eq(0L), eq(5L), eq(TimeUnit.SECONDS));
+        lastScheduled(0L).run();
+
+        verify(executor, times(2)).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.NANOSECONDS));
     }
 
     @Test
-    void test_wrap_executes_task_try_path() {
-        var ran = new AtomicBoolean(false);
-        ScheduledTaskSpecification spec = new ScheduledTaskSpecification(
-                "poller",
-                () -> ran.set(true),
-                DelayType.FIXED_RATE,
-                Duration.ZERO,
-                () -> Duration.ofSeconds(5)
-        );
+    void test_fixed_delay_measures_next_run_from_completion() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> now.addAndGet(2_000_000_000L), DelayType.FIXED_DELAY, Duration.ZERO, delay)), executor, now::get);
+        s.start();
 
-        doReturn(future).when(executor).scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+        lastScheduled(0L).run();
 
-        Scheduler s = new Scheduler(Set.of(spec), executor);
+        verify(executor).schedule(any(Runnable.class), eq(5_000_000_000L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    void test_changed_delay_is_used_on_next_run_with_sub_second_precision() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> {}, DelayType.FIXED_DELAY, Duration.ZERO, delay)), executor, now::get);
         s.start();
 
-        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
-        verify(executor).scheduleAtFixedRate(captor.capture(), eq(0L), eq(5L), eq(TimeUnit.SECONDS));
+        lastScheduled(0L).run();
+        Runnable second = lastScheduled(5_000_000_000L);
+
+        delay.set(Duration.ofMillis(250));
+        second.run();
+
+        verify(executor).schedule(any(Runnable.class), eq(250_000_000L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    void test_stopped_task_does_not_reschedule() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> {}, DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, now::get);
+        s.start();
+        Runnable first = lastScheduled(0L);
+
+        s.stop();
+        first.run();
+
+        verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    void test_wrap_executes_task_try_path() {
+        var ran = new AtomicBoolean(false);
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> ran.set(true), DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, now::get);
+        s.start();
 
-        captor.getValue().run();
+        lastScheduled(0L).run();
         assertTrue(ran.get());
     }
 
@@ -119,34 +148,111 @@ public class SchedulerTests {
     void test_wrapped_task_throws_error() {
         var ran = new AtomicBoolean(false);
         AtomicInteger runs = new AtomicInteger(0);
-        ScheduledTaskSpecification spec = new ScheduledTaskSpecification(
-                "poller",
-                () -> {
-                    int n = runs.incrementAndGet();
-                    if (n == 1) throw new RuntimeException("test");
-                    ran.set(true);
-                },
-                DelayType.FIXED_RATE,
-                Duration.ZERO,
-                () -> Duration.ofSeconds(5)
-        );
-
-        doReturn(future).when(executor).scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
-
-        Scheduler s = new Scheduler(Set.of(spec), executor);
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Runnable task = () -> {
+            int n = runs.incrementAndGet();
+            if (n == 1) throw new RuntimeException("test");
+            ran.set(true);
+        };
+        Scheduler s = new Scheduler(Set.of(spec(task, DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, now::get);
         s.start();
 
-        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
-        verify(executor).scheduleAtFixedRate(captor.capture(), eq(0L), eq(5L), eq(TimeUnit.SECONDS));
+        assertDoesNotThrow(lastScheduled(0L)::run);
+        assertFalse(ran.get());
+
+        assertDoesNotThrow(lastScheduled(5_000_000_000L)::run);
+        assertTrue(ran.get());
+    }
+
+    @Test
+    void test_retry_after_holds_task_back_past_its_cadence() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        AtomicInteger runs = new AtomicInteger(0);
+        Runnable task = () -> {
+            if (runs.incrementAndGet() == 1) throw new SpotifyApiException(429, "Too many requests", Duration.ofSeconds(30));
+        };
+        Scheduler s = new Scheduler(Set.of(spec(task, DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, now::get);
+        s.start();
 
-        Runnable wrapped = captor.getValue();
+        lastScheduled(0L).run();
+        Runnable retry = lastScheduled(30_000_000_000L);
+        now.set(30_000_000_000L);
+        retry.run();
 
-        assertDoesNotThrow(wrapped::run);
+        assertEquals(2, runs.get());
+        verify(executor).schedule(any(Runnable.class), eq(5_000_000_000L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    void test_add_after_start_schedules_task() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(), executor, now::get);
+        s.start();
+
+        s.add(spec(() -> {}, DelayType.FIXED_RATE, Duration.ofSeconds(2), delay));
+
+        verify(executor).schedule(any(Runnable.class), eq(2_000_000_000L), eq(TimeUnit.NANOSECONDS));
+        assertEquals(1, s.size());
+    }
+
+    @Test
+    void test_remove_cancels_and_stops_rescheduling() {
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        ScheduledTaskSpecification spec = spec(() -> {}, DelayType.FIXED_RATE, Duration.ZERO, delay);
+        Scheduler s = new Scheduler(Set.of(spec), executor, now::get);
+        s.start();
+        Runnable first = lastScheduled(0L);
+
+        s.remove(spec);
+        first.run();
+
+        verify(future).cancel(false);
+        verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        assertEquals(0, s.size());
+    }
+
+    @Test
+    void test_due_tasks_run_on_workers() {
+        var ran = new AtomicBoolean(false);
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        List<Runnable> dispatched = new ArrayList<>();
+        Scheduler s = new Scheduler(Set.of(spec(() -> ran.set(true), DelayType.FIXED_RATE, Duration.ZERO, delay)), executor, dispatched::add, now::get);
+        s.start();
+
+        lastScheduled(0L).run();
         assertFalse(ran.get());
+        assertEquals(1, dispatched.size());
 
-        assertDoesNotThrow(wrapped::run);
+        dispatched.getFirst().run();
         assertTrue(ran.get());
+        verify(executor).schedule(any(Runnable.class), eq(5_000_000_000L), eq(TimeUnit.NANOSECONDS));
     }
 
+    @Test
+    void test_first_run_jittered_within_window() {
+        TaskTimer timer = mock(TaskTimer.class);
+        when(timer.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenReturn(mock(TaskTimer.Timeout.class));
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> {}, DelayType.FIXED_RATE, Duration.ofSeconds(1), delay)), timer, Runnable::run, Duration.ofSeconds(3), now::get);
+        s.start();
 
+        ArgumentCaptor<Long> delayNanos = ArgumentCaptor.forClass(Long.class);
+        verify(timer).schedule(any(Runnable.class), delayNanos.capture(), eq(TimeUnit.NANOSECONDS));
+        assertTrue(delayNanos.getValue() >= 1_000_000_000L);
+        assertTrue(delayNanos.getValue() < 4_000_000_000L);
+    }
+
+    @Test
+    void test_stop_cancels_timer_timeouts_and_shuts_timer_down() {
+        TaskTimer timer = mock(TaskTimer.class);
+        TaskTimer.Timeout timeout = mock(TaskTimer.Timeout.class);
+        when(timer.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenReturn(timeout);
+        var delay = new AtomicReference<>(Duration.ofSeconds(5));
+        Scheduler s = new Scheduler(Set.of(spec(() -> {}, DelayType.FIXED_RATE, Duration.ZERO, delay)), timer, Runnable::run, Duration.ZERO, now::get);
+        s.start();
+        s.stop();
+
+        verify(timeout).cancel(true);
+        verify(timer).shutdown();
+    }
 }
@@ -0,0 +1,96 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.tracker.DatabaseWrapper;
+import com.pugking4.spotifystat.tracker.DelayType;
+import com.pugking4.spotifystat.tracker.PlaySpool;
+import com.pugking4.spotifystat.tracker.SpoolReplayer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.pugking4.spotifystat.TestUtilities.getPlayedTrack;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class SpoolReplayerTests {
+    @TempDir
+    Path tempDir;
+    @Mock
+    private DatabaseWrapper databaseWrapper;
+
+    private PlaySpool spool;
+    private SpoolReplayer replayer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        spool = new PlaySpool(tempDir.resolve("play_spool.bin"));
+        replayer = new SpoolReplayer(spool, databaseWrapper);
+    }
+
+    @AfterEach
+    void tearDown() {
+        spool.close();
+    }
+
+    @Test
+    void test_returns_correct_spec() {
+        assertEquals("Spool Replayer", replayer.spec().description());
+        assertEquals(DelayType.FIXED_DELAY, replayer.spec().delayType());
+    }
+
+    @Test
+    void test_empty_spool_does_nothing() {
+        replayer.spec().task().run();
+
+        verifyNoInteractions(databaseWrapper);
+    }
+
+    @Test
+    void test_replays_in_order_and_empties_spool() {
+        List<PlayedTrack> plays = List.of(getPlayedTrack(), getPlayedTrack());
+        spool.append(plays);
+
+        replayer.spec().task().run();
+
+        ArgumentCaptor<List<PlayedTrack>> captor = ArgumentCaptor.forClass(List.class);
+        verify(databaseWrapper).replayPlayedTracks(captor.capture());
+        assertEquals(plays, captor.getValue());
+        assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    void test_failed_replay_keeps_plays_spooled() {
+        spool.append(List.of(getPlayedTrack()));
+        doThrow(new RuntimeException("database down")).when(databaseWrapper).replayPlayedTracks(any());
+
+        assertThrows(RuntimeException.class, () -> replayer.spec().task().run());
+
+        assertFalse(spool.isEmpty());
+        assertEquals(1, spool.readPending(10).plays().size());
+    }
+
+    @Test
+    void test_user_plays_replayed_against_their_user() {
+        DatabaseWrapper alice = mock(DatabaseWrapper.class);
+        when(databaseWrapper.forUser("alice")).thenReturn(alice);
+        PlayedTrack own = getPlayedTrack();
+        PlayedTrack alicePlay = getPlayedTrack();
+        spool.append(List.of(own));
+        spool.append("alice", List.of(alicePlay));
+
+        replayer.spec().task().run();
+
+        verify(databaseWrapper).replayPlayedTracks(List.of(own));
+        verify(alice).replayPlayedTracks(List.of(alicePlay));
+        assertTrue(spool.isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+package com.pugking4.spotifystat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pugking4.spotifystat.common.dto.Artist;
+import com.pugking4.spotifystat.common.dto.Device;
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.tracker.AvailableDevice;
+import com.pugking4.spotifystat.tracker.CurrentlyPlaying;
+import com.pugking4.spotifystat.tracker.SpotifyJsonDecoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.pugking4.spotifystat.TestUtilities.loadResource;
+
+// Compares the old Map tree plus fromMap decoding with the streaming decoder. Run main() after mvn test-compile,
+// the GC profiler reports gc.alloc.rate.norm, the bytes allocated per decoded response.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpotifyDecodingBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SpotifyJsonDecoder decoder = new SpotifyJsonDecoder(objectMapper.getFactory());
+
+    private byte[] currentlyPlaying;
+    private byte[] devices;
+    private byte[] artists;
+
+    @Setup
+    public void setUp() {
+        currentlyPlaying = loadResource("currently-playing-miku.json").getBytes(StandardCharsets.UTF_8);
+        devices = loadResource("available-devices.json").getBytes(StandardCharsets.UTF_8);
+        artists = loadResource("batch-artists-50.json").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public PlayedTrack currentlyPlayingMap() throws IOException {
+        Map<String, Object> trackData = objectMapper.readValue(currentlyPlaying, Map.class);
+        Map<String, Object> devicesData = objectMapper.readValue(devices, Map.class);
+        List<Map<String, Object>> deviceList = (List<Map<String, Object>>) devicesData.get("devices");
+        trackData.put("device", deviceList.stream().filter(x -> (Boolean) x.get("is_active")).findFirst().get());
+        trackData.put("time_finished", Instant.EPOCH);
+        return PlayedTrack.fromMap(trackData);
+    }
+
+    @Benchmark
+    public PlayedTrack currentlyPlayingStreaming() throws IOException {
+        CurrentlyPlaying trackData = decoder.decodeCurrentlyPlaying(new ByteArrayInputStream(currentlyPlaying)).orElseThrow();
+        Device active = decoder.decodeDevices(new ByteArrayInputStream(devices)).stream().filter(AvailableDevice::isActive).findFirst().orElseThrow().device();
+        return new PlayedTrack(trackData.track(), trackData.contextType(), active, trackData.popularity(), Instant.EPOCH);
+    }
+
+    // The steady-state poll, the same track still playing, never asks for the full decode.
+    @Benchmark
+    public int currentlyPlayingScan() throws IOException {
+        return decoder.scanCurrentlyPlaying(currentlyPlaying).orElseThrow().progressMs();
+    }
+
+    @Benchmark
+    public List<Artist> batchArtistsMap() throws IOException {
+        Map<String, Object> results = objectMapper.readValue(artists, Map.class);
+        List<Map<String, Object>> raw = (List<Map<String, Object>>) results.get("artists");
+        for (Map<String, Object> artist : raw) {
+            artist.put("updated_at", Instant.EPOCH);
+        }
+        return raw.stream().map(Artist::fromMap).toList();
+    }
+
+    @Benchmark
+    public List<Artist> batchArtistsStreaming() throws IOException {
+        return decoder.decodeArtists(new ByteArrayInputStream(artists), Instant.EPOCH);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpotifyDecodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,90 @@
+package com.pugking4.spotifystat;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.pugking4.spotifystat.common.dto.Artist;
+import com.pugking4.spotifystat.tracker.CurrentlyPlaying;
+import com.pugking4.spotifystat.tracker.CurrentlyPlayingView;
+import com.pugking4.spotifystat.tracker.SpotifyJsonDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpotifyJsonDecoderTests {
+    private final SpotifyJsonDecoder decoder = new SpotifyJsonDecoder(new JsonFactory());
+
+    private static InputStream json(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void test_release_date_precision() throws IOException {
+        String body = """
+            {"is_playing": true, "progress_ms": 10, "item": {"id": "t", "duration_ms": 1000,
+              "album": {"id": "a", "release_date": "1997", "release_date_precision": "year", "images": []}}}
+            """;
+
+        CurrentlyPlaying result = decoder.decodeCurrentlyPlaying(json(body)).orElseThrow();
+
+        assertEquals(LocalDate.of(1997, 1, 1), result.track().album().releaseDate());
+        assertNull(result.track().album().cover());
+        assertNull(result.contextType());
+    }
+
+    @Test
+    void test_null_item_has_no_track() throws IOException {
+        CurrentlyPlaying result = decoder.decodeCurrentlyPlaying(json("{\"is_playing\": true, \"progress_ms\": null, \"item\": null}")).orElseThrow();
+
+        assertTrue(result.isPlaying());
+        assertNull(result.track());
+        assertEquals(0, result.progressMs());
+    }
+
+    @Test
+    void test_empty_object_is_empty() throws IOException {
+        assertTrue(decoder.decodeCurrentlyPlaying(json("{}")).isEmpty());
+    }
+
+    @Test
+    void test_skips_null_artist_entries() throws IOException {
+        Instant now = Instant.now();
+        List<Artist> artists = decoder.decodeArtists(json("{\"artists\": [null, {\"id\": \"x\", \"genres\": [\"a\", \"b\"], \"followers\": {\"href\": null, \"total\": 7}}]}"), now);
+
+        assertEquals(1, artists.size());
+        assertEquals(List.of("a", "b"), artists.getFirst().genres());
+        assertEquals(7, artists.getFirst().followers());
+        assertEquals(now, artists.getFirst().updatedAt());
+    }
+
+    @Test
+    void test_error_message() throws IOException {
+        assertEquals("The access token expired", decoder.decodeErrorMessage(json("{\"error\": {\"status\": 401, \"message\": \"The access token expired\"}}")));
+        assertEquals("Unknown error", decoder.decodeErrorMessage(json("")));
+    }
+
+    @Test
+    void test_scan_reads_playback_fields_and_defers_full_decode() throws IOException {
+        byte[] body = TestUtilities.loadResource("currently-playing-miku.json").getBytes(StandardCharsets.UTF_8);
+
+        CurrentlyPlayingView view = decoder.scanCurrentlyPlaying(body).orElseThrow();
+
+        assertTrue(view.isPlaying());
+        assertEquals(2978, view.progressMs());
+        assertEquals("7aux5UvnlBDYlrlwoczifW", view.trackId());
+        assertEquals("Miku", view.full().track().name());
+        assertSame(view.full(), view.full());
+    }
+
+    @Test
+    void test_scan_empty_body() throws IOException {
+        assertTrue(decoder.scanCurrentlyPlaying(new byte[0]).isEmpty());
+        assertTrue(decoder.scanCurrentlyPlaying("{}".getBytes(StandardCharsets.UTF_8)).isEmpty());
+    }
+}
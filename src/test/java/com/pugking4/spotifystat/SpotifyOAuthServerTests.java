@@ -17,8 +17,14 @@ import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -60,7 +66,60 @@ public class SpotifyOAuthServerTests {
         assertTrue(baos.toString(UTF_8).contains("Authorization code received: abc"));
     }
 
+    @Test
+    void test_callback_hands_code_to_waiting_caller() throws Exception {
+        HttpExchange ex = mock(HttpExchange.class);
+        HttpContext ctx = mock(HttpContext.class);
+        when(ex.getRequestURI()).thenReturn(new URI("/callback?code=abc&state=xyz"));
+        when(ex.getHttpContext()).thenReturn(ctx);
+        when(ctx.getServer()).thenReturn(server);
+        when(ex.getResponseBody()).thenReturn(new ByteArrayOutputStream());
 
+        CompletableFuture<Optional<String>> waiting = CompletableFuture.supplyAsync(() -> oAuthServer.awaitCode(Duration.ofSeconds(5)));
+        oAuthServer.callbackHandler().handle(ex);
 
+        assertEquals(Optional.of("abc"), waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void test_awaitCode_empty_when_no_callback() {
+        assertEquals(Optional.empty(), oAuthServer.awaitCode(Duration.ofMillis(10)));
+    }
 
+    @Test
+    void test_shared_server_routes_each_code_by_state_and_keeps_running() throws Exception {
+        SpotifyOAuthServer shared = new SpotifyOAuthServer(cache, cfg, server, true);
+        CompletableFuture<String> alice = shared.expect("alice-state");
+        CompletableFuture<String> bob = shared.expect("bob-state");
+
+        shared.callbackHandler().handle(callback("/callback?code=bob-code&state=bob-state", new ByteArrayOutputStream()));
+        shared.callbackHandler().handle(callback("/callback?code=alice-code&state=alice-state", new ByteArrayOutputStream()));
+
+        assertEquals("alice-code", alice.get(5, TimeUnit.SECONDS));
+        assertEquals("bob-code", bob.get(5, TimeUnit.SECONDS));
+        verify(server, never()).stop(anyInt());
+        verify(cache, never()).write(eq("oauth_code.txt"), any());
+    }
+
+    @Test
+    void test_shared_server_rejects_unknown_state() throws Exception {
+        SpotifyOAuthServer shared = new SpotifyOAuthServer(cache, cfg, server, true);
+        CompletableFuture<String> pending = shared.expect("alice-state");
+        HttpExchange ex = callback("/callback?code=stolen-code&state=other-state", new ByteArrayOutputStream());
+
+        shared.callbackHandler().handle(ex);
+
+        verify(ex).sendResponseHeaders(eq(400), anyLong());
+        assertFalse(pending.isDone());
+    }
+
+    private HttpExchange callback(String uri, ByteArrayOutputStream body) throws Exception {
+        HttpExchange ex = mock(HttpExchange.class);
+        HttpContext ctx = mock(HttpContext.class);
+        when(ex.getRequestURI()).thenReturn(new URI(uri));
+        when(ex.getHttpContext()).thenReturn(ctx);
+        when(ctx.getServer()).thenReturn(server);
+        when(ex.getResponseBody()).thenReturn(body);
+        return ex;
+    }
 }
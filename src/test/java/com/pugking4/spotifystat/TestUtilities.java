@@ -1,19 +1,19 @@
 package com.pugking4.spotifystat;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.pugking4.spotifystat.common.dto.*;
+import com.pugking4.spotifystat.tracker.AvailableDevice;
+import com.pugking4.spotifystat.tracker.CurrentlyPlaying;
+import com.pugking4.spotifystat.tracker.CurrentlyPlayingView;
 import com.pugking4.spotifystat.tracker.PlayingTrack;
+import com.pugking4.spotifystat.tracker.SpotifyJsonDecoder;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.IntStream;
 
 public class TestUtilities {
@@ -121,87 +121,35 @@ public class TestUtilities {
         );
     }
 
-    public static List<Map<String, Object>> getArtistsRaw(int amount) {
-        Map<String, Object> base = new HashMap<>();
-        base.put("id", "7DkhW1MaKKLwJTSC5TtVW3");
-        base.put("name", "なるみや");
-        base.put("type", "artist");
-        base.put("popularity", 46);
-        base.put("href", "https://api.spotify.com/v1/artists/7DkhW1MaKKLwJTSC5TtVW3?locale=en-US%2Cen%3Bq%3D0.5");
-        base.put("uri", "spotify:artist:7DkhW1MaKKLwJTSC5TtVW3");
-
-        base.put("external_urls", new HashMap<>(Map.of(
-                "spotify", "https://open.spotify.com/artist/7DkhW1MaKKLwJTSC5TtVW3"
-        )));
-
-        Map<String, Object> followers = new HashMap<>();
-        followers.put("href", null);
-        followers.put("total", 41651);
-        base.put("followers", followers);
-
-
-        base.put("genres", new ArrayList<>(List.of("vocaloid")));
-
-        List<Map<String, Object>> baseImages = new ArrayList<>();
-        baseImages.add(new HashMap<>(Map.of("url", "https://i.scdn.co/image/ab6761610000e5eb42df248e509860e113728332", "height", 640, "width", 640)));
-        baseImages.add(new HashMap<>(Map.of("url", "https://i.scdn.co/image/ab6761610000517442df248e509860e113728332", "height", 320, "width", 320)));
-        baseImages.add(new HashMap<>(Map.of("url", "https://i.scdn.co/image/ab6761610000f17842df248e509860e113728332", "height", 160, "width", 160)));
-        base.put("images", baseImages);
-
-        List<Map<String, Object>> out = new ArrayList<>(amount);
-
-        for (int i = 0; i < amount; i++) {
-            String id = "test-artist-" + i;
-
-            Map<String, Object> m = new HashMap<>(base); // shallow copy top-level
-
-            // Replace scalars
-            m.put("id", id);
-            m.put("name", base.get("name") + "-" + i);
-            m.put("uri", "spotify:artist:" + id);
-            m.put("href", "https://api.spotify.com/v1/artists/" + id);
-
-            // Replace nested maps/lists with fresh copies
-            m.put("external_urls", new HashMap<>(Map.of(
-                    "spotify", "https://open.spotify.com/artist/" + id
-            )));
-
-            Map<String, Object> baseFollowers = (Map<String, Object>) base.get("followers");
-            m.put("followers", new HashMap<>(baseFollowers)); // ok: values are immutable/null
-
-            m.put("genres", new ArrayList<>((List<String>) base.get("genres")));
-
-            // Copy images list + each image map (so none are shared)
-            List<Map<String, Object>> imagesCopy = new ArrayList<>();
-            for (Map<String, Object> img : (List<Map<String, Object>>) base.get("images")) {
-                imagesCopy.add(new HashMap<>(img));
-            }
-            m.put("images", imagesCopy);
-
-            out.add(m);
-        }
-
-        return out;
+    public static CurrentlyPlaying getPlayingTrackFull(double percentageComplete) {
+        return getPlayingTrackFull(percentageComplete, true);
     }
 
+    public static CurrentlyPlayingView getPlayingTrackView(double percentageComplete) {
+        return getPlayingTrackView(percentageComplete, true);
+    }
 
-    public static Map<String, Object> getPlayingTrackFull(double percentageComplete) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        Map<String, Object> map = objectMapper.readValue(loadResource("currently-playing-miku.json"), Map.class);
-
-        Map<String, Object> item = (Map<String, Object>) map.get("item");
-        Number durationNum = (Number) item.get("duration_ms");
-        int durationMs = durationNum.intValue();
-        int progress = (int) Math.round(durationMs * percentageComplete);
+    public static CurrentlyPlayingView getPlayingTrackView(double percentageComplete, boolean isPlaying) {
+        CurrentlyPlaying full = getPlayingTrackFull(percentageComplete, isPlaying);
+        return new CurrentlyPlayingView(full.isPlaying(), full.progressMs(), full.track().id(), full.track().durationMs(), () -> full);
+    }
 
-        map.put("progress_ms", progress);
-        return map;
+    public static CurrentlyPlaying getPlayingTrackFull(double percentageComplete, boolean isPlaying) {
+        try (InputStream is = TestUtilities.class.getResourceAsStream("/currently-playing-miku.json")) {
+            CurrentlyPlaying decoded = new SpotifyJsonDecoder(new JsonFactory()).decodeCurrentlyPlaying(is).orElseThrow();
+            int progress = (int) Math.round(decoded.track().durationMs() * percentageComplete);
+            return new CurrentlyPlaying(isPlaying, progress, decoded.contextType(), decoded.track(), decoded.popularity());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
 
-    public static List<Map<String, Object>> getDevicesFull() throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        var results = objectMapper.readValue(loadResource("available-devices.json"), Map.class);
-        return (List<Map<String, Object>>) results.getOrDefault("devices", List.of());
+    public static List<AvailableDevice> getDevicesFull() {
+        try (InputStream is = TestUtilities.class.getResourceAsStream("/available-devices.json")) {
+            return new SpotifyJsonDecoder(new JsonFactory()).decodeDevices(is);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
@@ -5,6 +5,7 @@ import com.pugking4.spotifystat.tracker.*;
 import io.github.cdimascio.dotenv.Dotenv;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -14,6 +15,19 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.pugking4.spotifystat.TestUtilities.loadResource;
 import static org.junit.jupiter.api.Assertions.*;
@@ -30,6 +44,7 @@ public class TokenManagerTests {
     private SpotifyOAuthServer oAuthServer;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Clock clock = Clock.fixed(Instant.parse("2026-01-01T00:00:00Z"), ZoneOffset.UTC);
     private TokenManager tokenManager;
 
     @BeforeEach
@@ -49,7 +64,7 @@ public class TokenManagerTests {
     }
 
     void createTokenManager(TokenManagerConfig cfg) throws IOException {
-        tokenManager = TokenManager.create(httpClient, objectMapper, cache, cfg, oAuthServer, ms -> {}, 0);
+        tokenManager = TokenManager.create(httpClient, objectMapper, cache, cfg, oAuthServer, 0, clock);
     }
 
     @Test
@@ -138,6 +153,18 @@ public class TokenManagerTests {
         assertEquals("new-access-token", result);
     }
 
+    @Test
+    void test_interrupted_authorisation_frees_callback_server() throws IOException {
+        when(cache.read("refresh_token.txt")).thenReturn(new byte[0]);
+        when(cache.read("oauth_code.txt")).thenReturn(new byte[0]);
+
+        Thread.currentThread().interrupt();
+        assertThrows(SpotifyAuthenticationException.class, () -> createTokenManager(defaultConfig()));
+
+        assertTrue(Thread.interrupted());
+        verify(oAuthServer).stopServer();
+    }
+
     @Test
     void test_getAccessToken_invalid_refresh_token() throws IOException, InterruptedException {
         when(cache.read("refresh_token.txt")).thenReturn("invalid-refresh-token".getBytes(StandardCharsets.UTF_8));
@@ -163,6 +190,22 @@ public class TokenManagerTests {
         assertEquals("new-access-token", result);
     }
 
+    @Test
+    void test_rejected_refresh_token_for_user_fails_without_authorising() throws IOException, InterruptedException {
+        when(cache.read("refresh_token.txt")).thenReturn("revoked-refresh-token".getBytes(StandardCharsets.UTF_8));
+        HttpResponse<String> mockResponse = mock(HttpResponse.class);
+        when(mockResponse.statusCode()).thenReturn(400);
+        when(mockResponse.body()).thenReturn(loadResource("refresh-token-error.json"));
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenReturn(mockResponse);
+        tokenManager = TokenManager.create(httpClient, objectMapper, cache, defaultConfig(), oAuthServer, 0, clock, "alice");
+
+        assertThrows(SpotifyAuthenticationException.class, () -> tokenManager.getAccessToken());
+
+        assertTrue(tokenManager.needsAuthorisation());
+        verify(cache).write("refresh_token.txt", new byte[0]);
+        verify(oAuthServer, never()).startServer();
+    }
+
     @Test
     void getInstance_returns_preseeded_instance() throws Exception {
         TokenManager fake = mock(TokenManager.class);
@@ -207,6 +250,154 @@ public class TokenManagerTests {
 
     }
 
+    private HttpResponse<String> tokenResponse(String resource) throws IOException {
+        HttpResponse<String> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.body()).thenReturn(loadResource(resource));
+        return response;
+    }
 
-}
+    @Test
+    void test_expires_in_is_read_as_seconds() throws IOException, InterruptedException {
+        when(cache.read("refresh_token.txt")).thenReturn(new byte[0]);
+        when(cache.read("oauth_code.txt")).thenReturn("new-code".getBytes(StandardCharsets.UTF_8));
+        HttpResponse<String> response = tokenResponse("request-tokens.json");
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenReturn(response);
+
+        createTokenManager(defaultConfig());
+
+        assertEquals("new-access-token", tokenManager.getAccessToken());
+        assertEquals("new-access-token", tokenManager.getAccessToken());
+        verify(httpClient, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        // 3600 seconds minus the five minute refresh margin.
+        assertEquals(Duration.ofMinutes(55), tokenManager.spec().delay().get());
+    }
+
+    @Test
+    void test_background_refresh_fetches_token_before_first_read() throws IOException, InterruptedException {
+        createDefaultTokenManager();
+        HttpResponse<String> response = tokenResponse("refresh-token.json");
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenReturn(response);
+
+        ScheduledTaskSpecification spec = tokenManager.spec();
+        assertEquals("Token Refresher", spec.description());
+        spec.task().run();
+
+        assertEquals("access-token", tokenManager.getAccessToken());
+        verify(httpClient, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        verify(cache).write("refresh_token.txt", "refresh-token".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void test_background_refresh_skips_token_not_yet_due() throws IOException, InterruptedException {
+        createDefaultTokenManager();
+        HttpResponse<String> response = tokenResponse("refresh-token.json");
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenReturn(response);
+        tokenManager.getAccessToken();
+
+        tokenManager.spec().task().run();
+
+        verify(httpClient, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
 
+    @Test
+    void test_failed_background_refresh_backs_off_until_success() throws IOException, InterruptedException {
+        createDefaultTokenManager();
+        HttpResponse<String> response = tokenResponse("refresh-token.json");
+        int[] failuresLeft = {10};
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenAnswer(invocation -> {
+            if (failuresLeft[0]-- > 0) throw new IOException("Spotify unavailable");
+            return response;
+        });
+        ScheduledTaskSpecification spec = tokenManager.spec();
+
+        assertThrows(SpotifyAuthenticationException.class, () -> spec.task().run());
+        assertEquals(Duration.ofSeconds(2), spec.delay().get());
+        assertThrows(SpotifyAuthenticationException.class, () -> spec.task().run());
+        assertEquals(Duration.ofSeconds(4), spec.delay().get());
+        for (int i = 0; i < 8; i++) assertThrows(SpotifyAuthenticationException.class, () -> spec.task().run());
+        assertEquals(Duration.ofMinutes(5), spec.delay().get());
+
+        spec.task().run();
+
+        assertEquals(Duration.ofMinutes(55), spec.delay().get());
+    }
+
+    @Test
+    void test_concurrent_callers_share_one_refresh() throws Exception {
+        createDefaultTokenManager();
+        HttpResponse<String> response = tokenResponse("refresh-token.json");
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return response;
+        });
+
+        int callers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return tokenManager.getAccessToken();
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) assertEquals("access-token", result.get(5, TimeUnit.SECONDS));
+        pool.shutdown();
+
+        verify(httpClient, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    void test_authorisation_uses_code_from_callback_without_file() throws IOException, InterruptedException {
+        when(cache.read("refresh_token.txt")).thenReturn(new byte[0]);
+        when(cache.read("oauth_code.txt")).thenReturn(new byte[0]);
+        when(oAuthServer.awaitCode(any())).thenReturn(Optional.of("callback-code"));
+        HttpResponse<String> response = tokenResponse("request-tokens.json");
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenReturn(response);
+
+        createTokenManager(defaultConfig());
+
+        assertEquals("new-access-token", tokenManager.getAccessToken());
+        verify(cache, times(1)).read("oauth_code.txt");
+        verify(oAuthServer, times(1)).awaitCode(any());
+    }
+
+    @Test
+    void test_user_authorises_through_shared_server_by_state() throws IOException, InterruptedException {
+        when(cache.read("refresh_token.txt")).thenReturn(new byte[0]);
+        when(oAuthServer.expect(any())).thenReturn(CompletableFuture.completedFuture("callback-code"));
+        HttpResponse<String> response = tokenResponse("request-tokens.json");
+        when(httpClient.send(any(HttpRequest.class), eq(HttpResponse.BodyHandlers.ofString()))).thenReturn(response);
+
+        tokenManager = TokenManager.create(httpClient, objectMapper, cache, defaultConfig(), oAuthServer, 0, clock, "alice");
+
+        assertEquals("new-access-token", tokenManager.getAccessToken());
+        ArgumentCaptor<String> state = ArgumentCaptor.forClass(String.class);
+        verify(oAuthServer).expect(state.capture());
+        verify(oAuthServer).forget(state.getValue());
+        verify(oAuthServer, never()).startServer();
+        verify(oAuthServer, never()).awaitCode(any());
+    }
+
+    @Test
+    void test_restored_token_used_without_refresh() throws IOException, InterruptedException {
+        createDefaultTokenManager();
+
+        tokenManager.restoreAccessToken(new TokenManager.AccessToken("saved-token", clock.instant().plus(Duration.ofMinutes(30))));
+        tokenManager.spec().task().run();
+
+        assertEquals("saved-token", tokenManager.getAccessToken());
+        verify(httpClient, never()).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    void test_expired_saved_token_ignored() throws IOException {
+        createDefaultTokenManager();
+
+        tokenManager.restoreAccessToken(new TokenManager.AccessToken("saved-token", clock.instant().minusSeconds(1)));
+
+        assertNull(tokenManager.currentAccessToken().value());
+    }
+}
@@ -6,16 +6,23 @@ import com.pugking4.spotifystat.tracker.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class TrackingPollerTests {
@@ -44,36 +51,35 @@ public class TrackingPollerTests {
 
     @Test
     void test_run_does_nothing_when_poll_empty() {
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(Collections.emptyMap());
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.empty());
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
         spec.task().run();
 
-        verify(spotifyWrapper).getCurrentlyPlayingTrack();
+        verify(spotifyWrapper).getCurrentlyPlaying();
         verifyNoInteractions(databaseWrapper);
         assertEquals(Duration.ofSeconds(15), spec.delay().get());
     }
 
     @Test
     void test_run_sets_active_mode_when_playing() throws JsonProcessingException {
-        var map = TestUtilities.getPlayingTrackFull(0.05);
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(map);
+        var track = TestUtilities.getPlayingTrackView(0.05);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(track));
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
         spec.task().run();
 
         assertEquals(Duration.ofSeconds(5), spec.delay().get());
-        verify(spotifyWrapper).getCurrentlyPlayingTrack();
+        verify(spotifyWrapper).getCurrentlyPlaying();
         verifyNoInteractions(databaseWrapper);
     }
 
     @Test
     void test_run_sets_idle_mode_when_not_playing() throws JsonProcessingException {
-        var map = TestUtilities.getPlayingTrackFull(0.25);
-        map.put("is_playing", false);
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(map);
+        var track = TestUtilities.getPlayingTrackView(0.25, false);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(track));
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
@@ -85,10 +91,9 @@ public class TrackingPollerTests {
 
     @Test
     void test_run_sets_idle_mode_from_active() throws JsonProcessingException {
-        var map1 = TestUtilities.getPlayingTrackFull(0.25);
-        var map2 = TestUtilities.getPlayingTrackFull(0.30);
-        map2.put("is_playing", false);
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(map1, map2);
+        var track1 = TestUtilities.getPlayingTrackView(0.25);
+        var track2 = TestUtilities.getPlayingTrackView(0.30, false);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(track1), Optional.of(track2));
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
@@ -101,15 +106,15 @@ public class TrackingPollerTests {
 
     @Test
     void test_doesnt_save_unfinished_track() throws JsonProcessingException {
-        List<Map<String, Object>> maps = new ArrayList<>();
+        List<Optional<CurrentlyPlayingView>> polls = new ArrayList<>();
         for (double p = 0.05; p < 0.65; p += 0.05) {
-            maps.add(TestUtilities.getPlayingTrackFull(p));
+            polls.add(Optional.of(TestUtilities.getPlayingTrackView(p)));
         }
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(maps.get(0), maps.subList(1, maps.size()).toArray(new Map[0]));
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(polls.get(0), polls.subList(1, polls.size()).toArray(new Optional[0]));
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
-        for (int i = 0; i < maps.size(); i++) {
+        for (int i = 0; i < polls.size(); i++) {
             spec.task().run();
         }
 
@@ -118,17 +123,17 @@ public class TrackingPollerTests {
 
     @Test
     void test_saves_finished_track_from_scratch() throws JsonProcessingException {
-        List<Map<String, Object>> maps = new ArrayList<>();
+        List<Optional<CurrentlyPlayingView>> polls = new ArrayList<>();
         for (double p = 0.05; p < 1.00; p += 0.05) {
-            maps.add(TestUtilities.getPlayingTrackFull(p));
+            polls.add(Optional.of(TestUtilities.getPlayingTrackView(p)));
         }
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(maps.get(0), maps.subList(1, maps.size()).toArray(new Map[0]));
-        var dMap = TestUtilities.getDevicesFull();
-        when(spotifyWrapper.getAvailableDevices()).thenReturn(dMap);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(polls.get(0), polls.subList(1, polls.size()).toArray(new Optional[0]));
+        var devices = TestUtilities.getDevicesFull();
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(devices);
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
-        for (int i = 0; i < maps.size(); i++) {
+        for (int i = 0; i < polls.size(); i++) {
             spec.task().run();
         }
 
@@ -138,17 +143,17 @@ public class TrackingPollerTests {
 
     @Test
     void test_saves_finished_track_from_scratch_at_bounds() throws JsonProcessingException {
-        List<Map<String, Object>> maps = new ArrayList<>();
+        List<Optional<CurrentlyPlayingView>> polls = new ArrayList<>();
         for (double p = 0.00; p < 1.05; p += 0.05) {
-            maps.add(TestUtilities.getPlayingTrackFull(p));
+            polls.add(Optional.of(TestUtilities.getPlayingTrackView(p)));
         }
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(maps.get(0), maps.subList(1, maps.size()).toArray(new Map[0]));
-        var dMap = TestUtilities.getDevicesFull();
-        when(spotifyWrapper.getAvailableDevices()).thenReturn(dMap);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(polls.get(0), polls.subList(1, polls.size()).toArray(new Optional[0]));
+        var devices = TestUtilities.getDevicesFull();
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(devices);
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
-        for (int i = 0; i < maps.size(); i++) {
+        for (int i = 0; i < polls.size(); i++) {
             spec.task().run();
         }
 
@@ -158,33 +163,220 @@ public class TrackingPollerTests {
 
     @Test
     void test_resume_track_from_pause() throws JsonProcessingException {
-        List<Map<String, Object>> maps = new ArrayList<>();
+        List<Optional<CurrentlyPlayingView>> polls = new ArrayList<>();
         for (double p = 0.05; p < 0.50; p += 0.05) {
-            maps.add(TestUtilities.getPlayingTrackFull(p));
+            polls.add(Optional.of(TestUtilities.getPlayingTrackView(p)));
         }
         for (double p = 0.50; p < 0.65; p += 0.05) {
-            var map = TestUtilities.getPlayingTrackFull(p);
-            map.put("is_playing", false);
-            maps.add(map);
+            polls.add(Optional.of(TestUtilities.getPlayingTrackView(p, false)));
         }
         for (int i = 0; i < 100; i++) {
-            maps.add(Collections.emptyMap());
+            polls.add(Optional.empty());
         }
         for (double p = 0.65; p < 1.00; p += 0.05) {
-            maps.add(TestUtilities.getPlayingTrackFull(p));
+            polls.add(Optional.of(TestUtilities.getPlayingTrackView(p)));
         }
 
-        when(spotifyWrapper.getCurrentlyPlayingTrack()).thenReturn(maps.get(0), maps.subList(1, maps.size()).toArray(new Map[0]));
-        var dMap = TestUtilities.getDevicesFull();
-        when(spotifyWrapper.getAvailableDevices()).thenReturn(dMap);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(polls.get(0), polls.subList(1, polls.size()).toArray(new Optional[0]));
+        var devices = TestUtilities.getDevicesFull();
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(devices);
 
         ScheduledTaskSpecification spec = trackingPoller.spec();
 
-        for (int i = 0; i < maps.size(); i++) {
+        for (int i = 0; i < polls.size(); i++) {
             spec.task().run();
         }
 
         verify(spotifyWrapper).getAvailableDevices();
         verify(databaseWrapper).insertPlayedTrack(any());
     }
+
+    @Test
+    void test_records_typed_play_with_active_device() {
+        List<Optional<CurrentlyPlayingView>> polls = new ArrayList<>();
+        for (double p = 0.05; p < 1.00; p += 0.05) {
+            polls.add(Optional.of(TestUtilities.getPlayingTrackView(p)));
+        }
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(polls.get(0), polls.subList(1, polls.size()).toArray(new Optional[0]));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        for (int i = 0; i < polls.size(); i++) {
+            spec.task().run();
+        }
+
+        ArgumentCaptor<PlayedTrack> captor = ArgumentCaptor.forClass(PlayedTrack.class);
+        verify(databaseWrapper).insertPlayedTrack(captor.capture());
+        PlayedTrack played = captor.getValue();
+        assertEquals("7aux5UvnlBDYlrlwoczifW", played.track().id());
+        assertEquals("collection", played.contextType());
+        assertEquals("SM-S911B", played.device().name());
+        assertNotNull(played.timeFinished());
+    }
+
+    @Test
+    void test_full_decode_deferred_until_played() {
+        CurrentlyPlaying full = TestUtilities.getPlayingTrackFull(0.0);
+        AtomicInteger decodes = new AtomicInteger();
+        List<Optional<CurrentlyPlayingView>> polls = new ArrayList<>();
+        for (double p = 0.05; p < 1.00; p += 0.05) {
+            int progress = (int) Math.round(full.track().durationMs() * p);
+            polls.add(Optional.of(new CurrentlyPlayingView(true, progress, full.track().id(), full.track().durationMs(), () -> {
+                decodes.incrementAndGet();
+                return full;
+            })));
+        }
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(polls.get(0), polls.subList(1, polls.size()).toArray(new Optional[0]));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        for (int i = 0; i < polls.size(); i++) {
+            spec.task().run();
+            if (decodes.get() == 0) verifyNoInteractions(databaseWrapper);
+        }
+
+        assertEquals(1, decodes.get());
+        verify(databaseWrapper).insertPlayedTrack(any());
+    }
+
+    @Test
+    void test_prediction_waits_until_played_threshold() {
+        trackingPoller = new TrackingPoller(spotifyWrapper, databaseWrapper::insertPlayedTrack, new PollPredictionConfig(Duration.ofMinutes(10)));
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)));
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        spec.task().run();
+
+        // 70% of 223124ms rounded up, plus the default 500ms margin.
+        assertEquals(Duration.ofMillis(156_187 + 500), spec.delay().get());
+    }
+
+    @Test
+    void test_prediction_capped_by_sparse_interval() {
+        trackingPoller = new TrackingPoller(spotifyWrapper, databaseWrapper::insertPlayedTrack, new PollPredictionConfig(Duration.ofSeconds(30)));
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)));
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        spec.task().run();
+
+        assertEquals(Duration.ofSeconds(30), spec.delay().get());
+    }
+
+    @Test
+    void test_prediction_idles_when_paused() {
+        trackingPoller = new TrackingPoller(spotifyWrapper, databaseWrapper::insertPlayedTrack, new PollPredictionConfig(Duration.ofMinutes(10)));
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)), Optional.of(TestUtilities.getPlayingTrackView(0.10, false)));
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        spec.task().run();
+        spec.task().run();
+
+        assertEquals(Duration.ofSeconds(15), spec.delay().get());
+    }
+
+    @Test
+    void test_prediction_records_track_with_two_polls_and_counts_saved_calls() {
+        trackingPoller = new TrackingPoller(spotifyWrapper, databaseWrapper::insertPlayedTrack, new PollPredictionConfig(Duration.ofMinutes(10)));
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)), Optional.of(TestUtilities.getPlayingTrackView(0.76)));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        spec.task().run();
+        spec.task().run();
+
+        verify(databaseWrapper).insertPlayedTrack(any());
+        // The second poll aims past the end of the track: 223124 - 169574 plus the margin.
+        assertEquals(Duration.ofMillis(53_550 + 500), spec.delay().get());
+        PollMetrics metrics = trackingPoller.metrics();
+        assertEquals(2, metrics.polls());
+        assertEquals(2, metrics.activePolls());
+        assertEquals(42, metrics.fixedCadencePolls());
+        assertEquals(40, metrics.saved());
+    }
+
+    @Test
+    void test_fixed_cadence_saves_nothing() {
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)), Optional.of(TestUtilities.getPlayingTrackView(0.10)));
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        spec.task().run();
+        spec.task().run();
+
+        assertEquals(0, trackingPoller.metrics().saved());
+        assertEquals(2, trackingPoller.metrics().activePolls());
+    }
+
+    @Test
+    void test_prediction_config_rejects_minimum_longer_than_sparse() {
+        assertThrows(IllegalArgumentException.class, () -> new PollPredictionConfig(Duration.ofSeconds(5), Duration.ZERO, Duration.ofSeconds(10)));
+    }
+
+    @Test
+    void test_idle_backoff_grows_and_snaps_back_when_playing() {
+        long[] plays = new long[ListeningHeatmap.SLOTS];
+        plays[ListeningHeatmap.slot(1, 20)] = 100;
+        when(databaseWrapper.getListeningHeatmap(any(), any())).thenReturn(new ListeningHeatmap(plays));
+        IdleBackoffPolicy idleBackoff = new IdleBackoffPolicy(databaseWrapper, Clock.fixed(Instant.parse("2026-10-14T03:00:00Z"), ZoneOffset.UTC), Duration.ofSeconds(15), Duration.ofMinutes(5));
+        idleBackoff.refresh();
+        trackingPoller = new TrackingPoller(spotifyWrapper, databaseWrapper::insertPlayedTrack, null, idleBackoff);
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.empty(), Optional.empty(), Optional.of(TestUtilities.getPlayingTrackView(0.10, false)), Optional.of(TestUtilities.getPlayingTrackView(0.05)));
+
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        spec.task().run();
+        assertEquals(Duration.ofSeconds(15), spec.delay().get());
+        spec.task().run();
+        assertEquals(Duration.ofSeconds(30), spec.delay().get());
+        spec.task().run();
+        assertEquals(Duration.ofSeconds(60), spec.delay().get());
+        spec.task().run();
+        assertEquals(Duration.ofSeconds(5), spec.delay().get());
+
+        PollMetrics metrics = trackingPoller.metrics();
+        assertEquals(3, metrics.idlePolls());
+        assertEquals(7, metrics.idleFixedCadencePolls());
+        assertEquals(4, metrics.saved());
+    }
+
+    @Test
+    void test_checkpoint_follows_current_track() {
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)), Optional.of(TestUtilities.getPlayingTrackView(0.80)));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+        Runnable poll = trackingPoller.spec().task();
+
+        assertTrue(trackingPoller.checkpoint().isEmpty());
+        poll.run();
+        PlaybackCheckpoint checkpoint = trackingPoller.checkpoint().orElseThrow();
+        assertEquals("24LeTf9xct196GYmJ7Qemo", checkpoint.trackId());
+        assertEquals(Math.round(155384 * 0.05), checkpoint.progressMs());
+        assertEquals(checkpoint, PlaybackCheckpoint.decode(checkpoint.encode()));
+
+        poll.run();
+        assertTrue(trackingPoller.checkpoint().isEmpty());
+    }
+
+    @Test
+    void test_restored_checkpoint_counts_track_started_elsewhere() {
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.80)));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+        ScheduledTaskSpecification spec = trackingPoller.spec();
+        int started = (int) Math.round(155384 * 0.05);
+
+        trackingPoller.restore(new PlaybackCheckpoint("24LeTf9xct196GYmJ7Qemo", 155384, started, started, Instant.now()));
+        assertEquals(Duration.ofSeconds(5), spec.delay().get());
+        spec.task().run();
+
+        verify(databaseWrapper).insertPlayedTrack(any(PlayedTrack.class));
+    }
+
+    @Test
+    void test_stale_checkpoint_ignored() {
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.80)));
+        int started = (int) Math.round(155384 * 0.05);
+
+        trackingPoller.restore(new PlaybackCheckpoint("24LeTf9xct196GYmJ7Qemo", 155384, started, started, Instant.now().minus(Duration.ofHours(1))));
+        trackingPoller.spec().task().run();
+
+        assertTrue(trackingPoller.checkpoint().isPresent());
+        verifyNoInteractions(databaseWrapper);
+    }
 }
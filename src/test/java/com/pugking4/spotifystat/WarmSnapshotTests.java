@@ -0,0 +1,126 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.tracker.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class WarmSnapshotTests {
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private SpotifyWrapper spotifyWrapper;
+    @Mock
+    private DatabaseWrapper databaseWrapper;
+    @Mock
+    private TokenManager tokenManager;
+
+    private Path path;
+    private final TokenManager.AccessToken token = new TokenManager.AccessToken("access", Instant.now().plus(30, ChronoUnit.MINUTES).truncatedTo(ChronoUnit.MILLIS));
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        path = tempDir.resolve("warm_snapshot.bin");
+        when(tokenManager.currentAccessToken()).thenReturn(token);
+    }
+
+    private WarmSnapshot savedSnapshot() {
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.05)));
+        TrackingPoller poller = new TrackingPoller(spotifyWrapper, databaseWrapper);
+        poller.spec().task().run();
+        KnownIdCache knownIds = new KnownIdCache(10);
+        knownIds.addAll(KnownIdCache.Dimension.ARTIST, List.of("artist-1", "artist-2"));
+        knownIds.add(KnownIdCache.Dimension.DEVICE, "Laptop");
+        WarmSnapshot snapshot = new WarmSnapshot(path, poller, knownIds, tokenManager);
+        snapshot.save();
+        return snapshot;
+    }
+
+    @Test
+    void test_restore_brings_back_track_token_and_known_ids() {
+        savedSnapshot();
+        TrackingPoller poller = new TrackingPoller(spotifyWrapper, databaseWrapper);
+        KnownIdCache knownIds = new KnownIdCache(10);
+
+        assertTrue(new WarmSnapshot(path, poller, knownIds, tokenManager).restore());
+
+        assertEquals("24LeTf9xct196GYmJ7Qemo", poller.checkpoint().orElseThrow().trackId());
+        assertEquals(List.of("artist-1", "artist-2"), knownIds.snapshot().get(KnownIdCache.Dimension.ARTIST));
+        assertTrue(knownIds.contains(KnownIdCache.Dimension.DEVICE, "Laptop"));
+        verify(tokenManager).restoreAccessToken(token);
+    }
+
+    @Test
+    void test_restore_without_poller_keeps_token_and_known_ids_only() {
+        savedSnapshot();
+        KnownIdCache knownIds = new KnownIdCache(10);
+
+        assertTrue(new WarmSnapshot(path, null, knownIds, tokenManager).restore());
+
+        assertTrue(knownIds.contains(KnownIdCache.Dimension.DEVICE, "Laptop"));
+        verify(tokenManager).restoreAccessToken(token);
+    }
+
+    @Test
+    void test_restored_track_counted_after_restart() {
+        savedSnapshot();
+        when(spotifyWrapper.getCurrentlyPlaying()).thenReturn(Optional.of(TestUtilities.getPlayingTrackView(0.80)));
+        when(spotifyWrapper.getAvailableDevices()).thenReturn(TestUtilities.getDevicesFull());
+        TrackingPoller poller = new TrackingPoller(spotifyWrapper, databaseWrapper);
+        new WarmSnapshot(path, poller, new KnownIdCache(10), tokenManager).restore();
+
+        poller.spec().task().run();
+
+        verify(databaseWrapper).insertPlayedTrack(any());
+    }
+
+    @Test
+    void test_missing_snapshot_restores_nothing() {
+        KnownIdCache knownIds = new KnownIdCache(10);
+
+        assertFalse(new WarmSnapshot(path, null, knownIds, tokenManager).restore());
+        assertEquals(0, knownIds.metrics().size());
+        verify(tokenManager, never()).restoreAccessToken(any());
+    }
+
+    @Test
+    void test_corrupt_snapshot_ignored() throws Exception {
+        savedSnapshot();
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+        KnownIdCache knownIds = new KnownIdCache(10);
+
+        assertFalse(new WarmSnapshot(path, null, knownIds, tokenManager).restore());
+        assertEquals(0, knownIds.metrics().size());
+    }
+
+    @Test
+    void test_truncated_snapshot_ignored() throws Exception {
+        savedSnapshot();
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertFalse(new WarmSnapshot(path, null, new KnownIdCache(10), tokenManager).restore());
+    }
+}
@@ -0,0 +1,228 @@
+package com.pugking4.spotifystat;
+
+import com.pugking4.spotifystat.common.dto.PlayedTrack;
+import com.pugking4.spotifystat.tracker.DatabaseWrapper;
+import com.pugking4.spotifystat.tracker.PlaySpool;
+import com.pugking4.spotifystat.tracker.SpooledPlays;
+import com.pugking4.spotifystat.tracker.WriteBehindMetrics;
+import com.pugking4.spotifystat.tracker.WriteBehindQueue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.pugking4.spotifystat.TestUtilities.getPlayedTrack;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class WriteBehindQueueTests {
+    @Mock
+    private DatabaseWrapper databaseWrapper;
+
+    private final List<Long> sleeps = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    WriteBehindQueue queue(int capacity) {
+        return new WriteBehindQueue(databaseWrapper, capacity, 50, Duration.ZERO, sleeps::add);
+    }
+
+    // Makes the first write block until released, so the test controls what queues up behind it.
+    CountDownLatch blockFirstWrite(CountDownLatch entered) {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            entered.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return null;
+        }).doNothing().when(databaseWrapper).insertPlayedTracks(any());
+        return release;
+    }
+
+    @Test
+    void test_group_commits_plays_queued_behind_a_slow_write() throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = blockFirstWrite(entered);
+        WriteBehindQueue queue = queue(10);
+        queue.start();
+
+        PlayedTrack first = getPlayedTrack();
+        PlayedTrack second = getPlayedTrack();
+        PlayedTrack third = getPlayedTrack();
+
+        queue.record(first);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        queue.record(second);
+        queue.record(third);
+        release.countDown();
+        verify(databaseWrapper, timeout(5000).times(2)).insertPlayedTracks(any());
+        queue.stop(Duration.ofSeconds(5));
+
+        ArgumentCaptor<List<PlayedTrack>> captor = ArgumentCaptor.forClass(List.class);
+        verify(databaseWrapper, times(2)).insertPlayedTracks(captor.capture());
+        assertEquals(List.of(first), captor.getAllValues().get(0));
+        assertEquals(List.of(second, third), captor.getAllValues().get(1));
+
+        WriteBehindMetrics metrics = queue.metrics();
+        assertEquals(3, metrics.written());
+        assertEquals(2, metrics.batches());
+    }
+
+    @Test
+    void test_record_does_not_block_when_full() throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = blockFirstWrite(entered);
+        WriteBehindQueue queue = queue(1);
+        queue.start();
+
+        queue.record(getPlayedTrack());
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        queue.record(getPlayedTrack());
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> queue.record(getPlayedTrack()));
+        assertEquals(1, queue.metrics().rejected());
+
+        release.countDown();
+        verify(databaseWrapper, timeout(5000).times(2)).insertPlayedTracks(any());
+        queue.stop(Duration.ofSeconds(5));
+        assertEquals(2, queue.metrics().written());
+    }
+
+    @Test
+    void test_retries_failed_write_with_backoff() {
+        doThrow(new RuntimeException("database down")).doNothing().when(databaseWrapper).insertPlayedTracks(any());
+        WriteBehindQueue queue = queue(10);
+        queue.start();
+
+        queue.record(getPlayedTrack());
+        verify(databaseWrapper, timeout(5000).times(2)).insertPlayedTracks(any());
+        queue.stop(Duration.ofSeconds(5));
+
+        assertEquals(List.of(1000L), sleeps);
+        assertEquals(1, queue.metrics().failedAttempts());
+        assertEquals(1, queue.metrics().written());
+    }
+
+    @Test
+    void test_stop_flushes_pending_plays() {
+        WriteBehindQueue queue = queue(10);
+        queue.start();
+
+        for (int i = 0; i < 5; i++) {
+            queue.record(getPlayedTrack());
+        }
+        queue.stop(Duration.ofSeconds(5));
+
+        assertEquals(5, queue.metrics().written());
+        assertEquals(0, queue.metrics().queued());
+    }
+
+    @Test
+    void test_failed_write_is_spooled(@TempDir Path tempDir) {
+        doThrow(new RuntimeException("database down")).when(databaseWrapper).insertPlayedTracks(any());
+        PlaySpool spool = new PlaySpool(tempDir.resolve("play_spool.bin"));
+        WriteBehindQueue queue = new WriteBehindQueue(databaseWrapper, spool, 10, 50, Duration.ZERO, sleeps::add);
+        queue.start();
+
+        PlayedTrack play = getPlayedTrack();
+        queue.record(play);
+        verify(databaseWrapper, timeout(5000)).insertPlayedTracks(any());
+        queue.stop(Duration.ofSeconds(5));
+
+        assertEquals(List.of(play), spool.readPending(10).plays());
+        assertEquals(1, queue.metrics().spilled());
+        assertTrue(sleeps.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    void test_user_plays_commit_and_spool_per_user(@TempDir Path tempDir) {
+        DatabaseWrapper alice = mock(DatabaseWrapper.class);
+        DatabaseWrapper bob = mock(DatabaseWrapper.class);
+        when(databaseWrapper.forUser("alice")).thenReturn(alice);
+        when(databaseWrapper.forUser("bob")).thenReturn(bob);
+        doThrow(new RuntimeException("database down")).when(bob).insertPlayedTracks(any());
+        PlaySpool spool = new PlaySpool(tempDir.resolve("play_spool.bin"));
+        WriteBehindQueue queue = new WriteBehindQueue(databaseWrapper, spool, 10, 50, Duration.ZERO, sleeps::add);
+        queue.start();
+
+        PlayedTrack alicePlay = getPlayedTrack();
+        PlayedTrack bobPlay = getPlayedTrack();
+        queue.forUser("alice").record(alicePlay);
+        queue.forUser("bob").record(bobPlay);
+        verify(bob, timeout(5000)).insertPlayedTracks(List.of(bobPlay));
+        queue.stop(Duration.ofSeconds(5));
+
+        verify(alice).insertPlayedTracks(List.of(alicePlay));
+        verify(databaseWrapper, never()).insertPlayedTracks(any());
+        SpooledPlays pending = spool.readPending(10);
+        assertEquals(List.of(bobPlay), pending.plays());
+        assertEquals(List.of("bob"), pending.userIds());
+        spool.close();
+    }
+
+    @Test
+    void test_idempotent_queue_replays_plays(@TempDir Path tempDir) {
+        PlaySpool spool = new PlaySpool(tempDir.resolve("play_spool.bin"));
+        WriteBehindQueue queue = new WriteBehindQueue(databaseWrapper, spool, 10, 50, Duration.ZERO, sleeps::add, true);
+        queue.start();
+
+        PlayedTrack play = getPlayedTrack();
+        queue.record(play);
+        queue.stop(Duration.ofSeconds(5));
+
+        verify(databaseWrapper).replayPlayedTracks(List.of(play));
+        verify(databaseWrapper, never()).insertPlayedTracks(any());
+        spool.close();
+    }
+
+    @Test
+    void test_plays_join_existing_spool_to_keep_order(@TempDir Path tempDir) {
+        PlaySpool spool = new PlaySpool(tempDir.resolve("play_spool.bin"));
+        PlayedTrack older = getPlayedTrack();
+        spool.append(List.of(older));
+        WriteBehindQueue queue = new WriteBehindQueue(databaseWrapper, spool, 10, 50, Duration.ZERO, sleeps::add);
+        queue.start();
+
+        PlayedTrack newer = getPlayedTrack();
+        queue.record(newer);
+        queue.stop(Duration.ofSeconds(5));
+
+        verify(databaseWrapper, never()).insertPlayedTracks(any());
+        assertEquals(List.of(older, newer), spool.readPending(10).plays());
+        spool.close();
+    }
+
+    @Test
+    void test_spools_when_not_started(@TempDir Path tempDir) {
+        PlaySpool spool = new PlaySpool(tempDir.resolve("play_spool.bin"));
+        WriteBehindQueue queue = new WriteBehindQueue(databaseWrapper, spool, 10, 50, Duration.ZERO, sleeps::add);
+
+        queue.record(getPlayedTrack());
+
+        assertEquals(1, spool.readPending(10).plays().size());
+        assertEquals(0, queue.metrics().rejected());
+        spool.close();
+    }
+
+    @Test
+    void test_rejects_when_not_started() {
+        WriteBehindQueue queue = queue(10);
+
+        queue.record(getPlayedTrack());
+
+        verifyNoInteractions(databaseWrapper);
+        assertEquals(1, queue.metrics().rejected());
+    }
+}
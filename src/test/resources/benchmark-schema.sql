@@ -0,0 +1,59 @@
+DROP SCHEMA IF EXISTS spotify_stat_benchmark CASCADE;
+CREATE SCHEMA spotify_stat_benchmark;
+SET search_path TO spotify_stat_benchmark;
+
+CREATE TABLE artists (
+    id TEXT PRIMARY KEY,
+    name TEXT,
+    followers INTEGER,
+    genres TEXT[],
+    image TEXT,
+    popularity INTEGER,
+    updated_at TIMESTAMPTZ
+);
+
+CREATE TABLE albums (
+    id TEXT PRIMARY KEY,
+    name TEXT,
+    cover TEXT,
+    release_date DATE,
+    release_date_precision TEXT,
+    album_type TEXT
+);
+
+CREATE TABLE album_artist (
+    album_id TEXT REFERENCES albums (id),
+    artist_id TEXT REFERENCES artists (id),
+    PRIMARY KEY (album_id, artist_id)
+);
+
+CREATE TABLE tracks (
+    id TEXT PRIMARY KEY,
+    name TEXT,
+    album_id TEXT REFERENCES albums (id),
+    duration_ms INTEGER,
+    is_explicit BOOLEAN,
+    is_local BOOLEAN
+);
+
+CREATE TABLE track_artist (
+    track_id TEXT REFERENCES tracks (id),
+    artist_id TEXT REFERENCES artists (id),
+    PRIMARY KEY (track_id, artist_id)
+);
+
+CREATE TABLE devices (
+    name TEXT PRIMARY KEY,
+    type TEXT
+);
+
+CREATE TABLE track_history (
+    id SERIAL PRIMARY KEY,
+    context_type TEXT,
+    album_id TEXT REFERENCES albums (id),
+    track_id TEXT REFERENCES tracks (id),
+    device_name TEXT REFERENCES devices (name),
+    current_popularity INTEGER,
+    time_finished TIMESTAMPTZ,
+    user_id TEXT
+);